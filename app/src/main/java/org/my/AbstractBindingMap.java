@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Base class for the maps used to store bindings created by class Binder. n.b. bindings are maintained
+ * 1:1 i.e. the same value cannot be bound to two different identifiers.<p/>
+ *
+ * Subclasses decide how the bindings are stored. {@link BindingMap} keeps them in concurrent hash maps,
+ * {@link CompactBindingMap} and {@link PersistentBindingMap} pack them into flat tables,
+ * {@link BoundedBindingMap} caps their number and age and {@link FrozenBindingMap} is an immutable copy
+ * optimised for lookups. This class holds what all of them share: the {@link IdentifierSequence} for each
+ * prefix used by the binders sharing the map, so that they never propose the same identifier, and the
+ * choice of deterministic numbering.
+ */
+public abstract class AbstractBindingMap
+{
+    /**
+     * the sequences for each prefix, created when the first binder asks for one
+     */
+    private Map<String, IdentifierSequence> sequences;
+    private boolean deterministic;
+
+    /**
+     * where value is already bound to some identifier returns that identifier otherwise establishes a new
+     * binding of identifier to value and returns null
+     * @param identifier a potential new identifier for the value
+     * @param value the value whose binding is to be established
+     * @return any existing identifier for the value or null if a new binding is established
+     * @throws IllegalArgumentException if the value is not bound and identifier is already bound to some
+     * other value
+     */
+    public abstract String putIfAbsent(String identifier, String value);
+
+    /**
+     * lookup the identifier bound to a value and append it to a buffer. this allows a binder to check
+     * for an existing binding before it creates either the value or a new identifier as a String
+     * @param text text containing the value
+     * @param start the start index of the value in text
+     * @param end the end index of the value in text
+     * @param builder the buffer to append the identifier to or null if only a check is required
+     * @return true if the value is bound otherwise false
+     */
+    public abstract boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder);
+
+    /**
+     * lookup the value bound to an identifier and append it to a buffer. this allows a caller to
+     * resolve an identifier found in some text without creating it as a String. this implementation
+     * creates the identifier String but subclasses may not need to
+     * @param text text containing the identifier
+     * @param start the start index of the identifier in text
+     * @param end the end index of the identifier in text
+     * @param builder the buffer to append the value to or null if only a check is required
+     * @return true if the identifier is bound otherwise false
+     */
+    public boolean appendValue(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        String value = get(text.subSequence(start, end).toString());
+        if (value == null) {
+            return false;
+        }
+        if (builder != null) {
+            builder.append(value);
+        }
+        return true;
+    }
+
+    /**
+     * lookup the value bound to a given identifier
+     * @param identifier the identifier for the binding
+     * @return the bound value
+     */
+    public abstract String get(String identifier);
+
+    /**
+     * obtain an iterator over the identifiers for all current bindings
+     * @return the iterator
+     */
+    public abstract Iterator<String> iterator();
+
+    /**
+     * find where a binder should start numbering the identifiers it creates. a map which only ever
+     * starts out empty can return 1 and rely upon binders skipping any identifier which is already in
+     * use. a map which is preloaded with bindings should return a number greater than the index of any
+     * bound identifier made up of the prefix followed by a decimal index
+     * @param prefix the prefix used by the binder
+     * @return the index of the first identifier the binder should try
+     */
+    public int nextIndex(String prefix)
+    {
+        return 1;
+    }
+
+    /**
+     * select whether the identifier sequences assign blocks of indices to binders in a fixed rotation
+     * so that numbering does not depend on thread scheduling. this must be set before any binder is
+     * created on the map
+     * @param deterministic true for deterministic numbering
+     */
+    public synchronized void setDeterministic(boolean deterministic)
+    {
+        if (sequences != null) {
+            throw new IllegalStateException("identifier sequences already in use");
+        }
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * @return true if the identifier sequences number identifiers deterministically
+     */
+    public synchronized boolean isDeterministic()
+    {
+        return deterministic;
+    }
+
+    /**
+     * obtain the sequence which allocates indices for identifiers with a given prefix, creating it
+     * starting from {@link #nextIndex(String)} if needed. this is only called when a binder is created
+     * so it is simply synchronized
+     * @param prefix the prefix
+     * @return the sequence shared by all binders using the prefix
+     */
+    public synchronized IdentifierSequence getSequence(String prefix)
+    {
+        if (sequences == null) {
+            sequences = new HashMap<String, IdentifierSequence>();
+        }
+        IdentifierSequence sequence = sequences.get(prefix);
+        if (sequence == null) {
+            sequence = new IdentifierSequence(nextIndex(prefix), deterministic);
+            sequences.put(prefix, sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * create an allocator which binds values to identifiers made up of a prefix followed by indices
+     * leased from the sequence for the prefix. each binder creates its own allocator
+     * @param prefix the prefix
+     * @return the allocator
+     */
+    public IdentifierAllocator createAllocator(String prefix)
+    {
+        return new IdentifierAllocator(this, prefix, getSequence(prefix));
+    }
+
+    /**
+     * create an immutable copy of the current bindings optimised for lookups. the map should not be
+     * modified while it is being frozen
+     * @return the frozen copy
+     */
+    public FrozenBindingMap freeze()
+    {
+        int count = 0;
+        String[] identifiers = new String[16];
+        String[] values = new String[16];
+        Iterator<String> iterator = iterator();
+        while (iterator.hasNext()) {
+            String identifier = iterator.next();
+            String value = get(identifier);
+            if (value == null) {
+                throw new IllegalStateException("binding map modified while freezing");
+            }
+            if (count == identifiers.length) {
+                identifiers = Arrays.copyOf(identifiers, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            identifiers[count] = identifier;
+            values[count++] = value;
+        }
+        return new FrozenBindingMap(identifiers, values, count);
+    }
+}
@@ -25,7 +25,6 @@
 package org.my;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -41,63 +40,85 @@ import java.util.regex.Pattern;
  *
  * So, for example, given pattern "the [A-Za-z]+", prefix "DET" and input text "the boy threw the
  * stick at the boy" the bindings would be ["DET1" -> "the boy", "DET2" -> "the stick"]. By contrast,
- * with pattern "the \([A-Za-z]+\)" and prefix N the bindings would be ["N1" -> "boy", "N2" -> "stick"].
+ * with pattern "the \([A-Za-z]+\)" and prefix N the bindings would be ["N1" -> "boy", "N2" -> "stick"].<p/>
+ *
+ * Lines which lack literal text required by every match of the pattern are skipped without running the
+ * regular expression engine and a pattern with no regular expression syntax is matched using a
+ * {@link LiteralSearcher} alone.
  */
 
 public class Binder extends TextLineProcessor
 {
     private Pattern pattern;
-    private String prefix;
-    private int counter;
-    private BindingMap bindings;
-    public Binder(String regex, String prefix, BindingMap bindings, Source source) throws IOException {
+    private LineMatcher matcher;
+    private LiteralSearcher prefilter;
+    private boolean isLiteral;
+    private AbstractBindingMap bindings;
+    private IdentifierAllocator allocator;
+    public Binder(String regex, String prefix, AbstractBindingMap bindings, Source source) throws IOException {
         super(source);
         createMatcher(regex);
-        this.prefix = prefix;
-        this.counter = 1;
         this.bindings = bindings;
+        this.allocator = bindings.createAllocator(prefix);
     }
 
     private void createMatcher(String regex) throws IOException {
         pattern = Pattern.compile(regex);
+        matcher = MatchEngine.JDK.createMatcher(pattern, MatchEngine.UNLIMITED);
+        prefilter = LiteralSearcher.forPattern(pattern);
+        isLiteral = (LiteralSearcher.literalText(regex) != null);
+    }
+
+    /**
+     * select the regular expression engine used to match the pattern and the budget allowed for
+     * matching each line. a line which exceeds the budget is passed to the reject output
+     * @param engine the engine to use
+     * @param budget the maximum number of steps to spend matching one line or {@link MatchEngine#UNLIMITED}
+     * @throws IllegalArgumentException if the engine does not support the pattern
+     */
+    public void setMatchEngine(MatchEngine engine, long budget)
+    {
+        matcher = engine.createMatcher(pattern, budget);
     }
 
     @Override
-    public String transform(String line) {
+    public boolean transform(CharSequence line, StringBuilder output) {
         // seach for successive matches
         // look up previous bindings or bind them if they are new
-        Matcher matcher = pattern.matcher(line);
+        if (isLiteral) {
+            // every match binds the pattern text itself so one occurrence is enough
+            int start = prefilter.indexIn(line, 0);
+            if (start >= 0 && !bindings.appendIdentifier(line, start, start + prefilter.length(), null)) {
+                allocator.bind(prefilter.getLiteral());
+            }
+            return false;
+        }
+        // skip the regular expression engine if the line lacks text every match requires
+        if (prefilter != null && prefilter.indexIn(line, 0) < 0) {
+            return false;
+        }
+        matcher.reset(line);
         int current = 0;
         boolean isMatch = matcher.find(current);
         while (isMatch) {
+            int start;
             int end;
-            String matchedText;
             if (matcher.groupCount() == 1) {
-                matchedText = matcher.group(1);
+                start = matcher.start(1);
                 end = matcher.end(1);
             } else {
-                matchedText = matcher.group();
+                start = matcher.start();
                 end = matcher.end();
             }
-            findOrCreateBinding(matchedText);
+            // most matches are of values which are already bound so check before creating any Strings
+            if (!bindings.appendIdentifier(line, start, end, null)) {
+                allocator.bind(line.subSequence(start, end).toString());
+            }
             current = end;
             isMatch = matcher.find(current);
         }
-        // return the original line unchanged
+        // the original line is always passed on unchanged
 
-        return line;
-    }
-
-    private String findOrCreateBinding(String matchedText) {
-        String next = prefix + counter;
-        String identifier = bindings.putIfAbsent(next, matchedText);
-        if (identifier == null) {
-            // this was a new binding
-            counter++;
-            return next;
-        } else {
-            // this was an existing binding
-            return identifier;
-        }
+        return false;
     }
 }
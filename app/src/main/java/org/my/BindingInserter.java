@@ -25,7 +25,6 @@
 package org.my;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -45,71 +44,104 @@ import java.util.regex.Pattern;
 public class BindingInserter extends TextLineProcessor
 {
     private Pattern pattern;
-    private String prefix;
-    private int counter;
-    private BindingMap bindings;
-    public BindingInserter(String regex, String prefix, BindingMap bindings, Source source) throws IOException {
+    private LineMatcher matcher;
+    private LiteralSearcher prefilter;
+    private boolean isLiteral;
+    private AbstractBindingMap bindings;
+    private IdentifierAllocator allocator;
+    public BindingInserter(String regex, String prefix, AbstractBindingMap bindings, Source source) throws IOException {
         super(source);
         createMatcher(regex);
-        this.prefix = prefix;
-        this.counter = 1;
         this.bindings = bindings;
+        this.allocator = bindings.createAllocator(prefix);
     }
 
     private void createMatcher(String regex) throws IOException {
         pattern = Pattern.compile(regex);
+        matcher = MatchEngine.JDK.createMatcher(pattern, MatchEngine.UNLIMITED);
+        prefilter = LiteralSearcher.forPattern(pattern);
+        isLiteral = (LiteralSearcher.literalText(regex) != null);
+    }
+
+    /**
+     * select the regular expression engine used to match the pattern and the budget allowed for
+     * matching each line. a line which exceeds the budget is passed to the reject output
+     * @param engine the engine to use
+     * @param budget the maximum number of steps to spend matching one line or {@link MatchEngine#UNLIMITED}
+     * @throws IllegalArgumentException if the engine does not support the pattern
+     */
+    public void setMatchEngine(MatchEngine engine, long budget)
+    {
+        matcher = engine.createMatcher(pattern, budget);
     }
 
     @Override
-    public String transform(String line) {
+    public boolean transform(CharSequence line, StringBuilder builder) {
         // seach for successive matches
         // look up previous bindings or bind them if they are new
         // replace them
-        StringBuilder builder = new StringBuilder();
-        Matcher matcher = pattern.matcher(line);
-        char[] chars = line.toCharArray();
+        if (isLiteral) {
+            return transformLiteral(line, builder);
+        }
+        // skip the regular expression engine if the line lacks text every match requires
+        if (prefilter != null && prefilter.indexIn(line, 0) < 0) {
+            return false;
+        }
+        matcher.reset(line);
         int current = 0;
         boolean isMatch = matcher.find(current);
+        if (!isMatch) {
+            return false;
+        }
         while (isMatch) {
             int start;
             int end;
-            String matchedText;
             if (matcher.groupCount() == 1) {
-                matchedText = matcher.group(1);
                 start = matcher.start(1);
                 end = matcher.end(1);
             } else {
-                matchedText = matcher.group();
                 start = matcher.start();
                 end = matcher.end();
             }
-            String binding = getBinding(matchedText);
             // copy text up to match and bound name and then restart from end of match
-            while (current < start) {
-                builder.append(chars[current++]);
-            }
-            builder.append(binding);
+            builder.append(line, current, start);
+            appendBinding(line, start, end, builder);
             current = end;
             isMatch = matcher.find(current);
         }
         // if we have any text left over then append it too
 
-        while (current < chars.length) {
-            builder.append(chars[current++]);
+        builder.append(line, current, line.length());
+        return true;
+    }
+
+    /**
+     * replace occurrences of a pattern which contains no regular expression syntax
+     */
+    private boolean transformLiteral(CharSequence line, StringBuilder builder) {
+        int start = prefilter.indexIn(line, 0);
+        if (start < 0) {
+            return false;
+        }
+        int current = 0;
+        while (start >= 0) {
+            builder.append(line, current, start);
+            appendBinding(line, start, start + prefilter.length(), builder);
+            current = start + prefilter.length();
+            start = prefilter.indexIn(line, current);
         }
-        return builder.toString();
+        builder.append(line, current, line.length());
+        return true;
     }
 
-    private String getBinding(String matchedText) {
-        String next = prefix + counter;
-        String identifier = bindings.putIfAbsent(next, matchedText);
-        if (identifier == null) {
-            // this was a new binding
-            counter++;
-            return next;
-        } else {
-            // this was an existing binding
-            return identifier;
+    /**
+     * append the identifier bound to the matched text, binding it if it is new. most matches are of values
+     * which are already bound so no Strings are created unless a new binding is required
+     */
+    private void appendBinding(CharSequence line, int start, int end, StringBuilder builder) {
+        if (bindings.appendIdentifier(line, start, end, builder)) {
+            return;
         }
+        builder.append(allocator.bind(line.subSequence(start, end).toString()));
     }
 }
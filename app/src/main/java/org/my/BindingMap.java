@@ -24,26 +24,34 @@
 
 package org.my;
 
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class used to store bindings created by class Binder. n.b. bindings are maintained 1:1 i.e. the
- * same value cannot be bound to two different identifiers.
+ * same value cannot be bound to two different identifiers.<p/>
+ *
+ * This is the default concurrent implementation of {@link AbstractBindingMap}. Both directions of the
+ * map are held in concurrent hash maps so lookups never lock and iteration is weakly consistent i.e. it
+ * never throws ConcurrentModificationException and reflects some or all of the bindings established
+ * while it is in progress. Each binding is a single record which is installed in both maps. A new
+ * binding is installed by first claiming the value in the inverse map and then claiming the identifier
+ * in the forward map. The record only becomes visible to lookups once both claims have succeeded so a
+ * lookup never sees a binding which is later withdrawn.
  */
-public class BindingMap
+public class BindingMap extends AbstractBindingMap
 {
-    HashMap<String, String> bindings;
-    ConcurrentHashMap<String, String> inverseBindings;
+    ConcurrentHashMap<String, Binding> bindings;
+    ConcurrentHashMap<String, Binding> inverseBindings;
 
     /**
      * create an empty bindings map
      */
     public BindingMap()
     {
-        bindings = new HashMap<String, String>();
-        inverseBindings = new ConcurrentHashMap<String, String>();
+        bindings = new ConcurrentHashMap<String, Binding>();
+        inverseBindings = new ConcurrentHashMap<String, Binding>();
     }
 
     /**
@@ -52,19 +60,50 @@ public class BindingMap
      * @param identifier a potential new identifier for the value
      * @param value the value whose binding is to be established
      * @return any existing identifier for the value or null if a new binding is established
+     * @throws IllegalArgumentException if the value is not bound and identifier is already bound to some
+     * other value
      */
     public String putIfAbsent(String identifier, String value)
     {
-        String existing = inverseBindings.putIfAbsent(value, identifier);
-        if (existing == null) {
-            // first insertion
-            synchronized (bindings) {
-                bindings.put(identifier, value);
-                return null;
+        Binding binding = new Binding(identifier, value);
+        Binding existing = inverseBindings.putIfAbsent(value, binding);
+        while (existing != null) {
+            if (existing.established) {
+                return existing.identifier;
             }
-        } else {
-            return existing;
+            // another thread is binding the same value so wait for it to either complete or withdraw
+            Thread.yield();
+            existing = inverseBindings.putIfAbsent(value, binding);
         }
+        // we own the value so now try to claim the identifier
+        if (bindings.putIfAbsent(identifier, binding) != null) {
+            inverseBindings.remove(value, binding);
+            throw new IllegalArgumentException("identifier " + identifier + " is already bound");
+        }
+        // publish the binding
+        binding.established = true;
+        return null;
+    }
+
+    /**
+     * lookup the identifier bound to a value and append it to a buffer. this allows a caller to check
+     * for an existing binding before it creates either the value or a new identifier as a String
+     * @param text text containing the value
+     * @param start the start index of the value in text
+     * @param end the end index of the value in text
+     * @param builder the buffer to append the identifier to or null if only a check is required
+     * @return true if the value is bound otherwise false
+     */
+    public boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        Binding binding = inverseBindings.get(text.subSequence(start, end).toString());
+        if (binding == null || !binding.established) {
+            return false;
+        }
+        if (builder != null) {
+            builder.append(binding.identifier);
+        }
+        return true;
     }
 
     /**
@@ -74,7 +113,8 @@ public class BindingMap
      */
     public String get(String identifier)
     {
-        return bindings.get(identifier);
+        Binding binding = bindings.get(identifier);
+        return (binding == null || !binding.established ? null : binding.value);
     }
 
     /**
@@ -83,6 +123,59 @@ public class BindingMap
      */
     public Iterator<String> iterator()
     {
-        return bindings.keySet().iterator();
+        final Iterator<Binding> iterator = bindings.values().iterator();
+        return new Iterator<String>() {
+            private Binding next = advance();
+
+            private Binding advance()
+            {
+                // skip bindings which are still being established
+                while (iterator.hasNext()) {
+                    Binding binding = iterator.next();
+                    if (binding.established) {
+                        return binding;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            public String next()
+            {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String identifier = next.identifier;
+                next = advance();
+                return identifier;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * a binding which is installed in both directions of the map. it is ignored by lookups until it has
+     * been established
+     */
+    static class Binding
+    {
+        final String identifier;
+        final String value;
+        volatile boolean established;
+
+        Binding(String identifier, String value)
+        {
+            this.identifier = identifier;
+            this.value = value;
+            this.established = false;
+        }
     }
 }
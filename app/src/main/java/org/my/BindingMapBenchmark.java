@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple benchmark which measures contention on a {@link BindingMap} shared by several inserting
+ * threads, which bind values in the same way as a {@link Binder}, and several replacing threads, which
+ * look up identifiers in the same way as a {@link BindingReplacer}. Each configuration is first run
+ * against a map whose operations are all serialized on one lock for comparison and then against both a
+ * {@link BindingMap} and a {@link CompactBindingMap}.<p/>
+ *
+ * The number of inserters, the number of replacers and the duration of each run in seconds may be
+ * supplied as arguments.
+ */
+public class BindingMapBenchmark
+{
+    /**
+     * the number of distinct values the inserters choose from
+     */
+    private static final int VALUE_COUNT = 100000;
+
+    public static void main(String[] args)
+    {
+        try {
+            int inserters = (args.length > 0 ? Integer.parseInt(args[0]) : 4);
+            int replacers = (args.length > 1 ? Integer.parseInt(args[1]) : 4);
+            int seconds = (args.length > 2 ? Integer.parseInt(args[2]) : 5);
+            String[] values = new String[VALUE_COUNT];
+            for (int i = 0; i < VALUE_COUNT; i++) {
+                values[i] = "value" + i;
+            }
+            // run each map twice and report the second run so the JIT has warmed up
+            for (int i = 0; i < 2; i++) {
+                String locked = run(new LockedBindingMap(), values, inserters, replacers, seconds);
+                String concurrent = run(new BindingMap(), values, inserters, replacers, seconds);
+                String compact = run(new CompactBindingMap(), values, inserters, replacers, seconds);
+                if (i == 1) {
+                    System.out.println("locked:     " + locked);
+                    System.out.println("concurrent: " + concurrent);
+                    System.out.println("compact:    " + compact);
+                }
+            }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+    }
+
+    private static String run(final AbstractBindingMap map, final String[] values, int inserters, int replacers, int seconds)
+            throws InterruptedException
+    {
+        final AtomicLong inserts = new AtomicLong();
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        Thread[] threads = new Thread[inserters + replacers];
+
+        for (int i = 0; i < inserters; i++) {
+            final String prefix = "P" + i + "N";
+            final long seed = i;
+            threads[i] = new Thread() {
+                public void run()
+                {
+                    Random random = new Random(seed);
+                    IdentifierAllocator allocator = map.createAllocator(prefix);
+                    long count = 0;
+                    awaitStart(start);
+                    while ((count & 1023) != 0 || System.nanoTime() < end) {
+                        String value = values[random.nextInt(values.length)];
+                        // bind as a Binder does, only allocating an identifier for a new value
+                        if (!map.appendIdentifier(value, 0, value.length(), null)) {
+                            allocator.bind(value);
+                        }
+                        count++;
+                    }
+                    inserts.addAndGet(count);
+                }
+            };
+        }
+        for (int i = 0; i < replacers; i++) {
+            final int inserterCount = Math.max(inserters, 1);
+            final long seed = 1000 + i;
+            threads[inserters + i] = new Thread() {
+                public void run()
+                {
+                    Random random = new Random(seed);
+                    long count = 0;
+                    long found = 0;
+                    awaitStart(start);
+                    while ((count & 1023) != 0 || System.nanoTime() < end) {
+                        String identifier = "P" + random.nextInt(inserterCount) + "N" + (1 + random.nextInt(VALUE_COUNT));
+                        if (map.get(identifier) != null) {
+                            found++;
+                        }
+                        count++;
+                    }
+                    lookups.addAndGet(count);
+                    hits.addAndGet(found);
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return inserts.get() / seconds + " puts/s, " + lookups.get() / seconds + " gets/s (" + hits.get() + " hits)";
+    }
+
+    private static void awaitStart(CountDownLatch start)
+    {
+        try {
+            start.await();
+        } catch (InterruptedException ie) {
+            // just start
+        }
+    }
+
+    /**
+     * a binding map whose operations all hold the same lock
+     */
+    private static class LockedBindingMap extends BindingMap
+    {
+        public synchronized String putIfAbsent(String identifier, String value)
+        {
+            return super.putIfAbsent(identifier, value);
+        }
+
+        public synchronized String get(String identifier)
+        {
+            return super.get(identifier);
+        }
+
+        public synchronized boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+        {
+            return super.appendIdentifier(text, start, end, builder);
+        }
+    }
+}
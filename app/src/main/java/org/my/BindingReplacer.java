@@ -25,8 +25,7 @@
 package org.my;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
 
 /**
  * A BindingReplacer is a text line processor which searches for references to bindings in
@@ -36,56 +35,281 @@ import java.util.regex.Pattern;
  *
  * So, for example, given input text "${DET1} threw ${DET2} at ${DET1}" and bindings
  * ["DET1" -> "a boy", "DET2" -> "a stick"] the output text would be "a boy threw a
- * stick at a boy".
+ * stick at a boy".<p/>
+ *
+ * A reference is "${" followed by an identifier made up of one or more ASCII letters and a decimal
+ * index without leading zeros, followed by "}". References are found by a simple scan rather than a
+ * regular expression and are looked up using {@link AbstractBindingMap#appendValue} so a map which supports it
+ * can resolve them without creating any Strings. Lines which contain no references are passed on
+ * without being copied.<p/>
+ *
+ * A reference to an identifier which is not bound, for example because it has been evicted from a
+ * {@link BoundedBindingMap}, is handled according to the replacer's {@link UnboundPolicy}.<p/>
+ *
+ * When the bindings are created by a Binder running upstream of the replacer a line may refer to a
+ * binding which the Binder only establishes when it processes a later line. By default such a reference
+ * is treated as unbound. In deferred mode a line containing an unbound reference is instead parked in a
+ * pending buffer, along with every line which follows it, and lines are released in order as soon as the
+ * first pending line can be resolved. This is checked each time a new line arrives since the Binder has
+ * established any bindings for a line before passing it on. When the buffer is full or the input is
+ * exhausted the first pending line is released and its unbound references are handled according to the
+ * unbound policy. A replacer in deferred mode cannot be fused.
  */
 
 public class BindingReplacer extends TextLineProcessor
 {
-    private Pattern pattern;
-    private BindingMap bindings;
+    private AbstractBindingMap bindings;
+    private UnboundPolicy unboundPolicy;
+    /**
+     * the maximum number of lines held pending or 0 if references are not deferred
+     */
+    private int maxPending;
+
+    /**
+     * results of replacing the references in a line
+     */
+    private static final int UNCHANGED = 0;
+    private static final int REPLACED = 1;
+    private static final int UNRESOLVED = 2;
 
-    public BindingReplacer(BindingMap bindings, Source source) throws IOException {
+    /**
+     * how a reference to an identifier which is not bound is handled
+     */
+    public enum UnboundPolicy
+    {
+        /**
+         * the reference is left in the line unchanged
+         */
+        KEEP,
+        /**
+         * the whole line is written to the reject output without any replacements. if no sink is connected
+         * to the reject output the line is passed on unchanged
+         */
+        REJECT
+    }
+
+    public BindingReplacer(AbstractBindingMap bindings, Source source) throws IOException {
         super(source);
+        setReplicable(true);
         this.bindings = bindings;
-        this.pattern = Pattern.compile("\\$\\{([A-Za-z]+[1-9][0-9]*)\\}");
+        this.unboundPolicy = UnboundPolicy.KEEP;
+        this.maxPending = 0;
     }
 
-    @Override
-    public String transform(String line) {
-        // seach for successive matches
-        // look up previous bindings or bind them if they are new
-        // replace them
+    /**
+     * select how a reference to an identifier which is not bound is handled. the default is to keep the
+     * reference
+     * @param unboundPolicy the policy
+     */
+    public void setUnboundPolicy(UnboundPolicy unboundPolicy)
+    {
+        this.unboundPolicy = unboundPolicy;
+    }
+
+    /**
+     * select deferred mode in which lines containing references to identifiers which are not yet bound
+     * are held back until the references can be resolved. this must be called before the replacer is
+     * started
+     * @param maxPending the maximum number of lines to hold back or 0 to disable deferred mode
+     */
+    public void setDeferred(int maxPending)
+    {
+        if (maxPending < 0) {
+            throw new IllegalArgumentException("pending line limit must not be negative");
+        }
+        if (isFused()) {
+            throw new IllegalStateException("cannot defer references in a fused processor");
+        }
+        this.maxPending = maxPending;
+    }
+
+    boolean isFusable()
+    {
+        return maxPending == 0 && super.isFusable();
+    }
+
+    /**
+     * replicas only read the binding map so they can be used unless lines are held back
+     */
+    public boolean isReplicable()
+    {
+        return super.isReplicable() && isFusable();
+    }
+
+    /**
+     * in deferred mode holds back lines with unresolved references, otherwise transforms each line as it
+     * is read
+     * @throws IOException
+     */
+    public void processPipeline() throws IOException
+    {
+        if (maxPending == 0) {
+            super.processPipeline();
+            return;
+        }
+        LineInput lines = getLineInput();
+        LineOutput lineOutput = getLineOutput();
         StringBuilder builder = new StringBuilder();
-        Matcher matcher = pattern.matcher(line);
-        char[] chars = line.toCharArray();
+        ArrayDeque<PendingLine> pending = new ArrayDeque<PendingLine>();
+        try {
+            while (lines.nextLine()) {
+                CharSequence text = lines.getText();
+                if (pending.isEmpty()) {
+                    builder.setLength(0);
+                    int result = replace(text, builder, true);
+                    if (result != UNRESOLVED) {
+                        text = (result == REPLACED ? builder : text);
+                        lineOutput.writeLine(text, lines.getTerminator());
+                        tap(text, lines.getTerminator());
+                        continue;
+                    }
+                }
+                pending.addLast(new PendingLine(text.toString(), lines.getTerminator()));
+                // the new line may have been preceded by the bindings the first pending line needs
+                while (!pending.isEmpty()) {
+                    PendingLine first = pending.peekFirst();
+                    builder.setLength(0);
+                    int result = replace(first.text, builder, true);
+                    if (result != UNRESOLVED) {
+                        CharSequence released = (result == REPLACED ? builder : first.text);
+                        lineOutput.writeLine(released, first.terminator);
+                        tap(released, first.terminator);
+                    } else if (pending.size() > maxPending) {
+                        release(first, lineOutput, builder);
+                    } else {
+                        break;
+                    }
+                    pending.removeFirst();
+                }
+            }
+            // no more bindings can arrive
+            while (!pending.isEmpty()) {
+                release(pending.removeFirst(), lineOutput, builder);
+            }
+        } finally {
+            closeRejects();
+            closeTap();
+        }
+    }
+
+    /**
+     * write a pending line whose unresolved references are handled according to the unbound policy
+     */
+    private void release(PendingLine line, LineOutput lineOutput, StringBuilder builder) throws IOException
+    {
+        builder.setLength(0);
+        CharSequence text = line.text;
+        try {
+            if (replace(text, builder, false) == REPLACED) {
+                text = builder;
+            }
+        } catch (LineRejectedException e) {
+            if (reject(text, line.terminator)) {
+                return;
+            }
+        }
+        lineOutput.writeLine(text, line.terminator);
+        tap(text, line.terminator);
+    }
+
+    @Override
+    public boolean transform(CharSequence line, StringBuilder builder) {
+        return replace(line, builder, false) == REPLACED;
+    }
+
+    /**
+     * replace the bound references in a line
+     * @param line the line
+     * @param builder an empty buffer to which the transformed line is appended
+     * @param defer true if an unbound reference should abandon the replacement rather than being handled
+     * according to the unbound policy
+     * @return REPLACED if the transformed line was appended to builder, UNCHANGED if the line is unchanged
+     * or UNRESOLVED if defer is true and the line contains an unbound reference
+     */
+    private int replace(CharSequence line, StringBuilder builder, boolean defer) {
+        // seach for successive references
+        // replace the bound ones
         int current = 0;
-        boolean isMatch = matcher.find(current);
-        while (isMatch) {
-            int start = matcher.start();
-            int end = matcher.end();
-            String matchedText = matcher.group(1);
-            String value = bindings.get(matchedText);
-            // copy text up to match
-            while (current < start) {
-                builder.append(chars[current++]);
+        boolean isReplaced = false;
+        int start = indexOfReference(line, 0);
+        while (start >= 0) {
+            int end = endOfReference(line, start);
+            if (end < 0) {
+                // not a well formed reference so look for another one
+                start = indexOfReference(line, start + 1);
+                continue;
             }
+            // copy text up to the reference
+            builder.append(line, current, start);
             // if there is a bound value replace it otherwise just pass the binding reference through
-            if (value != null) {
-                builder.append(value);
-                current = end;
+            if (bindings.appendValue(line, start + 2, end - 1, builder)) {
+                isReplaced = true;
+            } else if (defer) {
+                return UNRESOLVED;
+            } else if (unboundPolicy == UnboundPolicy.REJECT) {
+                throw new LineRejectedException("identifier " + line.subSequence(start + 2, end - 1) + " is not bound");
             } else {
-                while (current < end) {
-                    builder.append(chars[current++]);
-                }
+                builder.append(line, start, end);
             }
-            // restart from end of match
-            isMatch = matcher.find(current);
+            current = end;
+            // restart from end of reference
+            start = indexOfReference(line, current);
+        }
+        if (!isReplaced) {
+            return UNCHANGED;
         }
         // if we have any text left over then append it too
 
-        while (current < chars.length) {
-            builder.append(chars[current++]);
+        builder.append(line, current, line.length());
+        return REPLACED;
+    }
+
+    /**
+     * @return the index of the next "${" in line at or after from or -1 if there is none
+     */
+    private static int indexOfReference(CharSequence line, int from) {
+        int last = line.length() - 1;
+        for (int i = from; i < last; i++) {
+            if (line.charAt(i) == '$' && line.charAt(i + 1) == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index following the "}" which ends the reference starting at start or -1 if the
+     * text at start is not a well formed reference
+     */
+    private static int endOfReference(CharSequence line, int start) {
+        int length = line.length();
+        int i = start + 2;
+        while (i < length && isLetter(line.charAt(i))) {
+            i++;
+        }
+        if (i == start + 2 || i == length || line.charAt(i) < '1' || line.charAt(i) > '9') {
+            return -1;
+        }
+        i++;
+        while (i < length && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+            i++;
+        }
+        return (i < length && line.charAt(i) == '}' ? i + 1 : -1);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static class PendingLine
+    {
+        final String text;
+        final LineTerminator terminator;
+
+        PendingLine(String text, LineTerminator terminator)
+        {
+            this.text = text;
+            this.terminator = terminator;
         }
-        return builder.toString();
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BoundedBindingMap is an {@link AbstractBindingMap} which limits the memory used by its bindings so
+ * that a long running stream which matches ever more distinct values cannot exhaust the heap. When adding a
+ * binding takes the map over its limit on the number of bindings or on the total number of chars in their
+ * identifiers and values the least recently used bindings are evicted. A binding may also be given a time
+ * to live after which it expires unless it has been used again in the meantime. A binding is used when it
+ * is established, when its value is bound again and when its identifier is looked up.<p/>
+ *
+ * Both directions of a binding are removed together. All operations hold the map's lock because every
+ * lookup moves the binding it finds to the most recently used end of the eviction order.<p/>
+ *
+ * Once a binding has been evicted its value will be given a new identifier if it is bound again and a
+ * reference to the old identifier can no longer be resolved. See {@link BindingReplacer#setUnboundPolicy}
+ * for how such references are handled. Binders which share a prefix lease their indices from the map's
+ * {@link IdentifierSequence} for that prefix so an evicted identifier is never issued again, whichever
+ * binder issued it.
+ */
+public class BoundedBindingMap extends AbstractBindingMap
+{
+    /**
+     * the bindings keyed by identifier, least recently used first
+     */
+    private final LinkedHashMap<String, Binding> entries;
+    private final HashMap<String, Binding> inverseEntries;
+    private final int maxBindings;
+    private final long maxChars;
+    private final long timeToLive;
+    private long chars;
+    private long evictions;
+
+    /**
+     * create an empty bounded bindings map without a time to live
+     * @param maxBindings the maximum number of bindings to retain
+     */
+    public BoundedBindingMap(int maxBindings)
+    {
+        this(maxBindings, Long.MAX_VALUE, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * create an empty bounded bindings map
+     * @param maxBindings the maximum number of bindings to retain
+     * @param maxChars the maximum total length of the identifiers and values of the retained bindings.
+     * the most recently used binding is retained even if it is longer than this
+     * @param timeToLive the time after its last use at which a binding expires or 0 if bindings do not expire
+     * @param unit the unit of timeToLive
+     */
+    public BoundedBindingMap(int maxBindings, long maxChars, long timeToLive, TimeUnit unit)
+    {
+        if (maxBindings < 1 || maxChars < 1 || timeToLive < 0) {
+            throw new IllegalArgumentException("binding map limits must be positive");
+        }
+        this.entries = new LinkedHashMap<String, Binding>(16, 0.75f, true);
+        this.inverseEntries = new HashMap<String, Binding>();
+        this.maxBindings = maxBindings;
+        this.maxChars = maxChars;
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.chars = 0;
+        this.evictions = 0;
+    }
+
+    public synchronized String putIfAbsent(String identifier, String value)
+    {
+        long now = expire();
+        Binding binding = inverseEntries.get(value);
+        if (binding != null) {
+            use(binding, now);
+            return binding.identifier;
+        }
+        if (entries.containsKey(identifier)) {
+            throw new IllegalArgumentException("identifier " + identifier + " is already bound");
+        }
+        binding = new Binding(identifier, value, now);
+        entries.put(identifier, binding);
+        inverseEntries.put(value, binding);
+        chars += binding.length();
+        // never evict the binding just established
+        while (entries.size() > 1 && (entries.size() > maxBindings || chars > maxChars)) {
+            evictEldest();
+        }
+        return null;
+    }
+
+    public synchronized boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        long now = expire();
+        Binding binding = inverseEntries.get(text.subSequence(start, end).toString());
+        if (binding == null) {
+            return false;
+        }
+        use(binding, now);
+        if (builder != null) {
+            builder.append(binding.identifier);
+        }
+        return true;
+    }
+
+    public synchronized String get(String identifier)
+    {
+        long now = expire();
+        // this moves the binding to the most recently used end of the map
+        Binding binding = entries.get(identifier);
+        if (binding == null) {
+            return null;
+        }
+        binding.lastUsed = now;
+        return binding.value;
+    }
+
+    /**
+     * obtain an iterator over the identifiers of the bindings held when it is created
+     * @return the iterator
+     */
+    public synchronized Iterator<String> iterator()
+    {
+        expire();
+        return new ArrayList<String>(entries.keySet()).iterator();
+    }
+
+    /**
+     * create an immutable copy of the bindings which are held when it is called. the entries are copied
+     * while holding the map's lock, rather than being looked up one at a time, so none of them can expire
+     * or be evicted part way through
+     * @return the frozen copy
+     */
+    public synchronized FrozenBindingMap freeze()
+    {
+        expire();
+        int count = entries.size();
+        String[] identifiers = new String[count];
+        String[] values = new String[count];
+        int i = 0;
+        for (Binding binding : entries.values()) {
+            identifiers[i] = binding.identifier;
+            values[i++] = binding.value;
+        }
+        return new FrozenBindingMap(identifiers, values, count);
+    }
+
+    /**
+     * @return the number of bindings currently held
+     */
+    public synchronized int size()
+    {
+        expire();
+        return entries.size();
+    }
+
+    /**
+     * @return the number of bindings which have been evicted or have expired
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    private void use(Binding binding, long now)
+    {
+        binding.lastUsed = now;
+        entries.get(binding.identifier);
+    }
+
+    /**
+     * remove any bindings whose time to live has elapsed, called while holding the map's lock
+     * @return the current time
+     */
+    private long expire()
+    {
+        long now = System.nanoTime();
+        if (timeToLive > 0) {
+            // the least recently used binding is the first to expire
+            while (!entries.isEmpty() && now - entries.values().iterator().next().lastUsed >= timeToLive) {
+                evictEldest();
+            }
+        }
+        return now;
+    }
+
+    private void evictEldest()
+    {
+        Iterator<Binding> iterator = entries.values().iterator();
+        Binding eldest = iterator.next();
+        iterator.remove();
+        inverseEntries.remove(eldest.value);
+        chars -= eldest.length();
+        evictions++;
+    }
+
+    private static class Binding
+    {
+        final String identifier;
+        final String value;
+        long lastUsed;
+
+        Binding(String identifier, String value, long lastUsed)
+        {
+            this.identifier = identifier;
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+
+        long length()
+        {
+            return identifier.length() + value.length();
+        }
+    }
+}
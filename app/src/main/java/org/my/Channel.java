@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A Channel connects a Source to a Sink. The Source writes its output to the channel's writer and the
+ * Sink reads its input from the channel's reader. Both ends are only ever used by a single thread so
+ * implementations only need to support one producer and one consumer.<p/>
+ *
+ * Closing the writer signals end of stream to the reader once any buffered text has been consumed.
+ * Closing the reader causes any further writes to fail with an IOException.
+ */
+public interface Channel
+{
+    /**
+     * @return the end of the channel used by the Sink to read its input
+     */
+    public Reader getReader();
+
+    /**
+     * @return the end of the channel used by the Source to write its output
+     */
+    public Writer getWriter();
+}
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * ChannelFileWriter is a data Sink which writes the characters from its input stream to a file. Unlike
+ * {@link FileWriter} it drains its input a block at a time, encodes the text with a reusable encoder
+ * into a direct byte buffer and writes the buffer through a FileChannel whenever it fills.<p/>
+ *
+ * By default a partially filled buffer is only written when the input is closed. The writer can
+ * also be configured to flush its buffer once a given number of bytes has been encoded since the
+ * last flush or when a block of input arrives at least a given interval after the last flush, and
+ * to force the written data to the storage device at each flush. Both checks are made as each block
+ * arrives, so while the input is idle nothing is flushed however long it has been since the last
+ * flush. The flush policy must be configured before the writer is started.
+ */
+public class ChannelFileWriter extends Thread implements Sink {
+    /**
+     * the number of chars read from the input in one block
+     */
+    private final static int BLOCK_SIZE = 8192;
+    /**
+     * the size of the direct buffer used to hold encoded bytes
+     */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private Reader input;
+    private FileOutputStream output;
+    private Charset charset;
+    private long flushBytes;
+    private long flushInterval;
+    private boolean force;
+
+    /**
+     * create a writer which encodes each char as a single byte in the same way as {@link FileWriter}
+     * @param file the file to write
+     * @param source the source stream which provides the text
+     * @throws IOException
+     */
+    public ChannelFileWriter(String file, Source source) throws IOException
+    {
+        this(file, Charset.forName("ISO-8859-1"), source);
+    }
+
+    /**
+     * create a writer which encodes its input using the supplied charset
+     * @param file the file to write
+     * @param charset the charset used to encode the text
+     * @param source the source stream which provides the text
+     * @throws IOException
+     */
+    public ChannelFileWriter(String file, Charset charset, Source source) throws IOException
+    {
+        this.output = new FileOutputStream(file);
+        this.charset = charset;
+        this.flushBytes = 0;
+        this.flushInterval = 0;
+        this.force = false;
+        source.feed(this);
+    }
+
+    public void setInput(Reader input) throws IOException {
+        if (this.input != null) {
+            throw new IOException("input already connected");
+        }
+        this.input = input;
+    }
+
+    /**
+     * flush the buffer once at least this many bytes have been encoded since the last flush
+     * @param flushBytes the byte count or 0 if flushing should not depend on the byte count
+     */
+    public void setFlushBytes(long flushBytes)
+    {
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * flush the buffer when a block of input arrives at least this long after the last flush
+     * @param flushInterval the interval in milliseconds or 0 if flushing should not depend on time
+     */
+    public void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * force written data to the storage device each time the buffer is flushed and on close
+     * @param force true if written data should be forced otherwise false
+     */
+    public void setForce(boolean force)
+    {
+        this.force = force;
+    }
+
+    public void run()
+    {
+        if (input==null || output == null) {
+            //nothing to do
+            return;
+        }
+
+        FileChannel channel = output.getChannel();
+        CharsetEncoder encoder = charset.newEncoder();
+        encoder.onMalformedInput(CodingErrorAction.REPLACE);
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long unflushed = 0;
+        long lastFlush = System.currentTimeMillis();
+
+        try {
+            int count = input.read(chars.array(), 0, chars.capacity());
+            while (count >= 0) {
+                chars.position(chars.position() + count);
+                chars.flip();
+                int start = bytes.position();
+                unflushed += encode(encoder, chars, bytes, channel, false) - start;
+                // keep any unencoded char, i.e. the first half of a surrogate pair
+                chars.compact();
+                if ((flushBytes > 0 && unflushed >= flushBytes) ||
+                        (flushInterval > 0 && System.currentTimeMillis() - lastFlush >= flushInterval)) {
+                    flush(bytes, channel);
+                    unflushed = 0;
+                    lastFlush = System.currentTimeMillis();
+                }
+                count = input.read(chars.array(), chars.position(), chars.remaining());
+            }
+            chars.flip();
+            encode(encoder, chars, bytes, channel, true);
+            while (encoder.flush(bytes).isOverflow()) {
+                write(bytes, channel);
+            }
+            flush(bytes, channel);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } finally {
+            try {
+                output.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * encodes the chars in the char buffer into the byte buffer writing the byte buffer to the
+     * channel each time it fills
+     * @return the number of bytes encoded counting from the start of the byte buffer as it was
+     * on entry
+     * @throws IOException
+     */
+    private long encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel channel, boolean endOfInput)
+            throws IOException
+    {
+        long encoded = 0;
+        CoderResult result = encoder.encode(chars, bytes, endOfInput);
+        while (result.isOverflow()) {
+            encoded += write(bytes, channel);
+            result = encoder.encode(chars, bytes, endOfInput);
+        }
+        return encoded + bytes.position();
+    }
+
+    /**
+     * writes the contents of the byte buffer to the channel and clears the buffer ready for reuse
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    private int write(ByteBuffer bytes, FileChannel channel) throws IOException
+    {
+        bytes.flip();
+        int written = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+        return written;
+    }
+
+    /**
+     * writes any buffered bytes to the channel and, if configured, forces them to the storage device
+     * @throws IOException
+     */
+    private void flush(ByteBuffer bytes, FileChannel channel) throws IOException
+    {
+        write(bytes, channel);
+        if (force) {
+            channel.force(false);
+        }
+    }
+}
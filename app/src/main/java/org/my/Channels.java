@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+
+/**
+ * Class used to create the channels which connect a Source to a Sink when {@link Source#feed(Sink)} is
+ * called. By default stages are connected using a {@link RingBufferChannel}. The factory can be
+ * replaced, for example with a {@link PipedChannel.Factory} to use the JDK piped streams. This
+ * should be done before constructing a pipeline since the channels are created as the stages are
+ * constructed.<p/>
+ *
+ * Two {@link TextLineProcessor}s are connected by a {@link LineChannel} instead, which passes whole lines
+ * rather than chars. Its capacity, counted in lines, may be configured in the same way.
+ */
+public class Channels
+{
+    private static volatile ChannelFactory factory = new RingBufferChannel.Factory(RingBufferChannel.DEFAULT_CAPACITY);
+    private static volatile int lineChannelCapacity = LineChannel.DEFAULT_CAPACITY;
+
+    /**
+     * @return the factory currently used to create channels
+     */
+    public static ChannelFactory getFactory()
+    {
+        return factory;
+    }
+
+    /**
+     * install the factory used to create channels for subsequently connected stages
+     * @param factory the factory to use
+     */
+    public static void setFactory(ChannelFactory factory)
+    {
+        Channels.factory = factory;
+    }
+
+    /**
+     * create a channel using the current factory
+     * @return the channel
+     * @throws IOException
+     */
+    public static Channel createChannel() throws IOException
+    {
+        return factory.createChannel();
+    }
+
+    /**
+     * @return the number of lines held by subsequently created line channels
+     */
+    public static int getLineChannelCapacity()
+    {
+        return lineChannelCapacity;
+    }
+
+    /**
+     * set the number of lines held by line channels created for subsequently connected stages
+     * @param capacity the minimum number of lines, rounded up to a power of two
+     */
+    public static void setLineChannelCapacity(int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        Channels.lineChannelCapacity = capacity;
+    }
+
+    /**
+     * create a line channel with the current line channel capacity
+     * @return the channel
+     */
+    public static LineChannel createLineChannel()
+    {
+        return new LineChannel(lineChannelCapacity);
+    }
+}
@@ -25,8 +25,7 @@
 package org.my;
 
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
+import java.io.Writer;
 
 /**
  * CharSequenceReader is a data Source which populates its output stream with characters read from a CharSequence
@@ -35,7 +34,7 @@ import java.io.PipedWriter;
 public class CharSequenceReader extends Thread implements Source
 {
     CharSequence input;
-    private PipedWriter output;
+    private Writer output;
 
     public CharSequenceReader(CharSequence input) throws IOException
     {
@@ -47,8 +46,9 @@ public class CharSequenceReader extends Thread implements Source
         if (output != null) {
             throw new IOException("output already connected");
         }
-        output = new PipedWriter();
-        sink.setInput(new PipedReader(output));
+        Channel channel = Channels.createChannel();
+        output = channel.getWriter();
+        sink.setInput(channel.getReader());
     }
 
     public void run()
@@ -25,14 +25,14 @@
 package org.my;
 
 import java.io.IOException;
-import java.io.PipedReader;
+import java.io.Reader;
 
 /**
  * CharSequenceWriter is a data Sink which collects the characters from its input stream
  * making them available as a CharSequence.
  */
 public class CharSequenceWriter extends Thread implements Sink, CharSequence {
-    private PipedReader input;
+    private Reader input;
     private StringBuffer buffer;
 
     public CharSequenceWriter(Source source) throws IOException
@@ -41,7 +41,7 @@ public class CharSequenceWriter extends Thread implements Sink, CharSequence {
         source.feed(this);
     }
 
-    public void setInput(PipedReader input) throws IOException {
+    public void setInput(Reader input) throws IOException {
         if (this.input != null) {
             throw new IOException("input already connected");
         }
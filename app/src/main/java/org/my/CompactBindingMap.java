@@ -0,0 +1,477 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A CompactBindingMap is an {@link AbstractBindingMap} designed to hold very large numbers of bindings
+ * with as little per binding overhead as possible. Instead of a pair of hash maps of String objects it keeps
+ * <ul>
+ * <li>the chars of every value in an arena of large char arrays</li>
+ * <li>each identifier as a small prefix id plus an int index, so "DET42" is stored as the id of
+ * prefix "DET" and the index 42</li>
+ * <li>a few int arrays indexed by binding number which locate the value and identifier of each binding</li>
+ * <li>two open addressing hash tables of binding numbers, one keyed by value and one by identifier</li>
+ * </ul>
+ * Identifier and value Strings are only created when they are returned to a caller. In particular
+ * {@link #appendIdentifier(CharSequence, int, int, StringBuilder)} looks up a value without creating any
+ * objects at all.<p/>
+ *
+ * Insertions are serialized. Lookups never lock: an insertion writes the new binding's data and table
+ * slots before it publishes the increased binding count, and a lookup ignores any binding whose number is
+ * not below the published count. When the arrays fill up an insertion copies them into larger arrays and
+ * publishes the new set before continuing so a lookup which is using the old set is unaffected.<p/>
+ *
+ * An identifier is split into a trailing decimal index of up to nine digits, which may be absent, and
+ * a prefix made up of the chars preceding the index, including any leading zeros. The total size of the
+ * values is limited to 2^31 chars.
+ */
+public class CompactBindingMap extends AbstractBindingMap
+{
+    /**
+     * the number of bits of a value location which give the offset into an arena chunk
+     */
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+    /**
+     * the most digits an identifier index may have. the digits before them are treated as part of the prefix
+     */
+    private static final int MAX_INDEX_DIGITS = 9;
+
+    private volatile Storage storage;
+    /**
+     * the number of bindings which are visible to lookups
+     */
+    private volatile int count;
+    private volatile String[] prefixes;
+
+    /**
+     * create an empty compact bindings map
+     */
+    public CompactBindingMap()
+    {
+        this(1024);
+    }
+
+    /**
+     * create an empty compact bindings map
+     * @param capacity the number of bindings the map should be able to hold before it needs to grow
+     */
+    public CompactBindingMap(int capacity)
+    {
+        int size = 16;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        storage = new Storage(size, 16);
+        count = 0;
+        prefixes = new String[0];
+    }
+
+    public synchronized String putIfAbsent(String identifier, String value)
+    {
+        Storage current = storage;
+        int n = count;
+        int valueHash = hash(value, 0, value.length());
+        int existing = current.findValue(value, 0, value.length(), valueHash, n);
+        if (existing >= 0) {
+            return current.renderIdentifier(existing, prefixes);
+        }
+        int length = identifier.length();
+        int split = indexStart(identifier, 0, length);
+        int index = parseIndex(identifier, split, length);
+        int prefixId = prefixId(identifier, 0, split);
+        if (prefixId < 0) {
+            prefixId = addPrefix(identifier.substring(0, split));
+        } else if (current.findIdentifier(prefixId, index, n) >= 0) {
+            throw new IllegalArgumentException("identifier " + identifier + " is already bound");
+        }
+        if (n == current.capacity) {
+            current = current.resize(current.capacity * 2, current.chunks.length);
+            storage = current;
+        }
+        current = current.store(n, value, valueHash, prefixId, index);
+        storage = current;
+        // publish the new binding
+        count = n + 1;
+        return null;
+    }
+
+    public boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        Storage current = storage;
+        int binding = current.findValue(text, start, end, hash(text, start, end), -1);
+        if (binding < 0) {
+            return false;
+        }
+        if (builder != null) {
+            String prefix = prefixes[current.prefixIds[binding]];
+            builder.append(prefix);
+            int index = current.indices[binding];
+            if (index != 0) {
+                builder.append(index);
+            }
+        }
+        return true;
+    }
+
+    public boolean appendValue(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        Storage current = storage;
+        int binding = findIdentifier(current, text, start, end);
+        if (binding < 0) {
+            return false;
+        }
+        if (builder != null) {
+            current.appendValue(binding, builder);
+        }
+        return true;
+    }
+
+    public String get(String identifier)
+    {
+        Storage current = storage;
+        int binding = findIdentifier(current, identifier, 0, identifier.length());
+        return (binding < 0 ? null : current.renderValue(binding));
+    }
+
+    public Iterator<String> iterator()
+    {
+        // read the count before the storage so that the storage holds every counted binding
+        final int n = count;
+        final Storage current = storage;
+        final String[] names = prefixes;
+        return new Iterator<String>() {
+            private int next = 0;
+
+            public boolean hasNext()
+            {
+                return next < n;
+            }
+
+            public String next()
+            {
+                if (next >= n) {
+                    throw new NoSuchElementException();
+                }
+                return current.renderIdentifier(next++, names);
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the number of bindings in the map
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return the number of the binding for the identifier found between start and end in text or -1
+     * if it is not bound
+     */
+    private int findIdentifier(Storage current, CharSequence text, int start, int end)
+    {
+        int split = indexStart(text, start, end);
+        int prefixId = prefixId(text, start, split);
+        if (prefixId < 0) {
+            return -1;
+        }
+        return current.findIdentifier(prefixId, parseIndex(text, split, end), -1);
+    }
+
+    /**
+     * @return the index in text at which the decimal index of the identifier between start and end
+     * starts or end if it does not have one
+     */
+    private static int indexStart(CharSequence text, int start, int end)
+    {
+        int split = end;
+        while (split > start && end - split < MAX_INDEX_DIGITS && text.charAt(split - 1) >= '0'
+                && text.charAt(split - 1) <= '9') {
+            split--;
+        }
+        // leading zeros belong to the prefix
+        while (split < end && text.charAt(split) == '0') {
+            split++;
+        }
+        return split;
+    }
+
+    /**
+     * @return the decimal index between start and end in text or 0 if the range is empty
+     */
+    private static int parseIndex(CharSequence text, int start, int end)
+    {
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            index = index * 10 + (text.charAt(i) - '0');
+        }
+        return index;
+    }
+
+    /**
+     * @return the id of the prefix formed by the chars between start and end in text or -1 if it is unknown
+     */
+    private int prefixId(CharSequence text, int start, int end)
+    {
+        String[] known = prefixes;
+        int length = end - start;
+        for (int i = 0; i < known.length; i++) {
+            String prefix = known[i];
+            if (prefix.length() == length) {
+                int j = 0;
+                while (j < length && prefix.charAt(j) == text.charAt(start + j)) {
+                    j++;
+                }
+                if (j == length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int addPrefix(String prefix)
+    {
+        String[] known = prefixes;
+        String[] extended = new String[known.length + 1];
+        System.arraycopy(known, 0, extended, 0, known.length);
+        extended[known.length] = prefix;
+        prefixes = extended;
+        return known.length;
+    }
+
+    /**
+     * @return a hash of a value which is spread over the low bits used to index the tables
+     */
+    private static int hash(CharSequence text, int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(int prefixId, int index)
+    {
+        int h = (prefixId * 0x9E3779B9) + index * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * the arrays holding the bindings. a storage is only modified by adding bindings beyond the published
+     * count and by adding arena chunks so a lookup can safely use whichever storage it finds
+     */
+    private class Storage
+    {
+        final int capacity;
+        final int mask;
+        /**
+         * table slots hold a binding number plus one so that zero marks an empty slot
+         */
+        final int[] valueTable;
+        final int[] identifierTable;
+        final int[] valueHashes;
+        /**
+         * the chunk number and offset of each value packed as chunk << CHUNK_BITS | offset
+         */
+        final int[] valueLocations;
+        final int[] valueLengths;
+        final int[] prefixIds;
+        final int[] indices;
+        final char[][] chunks;
+        int chunkCount;
+        int chunkUsed;
+
+        Storage(int capacity, int chunkCapacity)
+        {
+            this.capacity = capacity;
+            this.mask = capacity * 2 - 1;
+            this.valueTable = new int[capacity * 2];
+            this.identifierTable = new int[capacity * 2];
+            this.valueHashes = new int[capacity];
+            this.valueLocations = new int[capacity];
+            this.valueLengths = new int[capacity];
+            this.prefixIds = new int[capacity];
+            this.indices = new int[capacity];
+            this.chunks = new char[chunkCapacity][];
+            this.chunkCount = 0;
+            this.chunkUsed = CHUNK_SIZE;
+        }
+
+        /**
+         * @return a copy of this storage with more room, called while holding the map's lock
+         */
+        Storage resize(int newCapacity, int chunkCapacity)
+        {
+            Storage resized = new Storage(newCapacity, chunkCapacity);
+            int n = count;
+            System.arraycopy(valueHashes, 0, resized.valueHashes, 0, n);
+            System.arraycopy(valueLocations, 0, resized.valueLocations, 0, n);
+            System.arraycopy(valueLengths, 0, resized.valueLengths, 0, n);
+            System.arraycopy(prefixIds, 0, resized.prefixIds, 0, n);
+            System.arraycopy(indices, 0, resized.indices, 0, n);
+            System.arraycopy(chunks, 0, resized.chunks, 0, chunkCount);
+            resized.chunkCount = chunkCount;
+            resized.chunkUsed = chunkUsed;
+            for (int i = 0; i < n; i++) {
+                resized.insert(resized.valueTable, valueHashes[i], i);
+                resized.insert(resized.identifierTable, hash(prefixIds[i], indices[i]), i);
+            }
+            return resized;
+        }
+
+        /**
+         * add a binding, called while holding the map's lock
+         * @return the storage holding the binding which is a new copy if the chunk array was full
+         */
+        Storage store(int binding, String value, int valueHash, int prefixId, int index)
+        {
+            int length = value.length();
+            Storage target = this;
+            if (length == 0) {
+                // an empty value needs no arena space
+                target.valueLocations[binding] = 0;
+            } else if (chunkUsed + length > CHUNK_SIZE || length > CHUNK_SIZE) {
+                if (chunkCount == chunks.length) {
+                    if (chunkCount == MAX_CHUNKS) {
+                        throw new IllegalStateException("binding map value arena is full");
+                    }
+                    target = resize(capacity, Math.min(chunks.length * 2, MAX_CHUNKS));
+                }
+                // values which do not fit in a chunk get one of their own
+                target.chunks[target.chunkCount++] = new char[Math.max(length, CHUNK_SIZE)];
+                target.chunkUsed = 0;
+            }
+            if (length > 0) {
+                int chunk = target.chunkCount - 1;
+                value.getChars(0, length, target.chunks[chunk], target.chunkUsed);
+                target.valueLocations[binding] = (chunk << CHUNK_BITS) | (length > CHUNK_SIZE ? 0 : target.chunkUsed);
+                target.chunkUsed = (length > CHUNK_SIZE ? CHUNK_SIZE : target.chunkUsed + length);
+            }
+            target.valueLengths[binding] = length;
+            target.valueHashes[binding] = valueHash;
+            target.prefixIds[binding] = prefixId;
+            target.indices[binding] = index;
+            target.insert(target.valueTable, valueHash, binding);
+            target.insert(target.identifierTable, hash(prefixId, index), binding);
+            return target;
+        }
+
+        private void insert(int[] table, int hash, int binding)
+        {
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = binding + 1;
+        }
+
+        /**
+         * @param limit the number of bindings to consider or -1 to read the published count
+         * @return the number of the binding for a value or -1 if it is not bound
+         */
+        int findValue(CharSequence text, int start, int end, int hash, int limit)
+        {
+            int length = end - start;
+            int slot = hash & mask;
+            int entry = valueTable[slot];
+            while (entry != 0) {
+                int binding = entry - 1;
+                // reading the count after the slot makes the binding's data visible if it is published
+                if (binding < (limit < 0 ? count : limit) && valueHashes[binding] == hash && valueLengths[binding] == length) {
+                    int location = valueLocations[binding];
+                    char[] chunk = chunks[location >>> CHUNK_BITS];
+                    int offset = location & (CHUNK_SIZE - 1);
+                    int i = 0;
+                    while (i < length && chunk[offset + i] == text.charAt(start + i)) {
+                        i++;
+                    }
+                    if (i == length) {
+                        return binding;
+                    }
+                }
+                slot = (slot + 1) & mask;
+                entry = valueTable[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * @param limit the number of bindings to consider or -1 to read the published count
+         * @return the number of the binding for an identifier or -1 if it is not bound
+         */
+        int findIdentifier(int prefixId, int index, int limit)
+        {
+            int slot = hash(prefixId, index) & mask;
+            int entry = identifierTable[slot];
+            while (entry != 0) {
+                int binding = entry - 1;
+                if (binding < (limit < 0 ? count : limit) && prefixIds[binding] == prefixId && indices[binding] == index) {
+                    return binding;
+                }
+                slot = (slot + 1) & mask;
+                entry = identifierTable[slot];
+            }
+            return -1;
+        }
+
+        String renderIdentifier(int binding, String[] names)
+        {
+            int index = indices[binding];
+            String prefix = names[prefixIds[binding]];
+            return (index == 0 ? prefix : prefix + index);
+        }
+
+        void appendValue(int binding, StringBuilder builder)
+        {
+            int length = valueLengths[binding];
+            if (length > 0) {
+                int location = valueLocations[binding];
+                builder.append(chunks[location >>> CHUNK_BITS], location & (CHUNK_SIZE - 1), length);
+            }
+        }
+
+        String renderValue(int binding)
+        {
+            if (valueLengths[binding] == 0) {
+                return "";
+            }
+            int location = valueLocations[binding];
+            return new String(chunks[location >>> CHUNK_BITS], location & (CHUNK_SIZE - 1), valueLengths[binding]);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+/**
+ * What a stage which feeds several consumers, such as a {@link LineTap} or a {@link TeeProcessor}, does
+ * when one of its consumers falls behind.
+ */
+public enum ConsumerPolicy
+{
+    /**
+     * wait for the consumer to make room so that it sees everything
+     */
+    BLOCK,
+    /**
+     * never wait. data which the consumer has no room for is dropped and counted
+     */
+    DROP,
+    /**
+     * never wait and thin the data evenly rather than dropping whole runs. once the consumer's buffer
+     * is half full only every second item is passed on, once it is three quarters full every fourth and
+     * when it is full none
+     */
+    SAMPLE,
+    /**
+     * never lose data. what the consumer has no room for is appended to a bounded temporary file and
+     * replayed in order once the consumer catches up. the consumer fails if the bound is exceeded. the file
+     * is written by a separate thread so the producer only waits if the disk falls well behind. only
+     * supported by a {@link TeeProcessor}
+     */
+    SPILL
+}
@@ -26,30 +26,93 @@ package org.my;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /**
- * FileReader is a data Source which populates its output stream with characters read from a file
+ * FileReader is a data Source which populates its output stream with characters read from a file<p/>
+ *
+ * When created without a charset the reader copies the file a byte at a time, treating each byte
+ * as a char. When created with a charset the file is memory mapped, one region at a time so that
+ * files larger than 2GB can be handled, and decoded in bulk using the charset. The decoded chars
+ * are written to the output stream in whole blocks.<p/>
+ *
+ * A reader may also be restricted to a range of bytes in the file so that several readers can process
+ * different parts of the same file. See {@link SplitFileRunner}.
  */
 
 public class FileReader extends Thread implements Source
 {
+    /**
+     * the size of the file regions mapped in bulk mode
+     */
+    private final static long MAP_SIZE = 64L * 1024 * 1024;
+    /**
+     * the number of chars decoded and written in one block in bulk mode
+     */
+    private final static int BLOCK_SIZE = 8192;
+
     FileInputStream input;
-    private PipedWriter output;
+    private Writer output;
+    private Charset charset;
+    /**
+     * the offset of the first byte to read
+     */
+    private long start;
+    /**
+     * the offset following the last byte to read or -1 to read to the end of the file
+     */
+    private long end;
 
     public FileReader(String file) throws IOException
     {
+        this(file, null);
+    }
+
+    /**
+     * create a reader which maps the file and decodes it in bulk
+     * @param file the file to read
+     * @param charset the charset used to decode the file or null if each byte should be treated as a char
+     * @throws IOException
+     */
+    public FileReader(String file, Charset charset) throws IOException
+    {
+        this(file, charset, 0, -1);
+    }
+
+    /**
+     * create a reader which only reads a range of bytes in the file
+     * @param file the file to read
+     * @param charset the charset used to decode the file or null if each byte should be treated as a char
+     * @param start the offset of the first byte to read
+     * @param end the offset following the last byte to read or -1 to read to the end of the file
+     * @throws IOException
+     */
+    public FileReader(String file, Charset charset, long start, long end) throws IOException
+    {
+        if (start < 0 || (end >= 0 && end < start)) {
+            throw new IllegalArgumentException("invalid range " + start + " to " + end);
+        }
         input = new FileInputStream(file);
         output = null;
+        this.charset = charset;
+        this.start = start;
+        this.end = end;
     }
 
     public void feed(Sink sink) throws IOException {
         if (output != null) {
             throw new IOException("output already connected");
         }
-        output = new PipedWriter();
-        sink.setInput(new PipedReader(output));
+        Channel channel = Channels.createChannel();
+        output = channel.getWriter();
+        sink.setInput(channel.getReader());
     }
 
     public void run()
@@ -59,10 +122,16 @@ public class FileReader extends Thread implements Source
             return;
         }
         try {
-            int next = input.read();
-            while  (next >=0) {
-                output.write(next);
-                next = input.read();
+            if (charset == null) {
+                input.getChannel().position(start);
+                long remaining = (end < 0 ? Long.MAX_VALUE : end - start);
+                int next = (remaining > 0 ? input.read() : -1);
+                while  (next >=0) {
+                    output.write(next);
+                    next = (--remaining > 0 ? input.read() : -1);
+                }
+            } else {
+                readMapped();
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -79,4 +148,51 @@ public class FileReader extends Thread implements Source
             }
         }
     }
+
+    /**
+     * maps successive regions of the file, decodes them and writes the decoded text to the output
+     * a block at a time. the decoder and char buffer are reused for the whole file.
+     * @throws IOException
+     */
+    private void readMapped() throws IOException
+    {
+        FileChannel channel = input.getChannel();
+        CharsetDecoder decoder = charset.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        long size = (end < 0 ? channel.size() : Math.min(end, channel.size()));
+        long position = start;
+
+        while (position < size) {
+            long length = Math.min(MAP_SIZE, size - position);
+            boolean endOfInput = (position + length == size);
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            while (result.isOverflow()) {
+                writeBlock(chars);
+                result = decoder.decode(bytes, chars, endOfInput);
+            }
+            // any bytes left over are the start of a char split across the region boundary
+            // so the next region is mapped starting from them
+            position += length - bytes.remaining();
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            writeBlock(chars);
+        }
+        writeBlock(chars);
+    }
+
+    /**
+     * writes the chars decoded into the buffer to the output and clears the buffer ready for reuse
+     * @param chars
+     * @throws IOException
+     */
+    private void writeBlock(CharBuffer chars) throws IOException
+    {
+        if (chars.position() > 0) {
+            output.write(chars.array(), 0, chars.position());
+            chars.clear();
+        }
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * A simple benchmark which compares the throughput of the byte at a time and the memory mapped
+ * bulk decoding modes of {@link FileReader}. It generates a temporary file of text lines and then
+ * streams it through each mode into a sink which discards the text.<p/>
+ *
+ * The size of the generated file in MB may be supplied as the first argument.
+ */
+public class FileReaderBenchmark
+{
+    public static void main(String[] args)
+    {
+        try {
+            int megabytes = (args.length > 0 ? Integer.parseInt(args[0]) : 32);
+            File file = File.createTempFile("tutorial2", ".txt");
+            file.deleteOnExit();
+            generate(file, megabytes);
+            // run each mode twice and report the second run so the JIT has warmed up
+            for (int i = 0; i < 2; i++) {
+                long bytewise = time(new FileReader(file.getPath()));
+                long mapped = time(new FileReader(file.getPath(), Charset.forName("UTF-8")));
+                if (i == 1) {
+                    System.out.println("bytewise: " + report(file.length(), bytewise));
+                    System.out.println("mapped:   " + report(file.length(), mapped));
+                }
+            }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private static void generate(File file, int megabytes) throws IOException
+    {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+        byte[] line = "the boy threw the stick at the window but the dog ran after the ball\n".getBytes("UTF-8");
+        long size = megabytes * 1024L * 1024L;
+        try {
+            for (long written = 0; written < size; written += line.length) {
+                output.write(line);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private static long time(FileReader reader) throws IOException, InterruptedException
+    {
+        DiscardingWriter writer = new DiscardingWriter(reader);
+        long start = System.nanoTime();
+        reader.start();
+        writer.start();
+        reader.join();
+        writer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static String report(long bytes, long nanos)
+    {
+        long millis = nanos / 1000000;
+        long throughput = (bytes * 1000000000L) / (nanos * 1024 * 1024);
+        return millis + " ms " + throughput + " MB/s";
+    }
+
+    /**
+     * a data Sink which drains its input in blocks and throws the text away
+     */
+    private static class DiscardingWriter extends Thread implements Sink
+    {
+        private Reader input;
+
+        public DiscardingWriter(Source source) throws IOException
+        {
+            source.feed(this);
+        }
+
+        public void setInput(Reader input) throws IOException {
+            if (this.input != null) {
+                throw new IOException("input already connected");
+            }
+            this.input = input;
+        }
+
+        public void run()
+        {
+            char[] buffer = new char[8192];
+            try {
+                while (input.read(buffer, 0, buffer.length) >= 0) {
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+}
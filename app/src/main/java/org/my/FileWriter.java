@@ -26,13 +26,13 @@ package org.my;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PipedReader;
+import java.io.Reader;
 
 /**
  * FileWriter is a data Sink which writes the characters from its input stream to a file
  */
 public class FileWriter extends Thread implements Sink {
-    private PipedReader input;
+    private Reader input;
     private FileOutputStream output;
 
     public FileWriter(String file, Source source) throws IOException
@@ -41,7 +41,7 @@ public class FileWriter extends Thread implements Sink {
         source.feed(this);
     }
 
-    public void setInput(PipedReader input) throws IOException {
+    public void setInput(Reader input) throws IOException {
         if (this.input != null) {
             throw new IOException("input already connected");
         }
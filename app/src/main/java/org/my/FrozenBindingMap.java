@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A FrozenBindingMap is an immutable copy of the bindings in an {@link AbstractBindingMap} obtained by
+ * calling {@link AbstractBindingMap#freeze()} once binding discovery has finished. It is intended for
+ * replacement phases which only look bindings up: having no writers it needs no locks or volatile reads
+ * and may be shared by any number of threads and pipelines.<p/>
+ *
+ * The identifiers are held in sorted order alongside their values and two open addressing hash tables
+ * hold the positions of the bindings keyed by identifier and by value. The identifiers are iterated in
+ * sorted order so the map can be exported sorted without copying it.<p/>
+ *
+ * Attempting to establish a new binding throws UnsupportedOperationException.
+ */
+public class FrozenBindingMap extends AbstractBindingMap
+{
+    private final String[] identifiers;
+    private final String[] values;
+    private final int mask;
+    /**
+     * table slots hold a binding position plus one so that zero marks an empty slot
+     */
+    private final int[] identifierTable;
+    private final int[] valueTable;
+
+    /**
+     * create a frozen map from the bindings copied out of some other map
+     * @param found the identifiers of the bindings in any order. the array is sorted in place
+     * @param foundValues the values bound to each identifier
+     * @param count the number of bindings in the arrays
+     */
+    FrozenBindingMap(String[] found, String[] foundValues, int count)
+    {
+        // sort the bindings by identifier, carrying each value along with its identifier
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final String[] keys = found;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer first, Integer second)
+            {
+                return keys[first].compareTo(keys[second]);
+            }
+        });
+        identifiers = new String[count];
+        values = new String[count];
+        int size = 2;
+        while (size < 2 * count) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        identifierTable = new int[size];
+        valueTable = new int[size];
+        for (int i = 0; i < count; i++) {
+            identifiers[i] = found[order[i]];
+            values[i] = foundValues[order[i]];
+            insert(identifierTable, identifiers[i].hashCode(), i);
+            insert(valueTable, values[i].hashCode(), i);
+        }
+    }
+
+    public String putIfAbsent(String identifier, String value)
+    {
+        throw new UnsupportedOperationException("binding map is frozen");
+    }
+
+    public boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        int position = find(valueTable, values, text, start, end);
+        if (position < 0) {
+            return false;
+        }
+        if (builder != null) {
+            builder.append(identifiers[position]);
+        }
+        return true;
+    }
+
+    public boolean appendValue(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        int position = find(identifierTable, identifiers, text, start, end);
+        if (position < 0) {
+            return false;
+        }
+        if (builder != null) {
+            builder.append(values[position]);
+        }
+        return true;
+    }
+
+    public String get(String identifier)
+    {
+        int slot = spread(identifier.hashCode()) & mask;
+        int entry;
+        while ((entry = identifierTable[slot]) != 0) {
+            if (identifiers[entry - 1].equals(identifier)) {
+                return values[entry - 1];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * obtain an iterator over the identifiers for all bindings in sorted order
+     * @return the iterator
+     */
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>() {
+            private int next = 0;
+
+            public boolean hasNext()
+            {
+                return next < identifiers.length;
+            }
+
+            public String next()
+            {
+                if (next >= identifiers.length) {
+                    throw new NoSuchElementException();
+                }
+                return identifiers[next++];
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return this map since it is already frozen
+     */
+    public FrozenBindingMap freeze()
+    {
+        return this;
+    }
+
+    /**
+     * @return the number of bindings
+     */
+    public int size()
+    {
+        return identifiers.length;
+    }
+
+    /**
+     * @param position a position in sorted order
+     * @return the identifier at the position
+     */
+    public String getIdentifier(int position)
+    {
+        return identifiers[position];
+    }
+
+    /**
+     * @param position a position in sorted order
+     * @return the value bound to the identifier at the position
+     */
+    public String getValue(int position)
+    {
+        return values[position];
+    }
+
+    private void insert(int[] table, int hash, int position)
+    {
+        int slot = spread(hash) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = position + 1;
+    }
+
+    /**
+     * @return the position of the binding whose key in keys matches the text or -1 if there is none
+     */
+    private int find(int[] table, String[] keys, CharSequence text, int start, int end)
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int length = end - start;
+        int slot = spread(hash) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            String key = keys[entry - 1];
+            if (key.length() == length && matches(key, text, start)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String key, CharSequence text, int start)
+    {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
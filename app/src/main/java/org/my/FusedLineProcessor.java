@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A FusedLineProcessor runs a chain of connected TextLineProcessors in a single thread. Starting from
+ * a given processor it collects that processor and each successive TextLineProcessor fed by the previous
+ * one. It reads lines from the input of the first processor, calls
+ * {@link TextLineProcessor#transform(CharSequence, StringBuilder)} on each processor in chain order
+ * and writes the result to the output of the last processor.<p/>
+ *
+ * The fused processors must be connected in the normal way but they must not be started. Once fused
+ * a processor does nothing if it is run. The channels between the fused processors are never used.<p/>
+ *
+ * Each line is transformed by every processor in turn before the next line is read so a processor
+ * always sees the bindings created by earlier processors for the same and previous lines. It never
+ * sees bindings created by earlier processors for later lines. This is the same ordering as when the
+ * processors run in their own threads except that it removes the timing dependency: a reference to
+ * a binding which is only created on a later line is never replaced.<p/>
+ *
+ * A line whose transformation is rejected by one of the processors, e.g. because it exceeds a match
+ * budget, is written to that processor's reject output and is not seen by the processors which follow
+ * it. If the processor has no reject sink the line is passed on unchanged.
+ */
+public class FusedLineProcessor extends Thread
+{
+    private TextLineProcessor[] stages;
+
+    /**
+     * fuse the chain of TextLineProcessors starting from the given processor
+     * @param first the first processor in the chain
+     * @throws IllegalStateException if any processor in the chain has already been started or fused or
+     * holds lines back, such as a {@link BindingReplacer} in deferred mode
+     */
+    public FusedLineProcessor(TextLineProcessor first)
+    {
+        List<TextLineProcessor> chain = new ArrayList<TextLineProcessor>();
+        TextLineProcessor next = first;
+        while (next != null) {
+            if (next.getState() != Thread.State.NEW || next.isFused() || !next.isFusable()) {
+                throw new IllegalStateException("cannot fuse processor " + next.getName());
+            }
+            chain.add(next);
+            next = next.getDownstream();
+        }
+        stages = chain.toArray(new TextLineProcessor[chain.size()]);
+        for (TextLineProcessor stage : stages) {
+            stage.setFused();
+        }
+    }
+
+    /**
+     * @return the number of processors in the fused chain
+     */
+    public int getStageCount()
+    {
+        return stages.length;
+    }
+
+    /**
+     * Calls {@link #processPipeline()}, closing the output of the last processor when done and also the
+     * input of the first processor if an exception occurred.
+     * @throws RuntimeException if the first processor's input or the last processor's output has not been
+     * configured
+     */
+    public void run()
+    {
+        TextLineProcessor first = stages[0];
+        TextLineProcessor last = stages[stages.length - 1];
+        boolean excepted = false;
+
+        if (first.input == null || last.output == null) {
+            throw new RuntimeException("unconnected pipeline");
+        }
+        try {
+            processPipeline();
+        } catch (IOException ioe) {
+            excepted = true;
+        } finally {
+            try {
+                last.output.close();
+            } catch (IOException ioe) {
+                // nothing to do
+            }
+            for (TextLineProcessor stage : stages) {
+                stage.closeRejects();
+                stage.closeTap();
+            }
+            if (excepted) {
+                try {
+                    first.input.close();
+                } catch (IOException ioe2) {
+                    // the input may be the source of the original exception
+                }
+            }
+        }
+    }
+
+    /**
+     * reads successive lines from the first processor's input, passes each one through every
+     * processor's transform method and writes the result to the last processor's output
+     * @throws IOException
+     */
+    public void processPipeline() throws IOException
+    {
+        LineInput lines = stages[0].getLineInput();
+        LineOutput lineOutput = stages[stages.length - 1].getLineOutput();
+        // each stage appends to whichever buffer does not hold its input
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        nextLine:
+        while (lines.nextLine()) {
+            CharSequence text = lines.getText();
+            for (int i = 0; i < stages.length; i++) {
+                StringBuilder builder = (text == first ? second : first);
+                builder.setLength(0);
+                try {
+                    if (stages[i].transform(text, builder)) {
+                        text = builder;
+                    }
+                } catch (LineRejectedException e) {
+                    if (stages[i].reject(text, lines.getTerminator())) {
+                        continue nextLine;
+                    }
+                }
+                stages[i].tap(text, lines.getTerminator());
+            }
+            lineOutput.writeLine(text, lines.getTerminator());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+/**
+ * An IdentifierAllocator creates the bindings for one binder. It is obtained from
+ * {@link AbstractBindingMap#createAllocator(String)} which registers it with the map's
+ * {@link IdentifierSequence} for the binder's prefix. The allocator leases blocks of indices from the
+ * sequence and proposes the identifiers in each block in turn, skipping any identifier which was bound
+ * before the sequence was created.<p/>
+ *
+ * An allocator is used by a single thread.
+ */
+public class IdentifierAllocator
+{
+    private final AbstractBindingMap bindings;
+    private final String prefix;
+    private final IdentifierSequence sequence;
+    private final int client;
+    private int counter;
+    private int leaseEnd;
+    private int leases;
+
+    IdentifierAllocator(AbstractBindingMap bindings, String prefix, IdentifierSequence sequence)
+    {
+        this.bindings = bindings;
+        this.prefix = prefix;
+        this.sequence = sequence;
+        this.client = sequence.register();
+        this.counter = 0;
+        this.leaseEnd = 0;
+        this.leases = 0;
+    }
+
+    /**
+     * find the identifier bound to a value, binding the value to the next free identifier if it is new
+     * @param value the value to bind
+     * @return the identifier bound to the value
+     */
+    public String bind(String value)
+    {
+        while (true) {
+            if (counter == leaseEnd) {
+                counter = sequence.lease(client, leases++);
+                leaseEnd = counter + IdentifierSequence.BLOCK_SIZE;
+            }
+            String next = prefix + counter;
+            String identifier;
+            try {
+                identifier = bindings.putIfAbsent(next, value);
+            } catch (IllegalArgumentException iae) {
+                // next was bound to some other value before the sequence was created
+                counter++;
+                continue;
+            }
+            if (identifier != null) {
+                // this was an existing binding
+                return identifier;
+            }
+            // this was a new binding
+            counter++;
+            return next;
+        }
+    }
+}
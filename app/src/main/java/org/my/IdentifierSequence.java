@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An IdentifierSequence allocates the indices appended to one prefix to form identifiers in a
+ * {@link AbstractBindingMap}. It is obtained from {@link AbstractBindingMap#getSequence(String)} so every binder using the
+ * same map and prefix shares it and no two binders ever propose the same identifier.<p/>
+ *
+ * Indices are leased to binders in blocks of {@link #BLOCK_SIZE} so a binder only touches the shared
+ * sequence once per block. A binder which is the only user of its prefix numbers its identifiers
+ * consecutively. Indices in a block which a binder never uses are simply skipped.<p/>
+ *
+ * By default blocks are handed out in the order they are requested so the identifiers a binder creates
+ * depend upon how its thread is scheduled relative to other binders with the same prefix. In deterministic
+ * mode each binder registered with the sequence is given a fixed share of the blocks: with n binders
+ * registered the binder registered k'th (counting from zero) receives blocks k, k + n, k + 2n and so on.
+ * The identifiers a binder creates then depend only upon the order in which it meets new values. All
+ * binders must be registered before any of them leases a block.
+ */
+public class IdentifierSequence
+{
+    /**
+     * the number of indices in a leased block
+     */
+    public static final int BLOCK_SIZE = 64;
+
+    private final int first;
+    private final boolean deterministic;
+    private final AtomicInteger blocks;
+    private final AtomicInteger clients;
+    /**
+     * the number of registered binders, fixed when a block is first leased in deterministic mode
+     */
+    private volatile int clientCount;
+
+    /**
+     * create a sequence
+     * @param first the first index in the sequence
+     * @param deterministic true if blocks are assigned to binders in a fixed rotation
+     */
+    public IdentifierSequence(int first, boolean deterministic)
+    {
+        if (first < 0) {
+            throw new IllegalArgumentException("identifier index must not be negative");
+        }
+        this.first = first;
+        this.deterministic = deterministic;
+        this.blocks = new AtomicInteger();
+        this.clients = new AtomicInteger();
+        this.clientCount = -1;
+    }
+
+    /**
+     * register a binder which will lease blocks from this sequence
+     * @return the client number the binder must supply when leasing
+     */
+    public int register()
+    {
+        int client = clients.getAndIncrement();
+        if (deterministic && clientCount >= 0) {
+            throw new IllegalStateException("binders must be registered before the sequence is used");
+        }
+        return client;
+    }
+
+    /**
+     * lease a block of indices
+     * @param client the client number returned when the binder registered
+     * @param leased the number of blocks the binder has already leased
+     * @return the first index in the block
+     */
+    public int lease(int client, int leased)
+    {
+        long block;
+        if (deterministic) {
+            int count = clientCount;
+            if (count < 0) {
+                // close registration
+                synchronized (this) {
+                    if (clientCount < 0) {
+                        clientCount = clients.get();
+                    }
+                    count = clientCount;
+                }
+            }
+            block = (long) leased * count + client;
+        } else {
+            block = blocks.getAndIncrement() & 0xFFFFFFFFL;
+        }
+        long start = first + block * BLOCK_SIZE;
+        if (start + BLOCK_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalStateException("identifier sequence exhausted");
+        }
+        return (int) start;
+    }
+}
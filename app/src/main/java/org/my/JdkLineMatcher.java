@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.my;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A JdkLineMatcher is a {@link LineMatcher} which delegates to a {@link Matcher}. When a budget is set the
+ * matcher reads the line through a wrapper which counts every char access and throws a
+ * {@link MatchBudgetExceededException} once the count exceeds the budget.
+ */
+class JdkLineMatcher implements LineMatcher
+{
+    private Matcher matcher;
+    private BudgetedText budgeted;
+    private CharSequence text;
+
+    public JdkLineMatcher(Pattern pattern, long budget)
+    {
+        this.matcher = pattern.matcher("");
+        this.budgeted = (budget == MatchEngine.UNLIMITED ? null : new BudgetedText(budget));
+    }
+
+    public void reset(CharSequence text)
+    {
+        this.text = text;
+        if (budgeted != null) {
+            budgeted.reset(text);
+            matcher.reset(budgeted);
+        } else {
+            matcher.reset(text);
+        }
+    }
+
+    public boolean find(int from)
+    {
+        return matcher.find(from);
+    }
+
+    public int start()
+    {
+        return matcher.start();
+    }
+
+    public int start(int group)
+    {
+        return matcher.start(group);
+    }
+
+    public int end()
+    {
+        return matcher.end();
+    }
+
+    public int end(int group)
+    {
+        return matcher.end(group);
+    }
+
+    public String group()
+    {
+        return group(0);
+    }
+
+    public String group(int group)
+    {
+        // extract the text from the line itself so the budget is not charged
+        int start = matcher.start(group);
+        return (start < 0 ? null : text.subSequence(start, matcher.end(group)).toString());
+    }
+
+    public int groupCount()
+    {
+        return matcher.groupCount();
+    }
+
+    /**
+     * a view of a line of text which charges one step for each char access
+     */
+    private static class BudgetedText implements CharSequence
+    {
+        private CharSequence text;
+        private long budget;
+        private long remaining;
+
+        BudgetedText(long budget)
+        {
+            this.budget = budget;
+        }
+
+        void reset(CharSequence text)
+        {
+            this.text = text;
+            this.remaining = budget;
+        }
+
+        public char charAt(int index)
+        {
+            if (--remaining < 0) {
+                throw new MatchBudgetExceededException(budget);
+            }
+            return text.charAt(index);
+        }
+
+        public int length()
+        {
+            return text.length();
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return text.subSequence(start, end);
+        }
+
+        public String toString()
+        {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A LineChannel is a bounded Channel which passes line records, i.e. the text of a line plus the
+ * kind of terminator which ended it, from a single producer thread to a single consumer thread. It
+ * is used to connect two {@link TextLineProcessor} stages so that the downstream stage does not need
+ * to scan the upstream stage's output for line terminators.<p/>
+ *
+ * Records are held in a ring of reusable slots, allocated on first use. The producer publishes each
+ * record as soon as it is written. The consumer takes every record published so far as a batch, only
+ * rereading the tail index once the batch is exhausted. The current record's slot is released when
+ * the consumer advances to the next record so its text can be handed on without copying. Blocked
+ * threads spin, yield and then park in the same way as in a {@link RingBufferChannel}.<p/>
+ *
+ * The writer and reader also accept and deliver plain chars so that a stage which is unaware of
+ * records can still use either end of the channel.
+ */
+public class LineChannel implements Channel
+{
+    /**
+     * the default capacity in lines of the ring
+     */
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * the initial size of the text buffer in each slot
+     */
+    private final static int INITIAL_LINE_SIZE = 128;
+
+    private final static int SPIN_LIMIT = 100;
+    private final static int YIELD_LIMIT = 200;
+
+    private final LineText[] texts;
+    private final LineTerminator[] terminators;
+    private final int mask;
+
+    /**
+     * the index of the next slot to be published, only updated by the producer
+     */
+    private volatile long tail;
+    /**
+     * the index of the slot the consumer is reading, only updated by the consumer
+     */
+    private volatile long head;
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+    private volatile Thread waitingWriter;
+    private volatile Thread waitingReader;
+
+    private final LineChannelReader reader;
+    private final LineChannelWriter writer;
+
+    /**
+     * create a line channel
+     * @param capacity the minimum number of lines the ring can hold, rounded up to a power of two
+     */
+    public LineChannel(int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        texts = new LineText[size];
+        terminators = new LineTerminator[size];
+        mask = size - 1;
+        tail = 0;
+        head = 0;
+        writerClosed = false;
+        readerClosed = false;
+        reader = new LineChannelReader();
+        writer = new LineChannelWriter();
+    }
+
+    public Reader getReader()
+    {
+        return reader;
+    }
+
+    /**
+     * @return the number of lines the ring can hold
+     */
+    public int getCapacity()
+    {
+        return texts.length;
+    }
+
+    /**
+     * @return the number of lines written to the channel which the consumer has not yet finished with
+     */
+    public int getBacklog()
+    {
+        return (int)(tail - head);
+    }
+
+    public Writer getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * the producer end of the channel
+     */
+    private class LineChannelWriter extends Writer implements LineOutput
+    {
+        /**
+         * the producer's copy of the head index. the ring has at least as much space as this implies
+         */
+        private long headCache = 0;
+        /**
+         * the slot being filled with the current line or null if no line has been started
+         */
+        private LineText pending = null;
+
+        public void writeLine(CharSequence text, LineTerminator terminator) throws IOException
+        {
+            LineText slot = startLine();
+            slot.append(text, 0, text.length());
+            endLine(slot, terminator);
+        }
+
+        public void write(int c) throws IOException
+        {
+            LineText slot = startLine();
+            if (c == '\n') {
+                endLine(slot);
+            } else {
+                slot.append((char)c);
+            }
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            int end = off + len;
+            while (off < end) {
+                LineText slot = startLine();
+                int start = off;
+                while (off < end && cbuf[off] != '\n') {
+                    off++;
+                }
+                slot.append(cbuf, start, off - start);
+                if (off < end) {
+                    endLine(slot);
+                    off++;
+                }
+            }
+        }
+
+        public void write(String str, int off, int len) throws IOException
+        {
+            int end = off + len;
+            while (off < end) {
+                LineText slot = startLine();
+                int newline = str.indexOf('\n', off);
+                int start = off;
+                off = (newline < 0 || newline >= end ? end : newline);
+                slot.append(str, start, off);
+                if (off < end) {
+                    endLine(slot);
+                    off++;
+                }
+            }
+        }
+
+        /**
+         * records are visible to the reader as soon as they are complete. a partial line is only
+         * published when it is terminated or the channel is closed
+         */
+        public void flush() throws IOException
+        {
+            checkOpen();
+        }
+
+        public void close() throws IOException
+        {
+            if (writerClosed) {
+                return;
+            }
+            if (pending != null) {
+                endLine(pending, LineTerminator.NONE);
+            }
+            writerClosed = true;
+            LockSupport.unpark(waitingReader);
+        }
+
+        /**
+         * @return the slot holding the current line, claiming a new one if no line has been started
+         * @throws IOException if either end of the channel is closed or the thread is interrupted
+         */
+        private LineText startLine() throws IOException
+        {
+            if (pending == null) {
+                long t = tail;
+                awaitSpace(t);
+                int index = (int)t & mask;
+                pending = texts[index];
+                if (pending == null) {
+                    // slots are allocated on first use so an unused channel stays small
+                    pending = new LineText(INITIAL_LINE_SIZE);
+                    texts[index] = pending;
+                }
+                pending.clear();
+            }
+            return pending;
+        }
+
+        /**
+         * terminate the current line at an LF, treating a preceding CR as part of the terminator
+         */
+        private void endLine(LineText slot)
+        {
+            int length = slot.length();
+            if (length > 0 && slot.getChars()[length - 1] == '\r') {
+                slot.setLength(length - 1);
+                endLine(slot, LineTerminator.CRLF);
+            } else {
+                endLine(slot, LineTerminator.LF);
+            }
+        }
+
+        private void endLine(LineText slot, LineTerminator terminator)
+        {
+            long t = tail;
+            terminators[(int)t & mask] = terminator;
+            pending = null;
+            tail = t + 1;
+            Thread waiting = waitingReader;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+
+        private void checkOpen() throws IOException
+        {
+            if (writerClosed || readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        private void awaitSpace(long t) throws IOException
+        {
+            checkOpen();
+            if (t - headCache < texts.length) {
+                return;
+            }
+            int spins = 0;
+            while (true) {
+                headCache = head;
+                if (t - headCache < texts.length) {
+                    return;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    waitingWriter = Thread.currentThread();
+                    if (head == headCache && !readerClosed) {
+                        LockSupport.park(this);
+                    }
+                    waitingWriter = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                checkOpen();
+            }
+        }
+    }
+
+    /**
+     * the consumer end of the channel
+     */
+    private class LineChannelReader extends Reader implements LineInput
+    {
+        /**
+         * the consumer's copy of the tail index. the ring holds at least as many records as this implies
+         */
+        private long tailCache = 0;
+        /**
+         * the text of the current record or null if no record is held
+         */
+        private LineText text = null;
+        private LineTerminator terminator = null;
+        /**
+         * how many chars of the current record, including its terminator, have been read as chars
+         */
+        private int position = 0;
+
+        public boolean nextLine() throws IOException
+        {
+            long h = head;
+            if (text != null) {
+                // release the current slot
+                text = null;
+                h = h + 1;
+                head = h;
+                Thread waiting = waitingWriter;
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+            if (!awaitData(h)) {
+                return false;
+            }
+            int index = (int)h & mask;
+            text = texts[index];
+            terminator = terminators[index];
+            position = 0;
+            return true;
+        }
+
+        public CharSequence getText()
+        {
+            return text;
+        }
+
+        public LineTerminator getTerminator()
+        {
+            return terminator;
+        }
+
+        public int read() throws IOException
+        {
+            if (!nextChars()) {
+                return -1;
+            }
+            int length = text.length();
+            int index = position++;
+            if (index < length) {
+                return text.getChars()[index];
+            } else {
+                return terminator.getText().charAt(index - length);
+            }
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChars()) {
+                return -1;
+            }
+            int count = 0;
+            int length = text.length();
+            if (position < length) {
+                count = Math.min(len, length - position);
+                System.arraycopy(text.getChars(), position, cbuf, off, count);
+                position += count;
+            }
+            String terminatorText = terminator.getText();
+            while (count < len && position - length < terminatorText.length()) {
+                cbuf[off + count++] = terminatorText.charAt(position - length);
+                position++;
+            }
+            return count;
+        }
+
+        public boolean ready() throws IOException
+        {
+            checkOpen();
+            if (text != null && position < text.length() + terminator.getText().length()) {
+                return true;
+            }
+            return tail - head > (text != null ? 1 : 0);
+        }
+
+        public void close() throws IOException
+        {
+            readerClosed = true;
+            LockSupport.unpark(waitingWriter);
+        }
+
+        /**
+         * ensure there is a record with unread chars, advancing to the next record if needed
+         * @return false at EOF
+         */
+        private boolean nextChars() throws IOException
+        {
+            while (text == null || position >= text.length() + terminator.getText().length()) {
+                if (!nextLine()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void checkOpen() throws IOException
+        {
+            if (readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        /**
+         * wait until the slot at the given index has been published or the writer has closed the channel
+         * @return false at EOF
+         */
+        private boolean awaitData(long h) throws IOException
+        {
+            checkOpen();
+            if (tailCache > h) {
+                return true;
+            }
+            int spins = 0;
+            while (true) {
+                // read the closed flag before the tail so that we cannot miss records
+                // published just before the channel was closed
+                boolean closed = writerClosed;
+                tailCache = tail;
+                if (tailCache > h) {
+                    return true;
+                }
+                if (closed) {
+                    return false;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    waitingReader = Thread.currentThread();
+                    if (tail == tailCache && !writerClosed) {
+                        LockSupport.park(this);
+                    }
+                    waitingReader = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                checkOpen();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+
+/**
+ * Interface implemented by objects which provide a stream of text lines to a {@link TextLineProcessor}
+ */
+public interface LineInput
+{
+    /**
+     * advance to the next line of text
+     * @return true if there is a next line or false at EOF
+     * @throws IOException
+     */
+    public boolean nextLine() throws IOException;
+
+    /**
+     * obtain the text of the current line omitting any line terminator. the text is only guaranteed
+     * to remain valid until the next call to {@link #nextLine()}
+     * @return the text of the current line
+     */
+    public CharSequence getText();
+
+    /**
+     * @return the terminator which ended the current line
+     */
+    public LineTerminator getTerminator();
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.my;
+
+import java.util.regex.MatchResult;
+
+/**
+ * A LineMatcher searches successive lines of text for matches of a regular expression. It provides the
+ * subset of the {@link java.util.regex.Matcher} API used by the line processing stages so that the stages
+ * can employ whichever {@link MatchEngine} they have been configured with.<p/>
+ *
+ * Once {@link #find(int)} has returned true the details of the match are available via the
+ * {@link MatchResult} methods.
+ */
+interface LineMatcher extends MatchResult
+{
+    /**
+     * prepare to search a new line of text
+     * @param text the text to search
+     */
+    public void reset(CharSequence text);
+
+    /**
+     * search for the next match starting at a given index
+     * @param from the index at which to start the search
+     * @return true if a match was found otherwise false
+     * @throws MatchBudgetExceededException if the matcher exceeds its step budget for the current line
+     */
+    public boolean find(int from);
+}
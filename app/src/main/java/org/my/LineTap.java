@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+
+/**
+ * A LineTap passes a copy of the lines written by a {@link TextLineProcessor} to an observer stage
+ * which is not part of the main chain of processors. The observer is a TextLineProcessor whose transform
+ * method is called for each line it is passed but whose transformed lines are discarded. A {@link Binder}
+ * is the typical observer: it only establishes bindings so there is no need for every line to pass
+ * through it and a slow Binder no longer holds up the stages downstream of it.<p/>
+ *
+ * A tap is obtained by calling {@link TextLineProcessor#getTap(ConsumerPolicy, int)} and is passed as the
+ * source when creating the observer. The lines are passed through a {@link LineChannel} from which the
+ * observer takes every line available as a batch. The tap's {@link ConsumerPolicy} determines what happens
+ * when the observer falls behind and the channel fills up.
+ */
+public class LineTap implements Source
+{
+    private final TextLineProcessor observed;
+    private final ConsumerPolicy policy;
+    private final LineChannel channel;
+    private final LineOutput output;
+    private long offered;
+    private long dropped;
+    private boolean closed;
+
+    LineTap(TextLineProcessor observed, ConsumerPolicy policy, int capacity)
+    {
+        if (policy == ConsumerPolicy.SPILL) {
+            throw new IllegalArgumentException("a tap cannot spill");
+        }
+        this.observed = observed;
+        this.policy = policy;
+        this.channel = new LineChannel(capacity);
+        this.output = (LineOutput)channel.getWriter();
+        this.offered = 0;
+        this.dropped = 0;
+        this.closed = false;
+    }
+
+    /**
+     * connect the observer
+     * @param sink the observer which must be a TextLineProcessor
+     * @throws IOException if the sink is not a TextLineProcessor or the observed processor already has a tap
+     */
+    public void feed(Sink sink) throws IOException
+    {
+        if (!(sink instanceof TextLineProcessor)) {
+            throw new IOException("a tap can only feed a text line processor");
+        }
+        observed.setTap(this);
+        sink.setInput(channel.getReader());
+        ((TextLineProcessor)sink).setObserver();
+    }
+
+    /**
+     * pass a line to the observer or drop it according to the policy. if the observer has stopped
+     * reading the tap is closed rather than failing the processor being observed
+     * @param text the line text
+     * @param terminator the line terminator
+     */
+    void offer(CharSequence text, LineTerminator terminator)
+    {
+        if (closed) {
+            return;
+        }
+        long sequence = offered++;
+        if (policy != ConsumerPolicy.BLOCK) {
+            int capacity = channel.getCapacity();
+            int backlog = channel.getBacklog();
+            int stride;
+            if (backlog >= capacity) {
+                stride = 0;
+            } else if (policy == ConsumerPolicy.DROP || backlog < capacity / 2) {
+                stride = 1;
+            } else {
+                stride = (backlog < capacity * 3 / 4 ? 2 : 4);
+            }
+            if (stride == 0 || (sequence & (stride - 1)) != 0) {
+                dropped++;
+                return;
+            }
+        }
+        try {
+            output.writeLine(text, terminator);
+        } catch (IOException ioe) {
+            closed = true;
+        }
+    }
+
+    /**
+     * signal end of input to the observer
+     */
+    void close()
+    {
+        closed = true;
+        try {
+            channel.getWriter().close();
+        } catch (IOException ioe) {
+            // the observer may already have closed its input
+        }
+    }
+
+    /**
+     * @return the number of lines which have been dropped rather than passed to the observer. only
+     * meaningful once the processor being observed has finished
+     */
+    public long getDroppedCount()
+    {
+        return dropped;
+    }
+}
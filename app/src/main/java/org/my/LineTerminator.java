@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * identifies how a line of text was terminated
+ */
+public enum LineTerminator
+{
+    /**
+     * the line was the last one in the stream and had no terminator
+     */
+    NONE(""),
+    /**
+     * the line was terminated by LF
+     */
+    LF("\n"),
+    /**
+     * the line was terminated by CR/LF
+     */
+    CRLF("\r\n");
+
+    private String text;
+
+    private LineTerminator(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * @return the chars used to terminate the line
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * write the chars used to terminate the line
+     * @param output the stream to write to
+     * @throws IOException
+     */
+    public void write(Writer output) throws IOException
+    {
+        if (this == LF) {
+            output.write('\n');
+        } else if (this == CRLF) {
+            output.write(text);
+        }
+    }
+}
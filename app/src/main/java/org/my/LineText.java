@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+/**
+ * A LineText is a reusable, growable buffer holding the text of a line. It implements CharSequence
+ * so it can be handed on without creating a String. A String is only created if toString is called.
+ */
+public class LineText implements CharSequence
+{
+    private char[] chars;
+    private int length;
+
+    public LineText(int capacity)
+    {
+        chars = new char[capacity];
+        length = 0;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " length " + length);
+        }
+        return chars[index];
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + " end " + end + " length " + length);
+        }
+        return new String(chars, start, end - start);
+    }
+
+    public String toString()
+    {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @return the array holding the text. only the first {@link #length()} chars are valid
+     */
+    public char[] getChars()
+    {
+        return chars;
+    }
+
+    /**
+     * discard the current text so the buffer can be reused
+     */
+    public void clear()
+    {
+        length = 0;
+    }
+
+    /**
+     * truncate the text
+     * @param length the new length which must not exceed the current length
+     */
+    public void setLength(int length)
+    {
+        this.length = length;
+    }
+
+    public void append(char c)
+    {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+    }
+
+    public void append(char[] cbuf, int off, int len)
+    {
+        ensureCapacity(length + len);
+        System.arraycopy(cbuf, off, chars, length, len);
+        length += len;
+    }
+
+    public void append(CharSequence text, int start, int end)
+    {
+        int len = end - start;
+        ensureCapacity(length + len);
+        if (text instanceof String) {
+            ((String)text).getChars(start, end, chars, length);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder)text).getChars(start, end, chars, length);
+        } else if (text instanceof LineText) {
+            System.arraycopy(((LineText)text).chars, start, chars, length, len);
+        } else {
+            for (int i = start; i < end; i++) {
+                chars[length + i - start] = text.charAt(i);
+            }
+        }
+        length += len;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > chars.length) {
+            char[] newChars = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, length);
+            chars = newChars;
+        }
+    }
+}
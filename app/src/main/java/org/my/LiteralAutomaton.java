@@ -0,0 +1,280 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+/**
+ * A LiteralAutomaton is an Aho-Corasick automaton which searches text for occurrences of any one of a set
+ * of literal Strings in a single pass. The literals are identified by their index in the array supplied
+ * when the automaton is created.<p/>
+ *
+ * A search returns the leftmost occurrence of any of the literals. Where several literals occur at the
+ * same leftmost position the one with the lowest index is returned.<p/>
+ *
+ * The automaton stores the result of the most recent search so an instance should only be used by one
+ * thread at a time.
+ */
+class LiteralAutomaton
+{
+    /**
+     * the length of each literal
+     */
+    private int[] lengths;
+    private int maxLength;
+    /**
+     * the sorted transition labels of each node
+     */
+    private char[][] labels;
+    /**
+     * the target node of each transition, indexed in step with labels
+     */
+    private int[][] targets;
+    private int[] childCounts;
+    /**
+     * the failure link of each node, the node for the longest proper suffix of the node's text
+     * which is also a prefix of some literal
+     */
+    private int[] failures;
+    /**
+     * the indices of all literals which end at each node, including those inherited via failure links
+     */
+    private int[][] outputs;
+    private int nodeCount;
+
+    private int matchStart;
+    private int matchEnd;
+    private int matchIndex;
+
+    /**
+     * create an automaton for a set of literals
+     * @param literals the literals to search for, none of which may be empty
+     */
+    public LiteralAutomaton(String[] literals)
+    {
+        lengths = new int[literals.length];
+        maxLength = 0;
+        labels = new char[16][];
+        targets = new int[16][];
+        childCounts = new int[16];
+        outputs = new int[16][];
+        nodeCount = 1;
+        labels[0] = new char[2];
+        targets[0] = new int[2];
+        outputs[0] = new int[0];
+
+        // build the trie of literals
+        for (int i = 0; i < literals.length; i++) {
+            String literal = literals[i];
+            if (literal.length() == 0) {
+                throw new IllegalArgumentException("empty literal at index " + i);
+            }
+            lengths[i] = literal.length();
+            if (lengths[i] > maxLength) {
+                maxLength = lengths[i];
+            }
+            int node = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                char c = literal.charAt(j);
+                int next = child(node, c);
+                if (next < 0) {
+                    next = addChild(node, c);
+                }
+                node = next;
+            }
+            outputs[node] = append(outputs[node], i);
+        }
+
+        // compute failure links breadth first, merging the outputs of each failure node so that every
+        // literal which ends at a given position is reported by the node reached at that position
+        failures = new int[nodeCount];
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < childCounts[0]; i++) {
+            queue[tail++] = targets[0][i];
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < childCounts[node]; i++) {
+                char c = labels[node][i];
+                int next = targets[node][i];
+                int failure = failures[node];
+                int target = child(failure, c);
+                while (target < 0 && failure != 0) {
+                    failure = failures[failure];
+                    target = child(failure, c);
+                }
+                failures[next] = (target < 0 ? 0 : target);
+                int[] inherited = outputs[failures[next]];
+                for (int j = 0; j < inherited.length; j++) {
+                    outputs[next] = append(outputs[next], inherited[j]);
+                }
+                queue[tail++] = next;
+            }
+        }
+    }
+
+    /**
+     * search for the leftmost occurrence of any literal
+     * @param text the text to search
+     * @param from the index at which to start the search
+     * @return true if an occurrence was found in which case its position and literal index are available
+     * from {@link #start()}, {@link #end()} and {@link #index()}
+     */
+    public boolean find(CharSequence text, int from)
+    {
+        int length = text.length();
+        int bestStart = Integer.MAX_VALUE;
+        int bestIndex = Integer.MAX_VALUE;
+        int node = 0;
+        for (int pos = from; pos < length; pos++) {
+            // once a match has been found no occurrence ending beyond this point can start before it
+            if (pos - maxLength >= bestStart) {
+                break;
+            }
+            node = step(node, text.charAt(pos));
+            int[] found = outputs[node];
+            for (int i = 0; i < found.length; i++) {
+                int index = found[i];
+                int start = pos + 1 - lengths[index];
+                if (start < bestStart || (start == bestStart && index < bestIndex)) {
+                    bestStart = start;
+                    bestIndex = index;
+                }
+            }
+        }
+        if (bestStart == Integer.MAX_VALUE) {
+            return false;
+        }
+        matchStart = bestStart;
+        matchEnd = bestStart + lengths[bestIndex];
+        matchIndex = bestIndex;
+        return true;
+    }
+
+    /**
+     * @return the start index of the most recent successful match
+     */
+    public int start()
+    {
+        return matchStart;
+    }
+
+    /**
+     * @return the end index of the most recent successful match
+     */
+    public int end()
+    {
+        return matchEnd;
+    }
+
+    /**
+     * @return the index of the literal found by the most recent successful match
+     */
+    public int index()
+    {
+        return matchIndex;
+    }
+
+    private int step(int node, char c)
+    {
+        int next = child(node, c);
+        while (next < 0 && node != 0) {
+            node = failures[node];
+            next = child(node, c);
+        }
+        return (next < 0 ? 0 : next);
+    }
+
+    private int child(int node, char c)
+    {
+        char[] nodeLabels = labels[node];
+        int low = 0;
+        int high = childCounts[node] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = nodeLabels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return targets[node][mid];
+            }
+        }
+        return -1;
+    }
+
+    private int addChild(int node, char c)
+    {
+        if (nodeCount == labels.length) {
+            int size = labels.length * 2;
+            char[][] newLabels = new char[size][];
+            System.arraycopy(labels, 0, newLabels, 0, nodeCount);
+            labels = newLabels;
+            int[][] newTargets = new int[size][];
+            System.arraycopy(targets, 0, newTargets, 0, nodeCount);
+            targets = newTargets;
+            int[] newCounts = new int[size];
+            System.arraycopy(childCounts, 0, newCounts, 0, nodeCount);
+            childCounts = newCounts;
+            int[][] newOutputs = new int[size][];
+            System.arraycopy(outputs, 0, newOutputs, 0, nodeCount);
+            outputs = newOutputs;
+        }
+        int next = nodeCount++;
+        labels[next] = new char[2];
+        targets[next] = new int[2];
+        outputs[next] = new int[0];
+
+        // insert the new transition keeping the labels sorted
+        int count = childCounts[node];
+        if (count == labels[node].length) {
+            char[] newLabels = new char[count * 2];
+            System.arraycopy(labels[node], 0, newLabels, 0, count);
+            labels[node] = newLabels;
+            int[] newTargets = new int[count * 2];
+            System.arraycopy(targets[node], 0, newTargets, 0, count);
+            targets[node] = newTargets;
+        }
+        int pos = count;
+        while (pos > 0 && labels[node][pos - 1] > c) {
+            labels[node][pos] = labels[node][pos - 1];
+            targets[node][pos] = targets[node][pos - 1];
+            pos--;
+        }
+        labels[node][pos] = c;
+        targets[node][pos] = next;
+        childCounts[node] = count + 1;
+        return next;
+    }
+
+    private static int[] append(int[] values, int value)
+    {
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, values.length);
+        result[values.length] = value;
+        return result;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.regex.Pattern;
+
+/**
+ * A LiteralSearcher locates occurrences of a fixed String in a CharSequence using the Boyer-Moore-Horspool
+ * algorithm. It is used by the regular expression stages to skip lines which cannot match their
+ * pattern without running the regular expression engine.<p/>
+ *
+ * Method {@link #forPattern(Pattern)} analyses a pattern to find the longest run of literal text which
+ * must appear in every match. A line which does not contain that text cannot match the pattern. Method
+ * {@link #literalText(String)} identifies patterns which are nothing but literal text. Occurrences of
+ * such a pattern can be found using a searcher alone.
+ */
+class LiteralSearcher
+{
+    private String literal;
+    private int length;
+    /**
+     * the Horspool shift for each char, indexed by the low 8 bits of the char. chars which share a bucket
+     * share the smallest shift of any of them
+     */
+    private int[] shifts;
+
+    /**
+     * create a searcher for a literal
+     * @param literal the text to search for which must not be empty
+     */
+    public LiteralSearcher(String literal)
+    {
+        if (literal.length() == 0) {
+            throw new IllegalArgumentException("empty literal");
+        }
+        this.literal = literal;
+        this.length = literal.length();
+        this.shifts = new int[256];
+        for (int i = 0; i < 256; i++) {
+            shifts[i] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            shifts[literal.charAt(i) & 0xff] = length - 1 - i;
+        }
+    }
+
+    /**
+     * @return the text searched for
+     */
+    public String getLiteral()
+    {
+        return literal;
+    }
+
+    /**
+     * @return the length of the text searched for
+     */
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * search for the literal
+     * @param text the text to search
+     * @param from the index at which to start the search
+     * @return the index of the first occurrence at or after from or -1 if there is no such occurrence
+     */
+    public int indexIn(CharSequence text, int from)
+    {
+        int last = length - 1;
+        int max = text.length() - length;
+        char lastChar = literal.charAt(last);
+        int pos = from;
+        while (pos <= max) {
+            char c = text.charAt(pos + last);
+            if (c == lastChar) {
+                int i = last - 1;
+                while (i >= 0 && text.charAt(pos + i) == literal.charAt(i)) {
+                    i--;
+                }
+                if (i < 0) {
+                    return pos;
+                }
+            }
+            pos += shifts[c & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * @return the text of a pattern which contains no regular expression syntax or which is entirely quoted,
+     * or null if the pattern must be matched as a regular expression
+     */
+    public static String literalText(String pattern)
+    {
+        int length = pattern.length();
+        if (length > 4 && pattern.startsWith("\\Q") && pattern.endsWith("\\E") && pattern.indexOf("\\E") == length - 2) {
+            return pattern.substring(2, length - 2);
+        }
+        if (length == 0) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (META_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * create a searcher for the longest literal text which appears in every match of a pattern
+     * @param pattern the pattern to analyse
+     * @return a searcher or null if no required literal text could be identified
+     */
+    public static LiteralSearcher forPattern(Pattern pattern)
+    {
+        if ((pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return null;
+        }
+        String regex = pattern.pattern();
+        if ((pattern.flags() & Pattern.LITERAL) != 0) {
+            return (regex.length() == 0 ? null : new LiteralSearcher(regex));
+        }
+        String literal = literalText(regex);
+        if (literal == null) {
+            literal = requiredLiteral(regex);
+        }
+        return (literal == null ? null : new LiteralSearcher(literal));
+    }
+
+    /**
+     * scan the top level of a regular expression for runs of literal chars which are not subject to
+     * an optional quantifier. groups, classes, escapes other than quoted punctuation and other
+     * constructs are treated as breaks between runs. an expression with a top level alternation has
+     * no required literal
+     * @return the longest required run or null if there is none
+     */
+    private static String requiredLiteral(String regex)
+    {
+        StringBuilder run = new StringBuilder();
+        String best = null;
+        int length = regex.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = regex.charAt(i++);
+            if (c == '|') {
+                return null;
+            } else if (c == '?' || c == '*' || c == '{') {
+                // the preceding char is optional or may be repeated zero times
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                best = longer(best, run);
+                run.setLength(0);
+                if (c == '{') {
+                    int end = regex.indexOf('}', i);
+                    i = (end < 0 ? length : end + 1);
+                }
+            } else if (c == '+') {
+                // the preceding char is required but may be followed by copies of itself
+                best = longer(best, run);
+                run.setLength(0);
+            } else if (c == '\\' && i < length) {
+                char next = regex.charAt(i++);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", i);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    run.append(regex, i, end);
+                    i = Math.min(end + 2, length);
+                } else if (!Character.isLetterOrDigit(next)) {
+                    run.append(next);
+                } else {
+                    best = longer(best, run);
+                    run.setLength(0);
+                }
+            } else if (c == '(') {
+                if (i + 1 < length && regex.charAt(i) == '?' && FLAG_CHARS.indexOf(regex.charAt(i + 1)) >= 0) {
+                    int end = i + 1;
+                    while (end < length && FLAG_CHARS.indexOf(regex.charAt(end)) >= 0) {
+                        end++;
+                    }
+                    if (end < length && regex.charAt(end) == ')') {
+                        // inline flags may change how the following literal text matches
+                        return null;
+                    }
+                }
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipGroup(regex, i);
+            } else if (c == '[') {
+                best = longer(best, run);
+                run.setLength(0);
+                i = skipClass(regex, i);
+            } else if (c == '.' || c == '^' || c == '$') {
+                best = longer(best, run);
+                run.setLength(0);
+            } else {
+                run.append(c);
+            }
+        }
+        best = longer(best, run);
+        return best;
+    }
+
+    private static String longer(String best, StringBuilder run)
+    {
+        if (run.length() > 0 && (best == null || run.length() > best.length())) {
+            return run.toString();
+        }
+        return best;
+    }
+
+    /**
+     * @return the index following the close bracket of a group whose open bracket precedes start
+     */
+    private static int skipGroup(String regex, int start)
+    {
+        int length = regex.length();
+        int depth = 1;
+        int i = start;
+        while (i < length && depth > 0) {
+            char c = regex.charAt(i++);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return the index following the close bracket of a char class whose open bracket precedes start
+     */
+    private static int skipClass(String regex, int start)
+    {
+        int length = regex.length();
+        int i = start;
+        // a close bracket at the start of a class is a literal
+        if (i < length && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < length && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < length) {
+            char c = regex.charAt(i++);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+    private static final String FLAG_CHARS = "imsxuUd-";
+}
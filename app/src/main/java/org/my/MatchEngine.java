@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.my;
+
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression engines which may be used by the pattern matching stages.<p/>
+ *
+ * JDK uses {@link java.util.regex.Matcher}. It supports the full pattern syntax but it backtracks
+ * so a pathological line can take time exponential in its length.<p/>
+ *
+ * NFA uses an {@link NfaLineMatcher} which simulates all alternatives in parallel. It takes time
+ * proportional to the product of the line length and the pattern size. It supports a subset of the
+ * pattern syntax which excludes back references, lookaround, possessive and atomic constructs,
+ * inline flags and Unicode property classes.<p/>
+ *
+ * Either engine may be given a step budget which limits the work performed on a single line. The NFA
+ * engine counts each thread step. The JDK engine counts each char read from the line, which grows with
+ * the amount of backtracking.
+ */
+public enum MatchEngine
+{
+    JDK {
+        LineMatcher createMatcher(Pattern pattern, long budget)
+        {
+            return new JdkLineMatcher(pattern, budget);
+        }
+    },
+    NFA {
+        LineMatcher createMatcher(Pattern pattern, long budget)
+        {
+            return new NfaLineMatcher(NfaProgram.compile(pattern), budget);
+        }
+    };
+
+    /**
+     * the budget value which imposes no limit
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * create a matcher for a pattern
+     * @param pattern the pattern to match
+     * @param budget the maximum number of steps to spend on one line or {@link #UNLIMITED}
+     * @return the matcher
+     * @throws IllegalArgumentException if this engine does not support the pattern
+     */
+    abstract LineMatcher createMatcher(Pattern pattern, long budget);
+}
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A MultiPatternReplacer is a LineProcessor which applies an ordered set of substitution rules to each
+ * line of text in a single scan. Each rule is a pattern and replacement pair with the same syntax as
+ * the arguments to a {@link PatternReplacer}.<p/>
+ *
+ * Each line is scanned from left to right. At each step the leftmost match of any rule is substituted
+ * and the scan resumes from the end of the match. Where several rules match at the same leftmost
+ * position the rule which appears first in the rule set wins. Note that this is not the same as chaining
+ * one PatternReplacer per rule since the text substituted by one rule is never rescanned by the
+ * other rules.<p/>
+ *
+ * Rules whose pattern contains no regular expression syntax, or which is entirely quoted using \Q...\E,
+ * are matched as literals using a {@link LiteralAutomaton}. The remaining rules are combined into a single
+ * alternation so that one regular expression search finds the leftmost match of any of them. Rules which
+ * employ back references or named groups cannot be renumbered to fit into the alternation so they are
+ * searched for separately.<p/>
+ *
+ * An empty match substitutes the replacement and then copies the following character before the scan
+ * resumes.
+ */
+
+class MultiPatternReplacer extends TextLineProcessor {
+    private ReplacementTemplate[] replacements;
+    private boolean[] isAdequate;
+    private RuleScanner[] scanners;
+
+    /**
+     * create a multi pattern replacer
+     * @param patterns the patterns which match text to be transformed, in order of priority
+     * @param replacements the replacement to use for each pattern
+     * @param source the source stream which provides the input text
+     * @throws IOException
+     */
+    public MultiPatternReplacer(String[] patterns, String[] replacements, Source source) throws IOException
+    {
+        super(source);
+        // each replacer has its own scanners so replicas share nothing
+        setReplicable(true);
+        if (patterns.length != replacements.length) {
+            throw new IllegalArgumentException(patterns.length + " patterns supplied with " + replacements.length + " replacements");
+        }
+        this.replacements = new ReplacementTemplate[patterns.length];
+        this.isAdequate = new boolean[patterns.length];
+
+        List<String> literals = new ArrayList<String>();
+        List<Integer> literalRules = new ArrayList<Integer>();
+        StringBuilder alternation = new StringBuilder();
+        List<Integer> alternativeRules = new ArrayList<Integer>();
+        List<Integer> alternativeGroups = new ArrayList<Integer>();
+        int groupCount = 0;
+        List<RuleScanner> scannerList = new ArrayList<RuleScanner>();
+
+        for (int i = 0; i < patterns.length; i++) {
+            Pattern pattern = Pattern.compile(patterns[i]);
+            int patternGroups = pattern.matcher("").groupCount();
+            this.replacements[i] = new ReplacementTemplate(replacements[i], pattern);
+            // reject inadequate matches i.e. the replacement refers to groups the pattern does not define
+            this.isAdequate[i] = (patternGroups >= this.replacements[i].getMaxGroupIndex());
+            String literal = LiteralSearcher.literalText(patterns[i]);
+            if (literal != null) {
+                literals.add(literal);
+                literalRules.add(i);
+            } else if (isSeparate(patterns[i])) {
+                scannerList.add(new RegexScanner(pattern, new int[] {0}, new int[] {i}));
+            } else {
+                // wrap the pattern in a group so we can tell which alternative matched
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append('(').append(patterns[i]).append(')');
+                alternativeGroups.add(groupCount + 1);
+                alternativeRules.add(i);
+                groupCount += patternGroups + 1;
+            }
+        }
+        if (!literals.isEmpty()) {
+            scannerList.add(new LiteralScanner(new LiteralAutomaton(literals.toArray(new String[literals.size()])), toArray(literalRules)));
+        }
+        if (!alternativeRules.isEmpty()) {
+            scannerList.add(new RegexScanner(Pattern.compile(alternation.toString()), toArray(alternativeGroups), toArray(alternativeRules)));
+        }
+        scanners = scannerList.toArray(new RuleScanner[scannerList.size()]);
+    }
+
+    /**
+     * transforms any input text line which matches one or more of the rule patterns
+     * @param text the input text line
+     * @param builder the buffer to which the transformed line is appended
+     * @return true if the line matches any of the patterns and a transformed version has been appended to the
+     * builder otherwise false
+     */
+    public boolean transform(CharSequence text, StringBuilder builder)
+    {
+        int max = text.length();
+        for (int i = 0; i < scanners.length; i++) {
+            scanners[i].reset(text);
+            scanners[i].find(0);
+        }
+        int current = 0;
+        boolean isMatch = false;
+        while (current <= max) {
+            // pick the leftmost match, preferring the earliest rule
+            RuleScanner best = null;
+            for (int i = 0; i < scanners.length; i++) {
+                RuleScanner scanner = scanners[i];
+                if (scanner.start >= 0 &&
+                        (best == null || scanner.start < best.start || (scanner.start == best.start && scanner.rule < best.rule))) {
+                    best = scanner;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            int start = best.start;
+            int end = best.end;
+            builder.append(text, current, start);
+            if (isAdequate[best.rule]) {
+                best.appendReplacement(text, replacements[best.rule], builder);
+            }
+            isMatch = true;
+            current = end;
+            if (start == end) {
+                // step past an empty match so the scan makes progress
+                if (end < max) {
+                    builder.append(text.charAt(end));
+                }
+                current++;
+            }
+            // a match found by a previous search remains valid unless it starts before the new position
+            for (int i = 0; i < scanners.length; i++) {
+                RuleScanner scanner = scanners[i];
+                if (scanner.start >= 0 && scanner.start < current) {
+                    if (current <= max) {
+                        scanner.find(current);
+                    } else {
+                        scanner.start = -1;
+                    }
+                }
+            }
+        }
+        if (!isMatch) {
+            return false;
+        }
+        if (current < max) {
+            builder.append(text, current, max);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a pattern includes a back reference, a named group or quoted text and hence cannot
+     * be embedded in the combined alternation
+     */
+    static boolean isSeparate(String pattern)
+    {
+        int length = pattern.length();
+        for (int i = 0; i < length - 1; i++) {
+            char c = pattern.charAt(i);
+            char next = pattern.charAt(i + 1);
+            if (c == '\\') {
+                if ((next >= '1' && next <= '9') || next == 'k' || next == 'Q') {
+                    return true;
+                }
+                // skip the escaped char
+                i++;
+            } else if (c == '(' && next == '?' && i + 3 < length && pattern.charAt(i + 2) == '<') {
+                char kind = pattern.charAt(i + 3);
+                if (kind != '=' && kind != '!') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> values)
+    {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * searches a line for the leftmost match of a subset of the rules, recording the position and
+     * rule index of the most recent match or a start of -1 if there is no further match
+     */
+    private static abstract class RuleScanner
+    {
+        int start;
+        int end;
+        int rule;
+
+        abstract void reset(CharSequence text);
+
+        abstract void find(int from);
+
+        abstract void appendReplacement(CharSequence text, ReplacementTemplate replacement, StringBuilder builder);
+    }
+
+    /**
+     * scans for literal rules using an automaton
+     */
+    private static class LiteralScanner extends RuleScanner
+    {
+        private LiteralAutomaton automaton;
+        private int[] rules;
+        private CharSequence text;
+
+        LiteralScanner(LiteralAutomaton automaton, int[] rules)
+        {
+            this.automaton = automaton;
+            this.rules = rules;
+        }
+
+        void reset(CharSequence text)
+        {
+            this.text = text;
+        }
+
+        void find(int from)
+        {
+            if (automaton.find(text, from)) {
+                start = automaton.start();
+                end = automaton.end();
+                rule = rules[automaton.index()];
+            } else {
+                start = -1;
+            }
+        }
+
+        void appendReplacement(CharSequence text, ReplacementTemplate replacement, StringBuilder builder)
+        {
+            // literal rules have no groups so an adequate template never consults the matcher
+            replacement.appendTo(text, null, builder);
+        }
+    }
+
+    /**
+     * scans for regular expression rules using a pattern in which each rule is identified by the
+     * index of the group enclosing it
+     */
+    private static class RegexScanner extends RuleScanner
+    {
+        private Matcher matcher;
+        private int[] groups;
+        private int[] rules;
+        private int group;
+
+        RegexScanner(Pattern pattern, int[] groups, int[] rules)
+        {
+            this.matcher = pattern.matcher("");
+            this.groups = groups;
+            this.rules = rules;
+        }
+
+        void reset(CharSequence text)
+        {
+            matcher.reset(text);
+        }
+
+        void find(int from)
+        {
+            if (!matcher.find(from)) {
+                start = -1;
+                return;
+            }
+            start = matcher.start();
+            end = matcher.end();
+            // only the enclosing group of the alternative which matched participates in the match
+            for (int i = 0; i < groups.length; i++) {
+                if (matcher.start(groups[i]) >= 0) {
+                    group = groups[i];
+                    rule = rules[i];
+                    return;
+                }
+            }
+        }
+
+        void appendReplacement(CharSequence text, ReplacementTemplate replacement, StringBuilder builder)
+        {
+            replacement.appendTo(text, matcher, group, builder);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+/**
+ * An NfaLineMatcher is a {@link LineMatcher} which runs an {@link NfaProgram} using a Pike virtual machine.
+ * Rather than backtracking, the machine advances every viable thread through the program one input char at
+ * a time so the time spent on a line is bounded by the product of the line length and the program size.<p/>
+ *
+ * Threads are kept in priority order and a thread which reaches a program location already occupied by
+ * a higher priority thread is discarded. Once a thread matches, all lower priority threads are
+ * discarded. This yields the same leftmost match and group positions that a backtracking engine reports
+ * for the supported syntax.<p/>
+ *
+ * Each instruction a thread executes costs one step. If the steps spent on one line exceed the budget
+ * the search throws a {@link MatchBudgetExceededException}.
+ */
+class NfaLineMatcher implements LineMatcher
+{
+    private NfaProgram program;
+    private long budget;
+    private long remaining;
+    private CharSequence text;
+    private int slotCount;
+    private ThreadList current;
+    private ThreadList next;
+    /**
+     * the capture slots of the thread being advanced
+     */
+    private int[] scratch;
+    /**
+     * the capture slots of the best match found so far
+     */
+    private int[] matched;
+    /**
+     * pending work for addThread: a program location to explore or, encoded as -(slot + 1), a capture
+     * slot to restore from the value stack
+     */
+    private int[] stack;
+    private int[] values;
+
+    public NfaLineMatcher(NfaProgram program, long budget)
+    {
+        this.program = program;
+        this.budget = budget;
+        this.slotCount = program.slotCount;
+        this.current = new ThreadList(program.size, slotCount);
+        this.next = new ThreadList(program.size, slotCount);
+        this.scratch = new int[slotCount];
+        this.matched = new int[slotCount];
+        // each location is explored at most once per list and each save pushes one restore
+        this.stack = new int[program.size * 2 + 1];
+        this.values = new int[program.size * 2 + 1];
+        this.matched[0] = -1;
+    }
+
+    public void reset(CharSequence text)
+    {
+        this.text = text;
+        this.remaining = budget;
+        this.matched[0] = -1;
+    }
+
+    public boolean find(int from)
+    {
+        int length = text.length();
+        boolean isMatch = false;
+        current.clear();
+        for (int pos = from; ; pos++) {
+            if (!isMatch) {
+                // start a new lowest priority thread at this position
+                for (int i = 0; i < slotCount; i++) {
+                    scratch[i] = -1;
+                }
+                addThread(current, 0, pos);
+            }
+            if (current.size == 0) {
+                break;
+            }
+            next.clear();
+            char c = (pos < length ? text.charAt(pos) : 0);
+            for (int i = 0; i < current.size; i++) {
+                int pc = current.pcs[i];
+                charge();
+                int op = program.ops[pc];
+                if (op == NfaProgram.MATCH) {
+                    System.arraycopy(current.slots[i], 0, matched, 0, slotCount);
+                    isMatch = true;
+                    // lower priority threads can no longer win
+                    break;
+                }
+                if (pos >= length) {
+                    continue;
+                }
+                boolean isStep;
+                if (op == NfaProgram.CHAR) {
+                    isStep = (c == program.args[pc]);
+                } else if (op == NfaProgram.CLASS) {
+                    isStep = program.classes[pc].contains(c);
+                } else {
+                    isStep = false;
+                }
+                if (isStep) {
+                    System.arraycopy(current.slots[i], 0, scratch, 0, slotCount);
+                    addThread(next, pc + 1, pos + 1);
+                }
+            }
+            ThreadList swap = current;
+            current = next;
+            next = swap;
+            if (pos >= length) {
+                break;
+            }
+        }
+        if (!isMatch) {
+            matched[0] = -1;
+        }
+        return isMatch;
+    }
+
+    /**
+     * add a thread whose capture slots are in scratch to a list, following all the branches, saves and
+     * assertions reachable from its program location. scratch is restored before returning
+     */
+    private void addThread(ThreadList list, int start, int pos)
+    {
+        int top = 0;
+        stack[top++] = start;
+        while (top > 0) {
+            int item = stack[--top];
+            if (item < 0) {
+                scratch[-item - 1] = values[top];
+                continue;
+            }
+            int pc = item;
+            if (list.contains(pc)) {
+                continue;
+            }
+            charge();
+            int index = list.add(pc);
+            switch (program.ops[pc]) {
+                case NfaProgram.JUMP:
+                    stack[top++] = program.args[pc];
+                    break;
+                case NfaProgram.SPLIT:
+                    // push the less preferred branch first so the preferred one is explored first
+                    stack[top++] = program.args2[pc];
+                    stack[top++] = program.args[pc];
+                    break;
+                case NfaProgram.SAVE: {
+                    int slot = program.args[pc];
+                    values[top] = scratch[slot];
+                    stack[top++] = -(slot + 1);
+                    scratch[slot] = pos;
+                    stack[top++] = pc + 1;
+                    break;
+                }
+                case NfaProgram.CHECK:
+                    // an iteration which consumed nothing exits the loop
+                    stack[top++] = (pos > scratch[program.args[pc]] ? pc + 1 : program.args2[pc]);
+                    break;
+                case NfaProgram.ASSERT:
+                    if (holds(program.args[pc], pos)) {
+                        stack[top++] = pc + 1;
+                    }
+                    break;
+                default:
+                    // a thread which consumes input or matches records its capture slots
+                    System.arraycopy(scratch, 0, list.slots[index], 0, slotCount);
+                    break;
+            }
+        }
+    }
+
+    private boolean holds(int kind, int pos)
+    {
+        int length = text.length();
+        switch (kind) {
+            case NfaProgram.BEGIN_LINE:
+                return pos == 0;
+            case NfaProgram.END_TEXT:
+                return pos == length;
+            case NfaProgram.END_LINE: {
+                // end of input or just before a final line terminator
+                if (pos == length) {
+                    return true;
+                }
+                if (pos == length - 2) {
+                    return text.charAt(pos) == '\r' && text.charAt(pos + 1) == '\n';
+                }
+                if (pos == length - 1) {
+                    char c = text.charAt(pos);
+                    if (c == '\n') {
+                        return pos == 0 || text.charAt(pos - 1) != '\r';
+                    }
+                    return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+                }
+                return false;
+            }
+            default: {
+                boolean before = (pos > 0 && isWord(text.charAt(pos - 1)));
+                boolean after = (pos < length && isWord(text.charAt(pos)));
+                return (before != after) == (kind == NfaProgram.WORD_BOUNDARY);
+            }
+        }
+    }
+
+    private static boolean isWord(char c)
+    {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private void charge()
+    {
+        if (--remaining < 0) {
+            throw new MatchBudgetExceededException(budget);
+        }
+    }
+
+    public int start()
+    {
+        return start(0);
+    }
+
+    public int start(int group)
+    {
+        checkMatch(group);
+        return matched[group * 2];
+    }
+
+    public int end()
+    {
+        return end(0);
+    }
+
+    public int end(int group)
+    {
+        checkMatch(group);
+        return matched[group * 2 + 1];
+    }
+
+    public String group()
+    {
+        return group(0);
+    }
+
+    public String group(int group)
+    {
+        int start = start(group);
+        return (start < 0 ? null : text.subSequence(start, matched[group * 2 + 1]).toString());
+    }
+
+    public int groupCount()
+    {
+        return program.groupCount;
+    }
+
+    private void checkMatch(int group)
+    {
+        if (matched[0] < 0) {
+            throw new IllegalStateException("No match available");
+        }
+        if (group < 0 || group > program.groupCount) {
+            throw new IndexOutOfBoundsException("No group " + group);
+        }
+    }
+
+    /**
+     * an ordered set of threads, each identified by its program location, held as a sparse set so
+     * that it can be cleared in constant time
+     */
+    private static class ThreadList
+    {
+        int[] pcs;
+        int[] sparse;
+        int[][] slots;
+        int size;
+
+        ThreadList(int programSize, int slotCount)
+        {
+            pcs = new int[programSize];
+            sparse = new int[programSize];
+            slots = new int[programSize][slotCount];
+            size = 0;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        boolean contains(int pc)
+        {
+            int index = sparse[pc];
+            return index < size && pcs[index] == pc;
+        }
+
+        int add(int pc)
+        {
+            sparse[pc] = size;
+            pcs[size] = pc;
+            return size++;
+        }
+    }
+}
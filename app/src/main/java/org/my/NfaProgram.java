@@ -0,0 +1,822 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.my;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An NfaProgram is a regular expression compiled into instructions for the Pike virtual machine run
+ * by an {@link NfaLineMatcher}. Instructions either consume one char of input, test a zero width
+ * assertion, record the current position in a capture slot, branch or report a match. A split
+ * instruction tries its first target in preference to its second so that the machine finds the same
+ * match as a backtracking engine would.<p/>
+ *
+ * Only a subset of the pattern syntax accepted by {@link Pattern} is supported: literals, quoted text,
+ * char classes without intersection or nesting, the predefined classes \d \D \s \S \w and \W, '.',
+ * the anchors ^ $ \A \z \Z \b and \B, capturing, named and non-capturing groups, alternation and
+ * greedy or reluctant quantifiers. Patterns are matched char by char so a supplementary character counts
+ * as two chars. Compiling any other construct throws an IllegalArgumentException.
+ */
+class NfaProgram
+{
+    static final int CHAR = 0;
+    static final int CLASS = 1;
+    static final int SPLIT = 2;
+    static final int JUMP = 3;
+    static final int SAVE = 4;
+    static final int ASSERT = 5;
+    static final int CHECK = 6;
+    static final int MATCH = 7;
+
+    static final int BEGIN_LINE = 0;
+    static final int END_LINE = 1;
+    static final int END_TEXT = 2;
+    static final int WORD_BOUNDARY = 3;
+    static final int NOT_WORD_BOUNDARY = 4;
+
+    /**
+     * the largest program we are prepared to generate when expanding counted repetitions
+     */
+    private static final int MAX_SIZE = 10000;
+
+    int[] ops;
+    int[] args;
+    int[] args2;
+    CharRanges[] classes;
+    int size;
+    int groupCount;
+    /**
+     * the number of capture slots including those used to record where loop iterations start
+     */
+    int slotCount;
+
+    private NfaProgram()
+    {
+        ops = new int[64];
+        args = new int[64];
+        args2 = new int[64];
+        classes = new CharRanges[64];
+        size = 0;
+    }
+
+    /**
+     * compile a pattern
+     * @param pattern the pattern to compile
+     * @return the program
+     * @throws IllegalArgumentException if the pattern employs flags or syntax the program cannot represent
+     */
+    public static NfaProgram compile(Pattern pattern)
+    {
+        if (pattern.flags() != 0) {
+            throw new IllegalArgumentException("NFA engine does not support pattern flags");
+        }
+        Parser parser = new Parser(pattern.pattern());
+        Node root = parser.parse();
+        NfaProgram program = new NfaProgram();
+        program.groupCount = parser.groupCount;
+        program.slotCount = (parser.groupCount + 1) * 2;
+        // the whole match is recorded in slots 0 and 1
+        program.emit(SAVE, 0, 0);
+        root.compile(program);
+        program.emit(SAVE, 1, 0);
+        program.emit(MATCH, 0, 0);
+        return program;
+    }
+
+    int emit(int op, int arg, int arg2)
+    {
+        if (size == MAX_SIZE) {
+            throw new IllegalArgumentException("NFA engine cannot compile pattern of more than " + MAX_SIZE + " instructions");
+        }
+        if (size == ops.length) {
+            int length = size * 2;
+            int[] newOps = new int[length];
+            System.arraycopy(ops, 0, newOps, 0, size);
+            ops = newOps;
+            int[] newArgs = new int[length];
+            System.arraycopy(args, 0, newArgs, 0, size);
+            args = newArgs;
+            int[] newArgs2 = new int[length];
+            System.arraycopy(args2, 0, newArgs2, 0, size);
+            args2 = newArgs2;
+            CharRanges[] newClasses = new CharRanges[length];
+            System.arraycopy(classes, 0, newClasses, 0, size);
+            classes = newClasses;
+        }
+        ops[size] = op;
+        args[size] = arg;
+        args2[size] = arg2;
+        return size++;
+    }
+
+    int emitClass(CharRanges ranges)
+    {
+        int pc = emit(CLASS, 0, 0);
+        classes[pc] = ranges;
+        return pc;
+    }
+
+    /**
+     * a set of chars represented as sorted, disjoint, inclusive ranges
+     */
+    static class CharRanges
+    {
+        private int[] bounds;
+        private int count;
+
+        CharRanges()
+        {
+            bounds = new int[8];
+            count = 0;
+        }
+
+        void add(int low, int high)
+        {
+            if (count * 2 == bounds.length) {
+                int[] newBounds = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+                bounds = newBounds;
+            }
+            bounds[count * 2] = low;
+            bounds[count * 2 + 1] = high;
+            count++;
+        }
+
+        void addAll(CharRanges other)
+        {
+            for (int i = 0; i < other.count; i++) {
+                add(other.bounds[i * 2], other.bounds[i * 2 + 1]);
+            }
+        }
+
+        /**
+         * sort and merge the ranges
+         * @return this set
+         */
+        CharRanges normalize()
+        {
+            // insertion sort by low bound is fine for the handful of ranges in a class
+            for (int i = 1; i < count; i++) {
+                int low = bounds[i * 2];
+                int high = bounds[i * 2 + 1];
+                int j = i - 1;
+                while (j >= 0 && bounds[j * 2] > low) {
+                    bounds[(j + 1) * 2] = bounds[j * 2];
+                    bounds[(j + 1) * 2 + 1] = bounds[j * 2 + 1];
+                    j--;
+                }
+                bounds[(j + 1) * 2] = low;
+                bounds[(j + 1) * 2 + 1] = high;
+            }
+            int merged = 0;
+            for (int i = 0; i < count; i++) {
+                int low = bounds[i * 2];
+                int high = bounds[i * 2 + 1];
+                if (merged > 0 && low <= bounds[merged * 2 - 1] + 1) {
+                    if (high > bounds[merged * 2 - 1]) {
+                        bounds[merged * 2 - 1] = high;
+                    }
+                } else {
+                    bounds[merged * 2] = low;
+                    bounds[merged * 2 + 1] = high;
+                    merged++;
+                }
+            }
+            count = merged;
+            return this;
+        }
+
+        /**
+         * @return a new set containing every char not in this set
+         */
+        CharRanges complement()
+        {
+            normalize();
+            CharRanges result = new CharRanges();
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                if (bounds[i * 2] > next) {
+                    result.add(next, bounds[i * 2] - 1);
+                }
+                next = bounds[i * 2 + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result.add(next, Character.MAX_VALUE);
+            }
+            return result;
+        }
+
+        boolean contains(char c)
+        {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (c < bounds[mid * 2]) {
+                    high = mid - 1;
+                } else if (c > bounds[mid * 2 + 1]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static CharRanges of(String pairs)
+        {
+            CharRanges ranges = new CharRanges();
+            for (int i = 0; i < pairs.length(); i += 2) {
+                ranges.add(pairs.charAt(i), pairs.charAt(i + 1));
+            }
+            return ranges.normalize();
+        }
+    }
+
+    static final CharRanges DIGITS = CharRanges.of("09");
+    static final CharRanges WORD_CHARS = CharRanges.of("09AZ__az");
+    static final CharRanges SPACES = CharRanges.of("\t\r  ");
+    /**
+     * the chars which '.' does not match
+     */
+    static final CharRanges LINE_TERMINATORS = CharRanges.of("\n\n\r\r\u0085\u0085\u2028\u2029");
+
+    /**
+     * a node in the syntax tree of a parsed pattern
+     */
+    private static abstract class Node
+    {
+        abstract void compile(NfaProgram program);
+
+        /**
+         * @return true if the node can match the empty string
+         */
+        abstract boolean isNullable();
+    }
+
+    private static class CharNode extends Node
+    {
+        private char c;
+
+        CharNode(char c)
+        {
+            this.c = c;
+        }
+
+        void compile(NfaProgram program)
+        {
+            program.emit(CHAR, c, 0);
+        }
+
+        boolean isNullable()
+        {
+            return false;
+        }
+    }
+
+    private static class ClassNode extends Node
+    {
+        private CharRanges ranges;
+
+        ClassNode(CharRanges ranges)
+        {
+            this.ranges = ranges;
+        }
+
+        void compile(NfaProgram program)
+        {
+            program.emitClass(ranges);
+        }
+
+        boolean isNullable()
+        {
+            return false;
+        }
+    }
+
+    private static class AssertNode extends Node
+    {
+        private int kind;
+
+        AssertNode(int kind)
+        {
+            this.kind = kind;
+        }
+
+        void compile(NfaProgram program)
+        {
+            program.emit(ASSERT, kind, 0);
+        }
+
+        boolean isNullable()
+        {
+            return true;
+        }
+    }
+
+    private static class GroupNode extends Node
+    {
+        private int index;
+        private Node child;
+
+        GroupNode(int index, Node child)
+        {
+            this.index = index;
+            this.child = child;
+        }
+
+        void compile(NfaProgram program)
+        {
+            program.emit(SAVE, index * 2, 0);
+            child.compile(program);
+            program.emit(SAVE, index * 2 + 1, 0);
+        }
+
+        boolean isNullable()
+        {
+            return child.isNullable();
+        }
+    }
+
+    private static class ConcatNode extends Node
+    {
+        private List<Node> children;
+
+        ConcatNode(List<Node> children)
+        {
+            this.children = children;
+        }
+
+        void compile(NfaProgram program)
+        {
+            for (Node child : children) {
+                child.compile(program);
+            }
+        }
+
+        boolean isNullable()
+        {
+            for (Node child : children) {
+                if (!child.isNullable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class AlternationNode extends Node
+    {
+        private List<Node> children;
+
+        AlternationNode(List<Node> children)
+        {
+            this.children = children;
+        }
+
+        void compile(NfaProgram program)
+        {
+            // each alternative but the last is preceded by a split preferring it over the rest
+            int count = children.size();
+            int[] jumps = new int[count - 1];
+            for (int i = 0; i < count - 1; i++) {
+                int split = program.emit(SPLIT, 0, 0);
+                program.args[split] = program.size;
+                children.get(i).compile(program);
+                jumps[i] = program.emit(JUMP, 0, 0);
+                program.args2[split] = program.size;
+            }
+            children.get(count - 1).compile(program);
+            for (int i = 0; i < count - 1; i++) {
+                program.args[jumps[i]] = program.size;
+            }
+        }
+
+        boolean isNullable()
+        {
+            for (Node child : children) {
+                if (child.isNullable()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class RepeatNode extends Node
+    {
+        private Node child;
+        private int min;
+        private int max;
+        private boolean greedy;
+
+        RepeatNode(Node child, int min, int max, boolean greedy)
+        {
+            this.child = child;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        /**
+         * compile the repetition. when the child can match the empty string each iteration records
+         * where it started and an iteration which consumes nothing leaves the loop, as a backtracking
+         * engine does to avoid looping forever
+         */
+        void compile(NfaProgram program)
+        {
+            int mark = -1;
+            if (child.isNullable()) {
+                mark = program.slotCount++;
+            }
+            List<Integer> checks = new ArrayList<Integer>();
+            for (int i = 0; i < min; i++) {
+                iteration(program, mark, checks);
+            }
+            if (max < 0) {
+                // loop: split to the body or past the loop, body, jump back to the split
+                int split = program.emit(SPLIT, 0, 0);
+                iteration(program, mark, checks);
+                program.emit(JUMP, split, 0);
+                branch(program, split, split + 1, program.size);
+            } else {
+                // each optional copy is skipped along with all the copies which follow it
+                int optional = max - min;
+                int[] splits = new int[optional];
+                for (int i = 0; i < optional; i++) {
+                    splits[i] = program.emit(SPLIT, 0, 0);
+                    iteration(program, mark, checks);
+                }
+                for (int i = 0; i < optional; i++) {
+                    branch(program, splits[i], splits[i] + 1, program.size);
+                }
+            }
+            for (int check : checks) {
+                program.args2[check] = program.size;
+            }
+        }
+
+        boolean isNullable()
+        {
+            return min == 0 || child.isNullable();
+        }
+
+        private void iteration(NfaProgram program, int mark, List<Integer> checks)
+        {
+            if (mark >= 0) {
+                program.emit(SAVE, mark, 0);
+            }
+            int start = program.size;
+            child.compile(program);
+            if (mark >= 0) {
+                // a backtracking engine reports the captures of the final empty iteration of such a loop
+                // which the machine cannot reproduce since it only runs one thread per program location
+                for (int pc = start; pc < program.size; pc++) {
+                    if (program.ops[pc] == SAVE && program.args[pc] < (program.groupCount + 1) * 2) {
+                        throw new IllegalArgumentException("NFA engine does not support capturing groups in a repeated expression which can match the empty string");
+                    }
+                }
+                checks.add(program.emit(CHECK, mark, 0));
+            }
+        }
+
+        private void branch(NfaProgram program, int split, int body, int skip)
+        {
+            program.args[split] = (greedy ? body : skip);
+            program.args2[split] = (greedy ? skip : body);
+        }
+    }
+
+    /**
+     * a recursive descent parser for the supported pattern syntax. the pattern has already been accepted
+     * by {@link Pattern#compile(String)} so the parser only needs to detect unsupported constructs.
+     */
+    private static class Parser
+    {
+        private String regex;
+        private int pos;
+        int groupCount;
+
+        Parser(String regex)
+        {
+            this.regex = regex;
+            this.pos = 0;
+            this.groupCount = 0;
+        }
+
+        Node parse()
+        {
+            Node node = parseAlternation();
+            if (pos < regex.length()) {
+                throw unsupported();
+            }
+            return node;
+        }
+
+        private Node parseAlternation()
+        {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(parseConcatenation());
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcatenation());
+            }
+            return (alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives));
+        }
+
+        private Node parseConcatenation()
+        {
+            List<Node> nodes = new ArrayList<Node>();
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                if (c == '\\' && pos + 1 < regex.length() && regex.charAt(pos + 1) == 'Q') {
+                    // quoted text is a sequence of literal chars the last of which may be quantified
+                    int end = regex.indexOf("\\E", pos + 2);
+                    String quoted = regex.substring(pos + 2, (end < 0 ? regex.length() : end));
+                    pos = (end < 0 ? regex.length() : end + 2);
+                    if (quoted.length() == 0) {
+                        continue;
+                    }
+                    for (int i = 0; i < quoted.length() - 1; i++) {
+                        nodes.add(new CharNode(quoted.charAt(i)));
+                    }
+                    nodes.add(parseQuantifiers(new CharNode(quoted.charAt(quoted.length() - 1))));
+                    continue;
+                }
+                nodes.add(parseQuantifiers(parseAtom()));
+            }
+            return new ConcatNode(nodes);
+        }
+
+        private Node parseQuantifiers(Node atom)
+        {
+            Node node = atom;
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                int min;
+                int max;
+                if (c == '*') {
+                    min = 0;
+                    max = -1;
+                    pos++;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                    pos++;
+                } else if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    pos++;
+                } else if (c == '{') {
+                    int close = regex.indexOf('}', pos);
+                    String bounds = regex.substring(pos + 1, close);
+                    int comma = bounds.indexOf(',');
+                    if (comma < 0) {
+                        min = max = Integer.parseInt(bounds.trim());
+                    } else {
+                        min = Integer.parseInt(bounds.substring(0, comma).trim());
+                        String upper = bounds.substring(comma + 1).trim();
+                        max = (upper.length() == 0 ? -1 : Integer.parseInt(upper));
+                    }
+                    if (min > MAX_SIZE || max > MAX_SIZE) {
+                        throw unsupported();
+                    }
+                    pos = close + 1;
+                } else {
+                    break;
+                }
+                boolean greedy = true;
+                if (pos < regex.length()) {
+                    if (regex.charAt(pos) == '?') {
+                        greedy = false;
+                        pos++;
+                    } else if (regex.charAt(pos) == '+') {
+                        // possessive quantifiers require backtracking control
+                        throw unsupported();
+                    }
+                }
+                node = new RepeatNode(node, min, max, greedy);
+            }
+            return node;
+        }
+
+        private Node parseAtom()
+        {
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return new ClassNode(parseClass());
+                case '.':
+                    return new ClassNode(LINE_TERMINATORS.complement());
+                case '^':
+                    return new AssertNode(BEGIN_LINE);
+                case '$':
+                    return new AssertNode(END_LINE);
+                case '\\':
+                    return parseEscape();
+                default:
+                    return new CharNode(c);
+            }
+        }
+
+        private Node parseGroup()
+        {
+            int index = -1;
+            if (pos < regex.length() && regex.charAt(pos) == '?') {
+                if (regex.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (regex.startsWith("?<", pos) && pos + 2 < regex.length()
+                        && regex.charAt(pos + 2) != '=' && regex.charAt(pos + 2) != '!') {
+                    pos = regex.indexOf('>', pos) + 1;
+                    index = ++groupCount;
+                } else {
+                    // lookaround, atomic groups and inline flags
+                    throw unsupported();
+                }
+            } else {
+                index = ++groupCount;
+            }
+            Node child = parseAlternation();
+            if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                throw unsupported();
+            }
+            pos++;
+            return (index < 0 ? child : new GroupNode(index, child));
+        }
+
+        private Node parseEscape()
+        {
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case 'd':
+                    return new ClassNode(DIGITS);
+                case 'D':
+                    return new ClassNode(DIGITS.complement());
+                case 'w':
+                    return new ClassNode(WORD_CHARS);
+                case 'W':
+                    return new ClassNode(WORD_CHARS.complement());
+                case 's':
+                    return new ClassNode(SPACES);
+                case 'S':
+                    return new ClassNode(SPACES.complement());
+                case 'b':
+                    return new AssertNode(WORD_BOUNDARY);
+                case 'B':
+                    return new AssertNode(NOT_WORD_BOUNDARY);
+                case 'A':
+                    return new AssertNode(BEGIN_LINE);
+                case 'Z':
+                    return new AssertNode(END_LINE);
+                case 'z':
+                    return new AssertNode(END_TEXT);
+                default:
+                    return new CharNode(escapedChar(c));
+            }
+        }
+
+        /**
+         * @return the char denoted by an escape which stands for a single char
+         */
+        private char escapedChar(char c)
+        {
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001b';
+                case 'x':
+                    pos += 2;
+                    return (char)Integer.parseInt(regex.substring(pos - 2, pos), 16);
+                case 'u':
+                    pos += 4;
+                    return (char)Integer.parseInt(regex.substring(pos - 4, pos), 16);
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        // back references, unicode properties and the like
+                        throw unsupported();
+                    }
+                    return c;
+            }
+        }
+
+        private CharRanges parseClass()
+        {
+            CharRanges ranges = new CharRanges();
+            boolean negated = false;
+            if (pos < regex.length() && regex.charAt(pos) == '^') {
+                negated = true;
+                pos++;
+            }
+            boolean first = true;
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos++);
+                if (c == ']' && !first) {
+                    return (negated ? ranges.complement() : ranges.normalize());
+                }
+                first = false;
+                if (c == '[' || (c == '&' && pos < regex.length() && regex.charAt(pos) == '&')) {
+                    // nested classes and intersections
+                    throw unsupported();
+                }
+                int low;
+                if (c == '\\') {
+                    char e = regex.charAt(pos++);
+                    CharRanges predefined = predefinedClass(e);
+                    if (predefined != null) {
+                        ranges.addAll(predefined);
+                        continue;
+                    }
+                    if (e == 'Q') {
+                        throw unsupported();
+                    }
+                    low = escapedChar(e);
+                } else {
+                    low = c;
+                }
+                // a '-' followed by a char other than the closing bracket makes a range
+                if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char h = regex.charAt(pos++);
+                    int high;
+                    if (h == '\\') {
+                        char e = regex.charAt(pos++);
+                        if (predefinedClass(e) != null || e == 'Q') {
+                            throw unsupported();
+                        }
+                        high = escapedChar(e);
+                    } else if (h == '[') {
+                        throw unsupported();
+                    } else {
+                        high = h;
+                    }
+                    ranges.add(low, high);
+                } else {
+                    ranges.add(low, low);
+                }
+            }
+            throw unsupported();
+        }
+
+        private CharRanges predefinedClass(char c)
+        {
+            switch (c) {
+                case 'd':
+                    return DIGITS;
+                case 'D':
+                    return DIGITS.complement();
+                case 'w':
+                    return WORD_CHARS;
+                case 'W':
+                    return WORD_CHARS.complement();
+                case 's':
+                    return SPACES;
+                case 'S':
+                    return SPACES.complement();
+                default:
+                    return null;
+            }
+        }
+
+        private IllegalArgumentException unsupported()
+        {
+            return new IllegalArgumentException("NFA engine does not support pattern " + regex + " at index " + pos);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A ParallelLineProcessor spreads the work of one logical TextLineProcessor stage across several threads.
+ * The stage is supplied as a set of replicas, each created using the Source returned by
+ * {@link #getReplicaSource()}, for example<p/>
+ *
+ * <pre>
+ * ParallelLineProcessor parallel = new ParallelLineProcessor(source);
+ * for (int i = 0; i &lt; 4; i++) {
+ *     new PatternReplacer("the ([a-z]+)", "a \\1", parallel.getReplicaSource());
+ * }
+ * CharSequenceWriter writer = new CharSequenceWriter(parallel);
+ * </pre><p/>
+ *
+ * The processor reads its input lines into numbered batches and hands them to the replicas in rotation,
+ * each replica being driven by its own worker task which calls
+ * {@link TextLineProcessor#transform(CharSequence, StringBuilder)} on every line in the batch. The worker
+ * tasks are run on the executor supplied by {@link #setExecutor(Executor)}, which a {@link PipelineRunner}
+ * sets to its own executor, or on threads of their own if none has been supplied. The processor writes the
+ * transformed batches to its output in the order the lines were read. Lines rejected by a replica are
+ * written to this processor's reject output and this processor's output may be tapped in the usual way.
+ * The replicas must not be started. Once replicated a processor does nothing if it is run.<p/>
+ *
+ * Only a processor whose transform depends on nothing but the line and state which it can safely share
+ * with other replicas may be replicated, since only then is the output the same as a single replica would
+ * have produced. Each processor declares this using {@link TextLineProcessor#setReplicable(boolean)}. The
+ * pattern replacers and the binding replacer are replicable. A {@link Binder} or {@link BindingInserter} is
+ * not: even with deterministic numbering which replica meets a new value first, and so which identifier
+ * the value is given, depends upon scheduling. The processor fails when it is run if any replica is not
+ * replicable.
+ */
+public class ParallelLineProcessor extends TextLineProcessor
+{
+    /**
+     * the default number of lines in a batch
+     */
+    public final static int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * the result of transforming a line
+     */
+    private final static byte UNCHANGED = 0;
+    private final static byte REPLACED = 1;
+    private final static byte REJECTED = 2;
+
+    /**
+     * a batch passed to a worker to tell it to exit
+     */
+    private final static Batch END = new Batch(0);
+
+    private final int batchSize;
+    private final List<TextLineProcessor> replicas;
+    private Executor executor;
+
+    public ParallelLineProcessor(Source source) throws IOException
+    {
+        this(source, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * create a parallel processor
+     * @param source the source of the input
+     * @param batchSize the number of lines handed to a replica at once. larger batches reduce the cost of
+     * handing over lines but delay the output of a slow input
+     * @throws IOException
+     */
+    public ParallelLineProcessor(Source source, int batchSize) throws IOException
+    {
+        super(source);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("invalid batch size " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.replicas = new ArrayList<TextLineProcessor>();
+        this.executor = null;
+    }
+
+    /**
+     * supply the executor used to run the worker task for each replica. the executor must be able to run
+     * every worker at the same time as every stage of the pipeline
+     * @param executor the executor or null to run each worker on a thread of its own
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor used to run the worker tasks or null if each worker has a thread of its own
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * @return a Source which must be supplied when creating each replica. the replicas must be created
+     * before this processor is started
+     */
+    public Source getReplicaSource()
+    {
+        return new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                if (!(sink instanceof TextLineProcessor)) {
+                    throw new IOException("only a text line processor can be replicated");
+                }
+                if (getState() != Thread.State.NEW) {
+                    throw new IOException("parallel processor already started");
+                }
+                TextLineProcessor replica = (TextLineProcessor)sink;
+                // the replica is driven by a worker so it must not process lines itself
+                replica.setFused();
+                replicas.add(replica);
+            }
+        };
+    }
+
+    /**
+     * @return the number of replicas
+     */
+    public int getReplicaCount()
+    {
+        return replicas.size();
+    }
+
+    /**
+     * a parallel processor runs its own workers so it cannot be fused
+     */
+    boolean isFusable()
+    {
+        return false;
+    }
+
+    /**
+     * transform a line outside the pipeline using the first replica. since replicas transform lines
+     * identically this gives the same result as the pipeline. the replica is locked so the call does not
+     * overlap the batches transformed by its worker
+     * @throws IllegalStateException if there are no replicas
+     */
+    public boolean transform(CharSequence line, StringBuilder output)
+    {
+        if (replicas.isEmpty()) {
+            throw new IllegalStateException("no replicas");
+        }
+        TextLineProcessor replica = replicas.get(0);
+        synchronized (replica) {
+            return replica.transform(line, output);
+        }
+    }
+
+    /**
+     * reads its input in batches, has each batch transformed by the next replica in rotation and writes
+     * the transformed batches in order
+     * @throws IOException
+     * @throws IllegalStateException if there are no replicas or a replica cannot be replicated
+     */
+    public void processPipeline() throws IOException
+    {
+        String refusal = (replicas.isEmpty() ? "no replicas" : null);
+        for (TextLineProcessor replica : replicas) {
+            if (!replica.isReplicable()) {
+                refusal = "cannot replicate processor " + replica.getName();
+            }
+        }
+        if (refusal != null) {
+            // release the stage feeding us since no lines will be read
+            input.close();
+            throw new IllegalStateException(refusal);
+        }
+        LineInput lines = getLineInput();
+        LineOutput lineOutput = getLineOutput();
+        int count = replicas.size();
+        Worker[] workers = new Worker[count];
+        int started = 0;
+        // each worker may have one batch in hand and one waiting
+        int maxInFlight = 2 * count;
+        ArrayDeque<Batch> inFlight = new ArrayDeque<Batch>();
+        ArrayDeque<Batch> free = new ArrayDeque<Batch>();
+        long sequence = 0;
+        boolean completed = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                workers[i] = new Worker(replicas.get(i));
+                if (executor != null) {
+                    executor.execute(workers[i]);
+                } else {
+                    Thread thread = new Thread(workers[i], getName() + "-replica-" + i);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                started++;
+            }
+            while (true) {
+                Batch batch = (free.isEmpty() ? new Batch(batchSize) : free.removeFirst());
+                if (!batch.fill(lines)) {
+                    break;
+                }
+                workers[(int)(sequence++ % count)].queue.add(batch);
+                inFlight.addLast(batch);
+                // write whatever has completed in order, waiting if too many batches are outstanding
+                while (!inFlight.isEmpty() && (inFlight.size() >= maxInFlight || inFlight.peekFirst().isDone())) {
+                    Batch first = inFlight.removeFirst();
+                    write(first, lineOutput);
+                    free.addLast(first);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.removeFirst(), lineOutput);
+            }
+            completed = true;
+        } catch (RuntimeException re) {
+            // a replica failed or a worker could not be started. the caller only closes our input when an
+            // IOException is thrown so release the stage feeding us here
+            try {
+                input.close();
+            } catch (IOException ioe) {
+                // the original exception is more useful
+            }
+            throw re;
+        } finally {
+            for (int i = 0; i < started; i++) {
+                workers[i].queue.add(END);
+                if (!completed) {
+                    // we failed so abandon any batches in progress
+                    workers[i].cancel();
+                }
+            }
+            closeRejects();
+            closeTap();
+        }
+    }
+
+    /**
+     * wait for a batch to be transformed then write its lines
+     */
+    private void write(Batch batch, LineOutput lineOutput) throws IOException
+    {
+        batch.await();
+        for (int i = 0; i < batch.count; i++) {
+            CharSequence text = batch.lines[i];
+            LineTerminator terminator = batch.terminators[i];
+            if (batch.results[i] == REPLACED) {
+                text = batch.replacements[i];
+            } else if (batch.results[i] == REJECTED && reject(text, terminator)) {
+                continue;
+            }
+            lineOutput.writeLine(text, terminator);
+            tap(text, terminator);
+        }
+    }
+
+    /**
+     * a batch of lines together with the result of transforming each of them. a batch is reused once it
+     * has been written
+     */
+    private static class Batch
+    {
+        final LineText[] lines;
+        final LineTerminator[] terminators;
+        final byte[] results;
+        final LineText[] replacements;
+        int count;
+        private boolean done;
+        private RuntimeException failure;
+
+        Batch(int size)
+        {
+            lines = new LineText[size];
+            terminators = new LineTerminator[size];
+            results = new byte[size];
+            replacements = new LineText[size];
+            count = 0;
+        }
+
+        /**
+         * read up to a batch of lines
+         * @return false if there were no more lines
+         */
+        boolean fill(LineInput input) throws IOException
+        {
+            count = 0;
+            done = false;
+            while (count < lines.length && input.nextLine()) {
+                if (lines[count] == null) {
+                    lines[count] = new LineText(128);
+                }
+                CharSequence text = input.getText();
+                lines[count].clear();
+                lines[count].append(text, 0, text.length());
+                terminators[count] = input.getTerminator();
+                count++;
+            }
+            return count > 0;
+        }
+
+        /**
+         * transform every line in the batch using a replica
+         */
+        void transform(TextLineProcessor replica, StringBuilder builder)
+        {
+            RuntimeException exception = null;
+            try {
+                for (int i = 0; i < count; i++) {
+                    builder.setLength(0);
+                    try {
+                        if (replica.transform(lines[i], builder)) {
+                            if (replacements[i] == null) {
+                                replacements[i] = new LineText(builder.length());
+                            }
+                            replacements[i].clear();
+                            replacements[i].append(builder, 0, builder.length());
+                            results[i] = REPLACED;
+                        } else {
+                            results[i] = UNCHANGED;
+                        }
+                    } catch (LineRejectedException e) {
+                        results[i] = REJECTED;
+                    }
+                }
+            } catch (RuntimeException e) {
+                exception = e;
+            }
+            synchronized (this) {
+                failure = exception;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        synchronized boolean isDone()
+        {
+            return done;
+        }
+
+        /**
+         * wait until the batch has been transformed
+         * @throws RuntimeException if the replica failed
+         */
+        synchronized void await() throws IOException
+        {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * a task which transforms the batches handed to one replica
+     */
+    private static class Worker implements Runnable
+    {
+        final TextLineProcessor replica;
+        final BlockingQueue<Batch> queue;
+        /**
+         * the thread running the task or null if it is not running
+         */
+        private Thread thread;
+        private boolean cancelled;
+
+        Worker(TextLineProcessor replica)
+        {
+            this.replica = replica;
+            this.queue = new LinkedBlockingQueue<Batch>();
+            this.thread = null;
+            this.cancelled = false;
+        }
+
+        /**
+         * interrupt the task if it is running and make it exit without transforming any more batches if
+         * it is not
+         */
+        synchronized void cancel()
+        {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        public void run()
+        {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            StringBuilder builder = new StringBuilder();
+            try {
+                Batch batch = queue.take();
+                while (batch != END) {
+                    // lock the replica so that a direct call to transform cannot overlap this batch
+                    synchronized (replica) {
+                        batch.transform(replica, builder);
+                    }
+                    batch = queue.take();
+                }
+            } catch (InterruptedException ie) {
+                // the processor has failed
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // make sure a pooled thread does not carry an interrupt into its next task
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+}
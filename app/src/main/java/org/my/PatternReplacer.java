@@ -25,10 +25,7 @@
 package org.my;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 /**
  * A PatternReplacer is a LineProcessor which transforms each line of text using a regular expression pattern
@@ -48,13 +45,24 @@ import java.util.regex.Matcher;
  * Note that the replacement String literal requires the backslash character preceding to the matching
  * group index to be escaped with another backslash. A single backslash followed by a digit sequence
  * would be interpreted as a unicode character.<p/>
+ *
+ * Groups declared with a name as (?&lt;name&gt;...) may also be referred to as \k&lt;name&gt; and a
+ * literal backslash may be inserted as \\. The replacement is compiled once into a
+ * {@link ReplacementTemplate} when the replacer is created.<p/>
+ *
+ * The pattern is analysed when the replacer is created to find literal text which every match must
+ * contain. Lines which do not contain that text are passed through without running the regular
+ * expression engine. A pattern which contains no regular expression syntax is matched using a
+ * {@link LiteralSearcher} alone.<p/>
  */
 
 class PatternReplacer extends TextLineProcessor {
     private Pattern pattern;
-    private String replacement;
-    int[] groupIndices;
-    int maxGroupIndex;
+    private LineMatcher matcher;
+    private LiteralSearcher prefilter;
+    private boolean isLiteral;
+    private ReplacementTemplate replacement;
+    private boolean isAdequate;
 
     /**
      * create a pattern replacer
@@ -67,78 +75,90 @@ class PatternReplacer extends TextLineProcessor {
     public PatternReplacer(String pattern, String replacement, Source source) throws IOException
     {
         super(source);
+        // each replacer has its own matcher so replicas share nothing
+        setReplicable(true);
         this.pattern = Pattern.compile(pattern);
-        this.replacement = replacement;
-        computePatternGroups();
+        this.matcher = MatchEngine.JDK.createMatcher(this.pattern, MatchEngine.UNLIMITED);
+        this.prefilter = LiteralSearcher.forPattern(this.pattern);
+        this.isLiteral = (LiteralSearcher.literalText(pattern) != null);
+        this.replacement = new ReplacementTemplate(replacement, this.pattern);
+        // reject inadequate matches i.e. the replacement refers to groups the pattern does not define
+        this.isAdequate = (matcher.groupCount() >= this.replacement.getMaxGroupIndex());
+    }
+
+    /**
+     * select the regular expression engine used to match the pattern and the budget allowed for
+     * matching each line. a line which exceeds the budget is passed to the reject output
+     * @param engine the engine to use
+     * @param budget the maximum number of steps to spend matching one line or {@link MatchEngine#UNLIMITED}
+     * @throws IllegalArgumentException if the engine does not support the pattern
+     */
+    public void setMatchEngine(MatchEngine engine, long budget)
+    {
+        matcher = engine.createMatcher(pattern, budget);
     }
 
     /**
      * transforms any input text line which matches the pattern
      * @param text the input text line
-     * @return a transfortmed version of the line if it atches the pattern opterwise the original text line
+     * @param builder the buffer to which the transformed line is appended
+     * @return true if the line matches the pattern and a transformed version has been appended to the
+     * builder otherwise false
      */
-    public String transform(String text)
+    public boolean transform(CharSequence text, StringBuilder builder)
     {
-    	Matcher matcher = pattern.matcher(text);
-        StringBuilder builder = new StringBuilder();
+        if (isLiteral) {
+            return transformLiteral(text, builder);
+        }
+        if (prefilter != null && prefilter.indexIn(text, 0) < 0) {
+            return false;
+        }
+        matcher.reset(text);
         int current = 0;
         int max = text.length();
+        boolean isMatch = false;
 	    while (matcher.find(current)) {
             int start = matcher.start();
             int end = matcher.end();
-            for (int i = current; i < start ; i++) {
-                builder.append(text.charAt(i));
+            builder.append(text, current, start);
+            if (isAdequate) {
+                replacement.appendTo(text, matcher, builder);
             }
-            substitutePatternGroups(matcher, builder);
             current = end;
+            isMatch = true;
         }
-        for (int i = current; i < max ; i++) {
-            builder.append(text.charAt(i));
+        if (!isMatch) {
+            return false;
         }
-        return builder.toString();
+        builder.append(text, current, max);
+        return true;
     }
 
     /**
-     * called when a match is found to substitute matching groups into the replacement text line
-     * @param matcher
-     * @return
-     */
-    private void substitutePatternGroups(Matcher matcher, StringBuilder builder) {
-        // reject inadequate matches
-        if (matcher.groupCount() < maxGroupIndex) {
-             return;
-        }
-        String text = replacement;
-        for (int i : groupIndices) {
-            text = text.replaceAll("\\\\" + i, matcher.group(i));
-        }
-        builder.append(text);
-    }
-
-    /**
-     * parses the replacement to identifyhow many match groups need to be substituted and store
-     * their indices for later use
+     * transforms an input text line by substituting occurrences of a pattern which contains no
+     * regular expression syntax
+     * @param text the input text line
+     * @param builder the buffer to which the transformed line is appended
+     * @return true if the line contains the pattern text otherwise false
      */
-    private void  computePatternGroups()
+    private boolean transformLiteral(CharSequence text, StringBuilder builder)
     {
-        maxGroupIndex = 0;
-        List<Integer> groups = new ArrayList<Integer>();
-        Matcher groupMatcher = Pattern.compile("\\\\[1-9][0-9]*").matcher(replacement);
-        int start = 0;
-        while(groupMatcher.find(start)) {
-            String text = groupMatcher.group(0);
-            int index =  Integer.valueOf(text.substring(1));
-            if (!groups.contains(index)) {
-                if(index > maxGroupIndex) {
-                    maxGroupIndex = index;
-                }
-                groups.add(index);
-            }
-            start = groupMatcher.end();
+        int start = prefilter.indexIn(text, 0);
+        if (start < 0) {
+            return false;
         }
-        groupIndices = new int[groups.size()];
-        for (int i = 0;i < groups.size();i++) {
-            groupIndices[i] = groups.get(i);
+        int current = 0;
+        int length = prefilter.length();
+        while (start >= 0) {
+            builder.append(text, current, start);
+            if (isAdequate) {
+                // the pattern has no groups so an adequate template never consults the matcher
+                replacement.appendTo(text, null, builder);
+            }
+            current = start + length;
+            start = prefilter.indexIn(text, current);
         }
+        builder.append(text, current, text.length());
+        return true;
     }
 }
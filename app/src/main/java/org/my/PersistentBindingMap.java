@@ -0,0 +1,752 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A PersistentBindingMap is an {@link AbstractBindingMap} whose bindings survive from one run to the
+ * next, so identifiers stay stable across runs. Its bindings are kept in a directory holding two files
+ * <ul>
+ * <li>a snapshot file containing a compacted set of bindings laid out as hash tables which can be used
+ * in place. at startup the snapshot is memory mapped rather than read so loading it costs the same
+ * whatever its size</li>
+ * <li>a journal file to which each new binding is appended as it is established. at startup the journal
+ * is replayed on top of the snapshot</li>
+ * </ul>
+ * Once the journal holds a given number of bindings a new snapshot containing every binding is written
+ * and the journal is emptied. The new snapshot is written to a temporary file and renamed into place so
+ * a crash leaves either the old or the new snapshot. Replaying a journal whose bindings have already been
+ * included in the snapshot is harmless. A journal record which was only partly written when a run ended is
+ * discarded.<p/>
+ *
+ * Binders and binding inserters created on a persistent map resume numbering their identifiers after
+ * the highest index bound with their prefix.<p/>
+ *
+ * Lookups do not lock. Insertions are serialized so that they are journalled in the order they are
+ * made. Journal writes are buffered: call {@link #flush()} to push them to the file and {@link #close()}
+ * once the map is no longer needed. A failure to write the journal or an automatic snapshot is reported
+ * by the next call to flush, close or snapshot and no further bindings are journalled once one has
+ * occurred. A snapshot file may not exceed 2GB.
+ */
+public class PersistentBindingMap extends AbstractBindingMap
+{
+    /**
+     * the name of the snapshot file in the map's directory
+     */
+    public static final String SNAPSHOT_FILE = "bindings.snapshot";
+    /**
+     * the name of the journal file in the map's directory
+     */
+    public static final String JOURNAL_FILE = "bindings.journal";
+    /**
+     * the number of journalled bindings which triggers a new snapshot when no other limit is supplied
+     */
+    public static final int DEFAULT_JOURNAL_LIMIT = 1 << 20;
+
+    private static final int MAGIC = 0x424e4453;
+    private static final int VERSION = 1;
+    /**
+     * the snapshot header is magic, version, binding count, table size and char count
+     */
+    private static final int HEADER_INTS = 5;
+    /**
+     * each snapshot entry is identifier offset, identifier length, value offset and value length with
+     * offsets counted in chars from the start of the char area
+     */
+    private static final int ENTRY_INTS = 4;
+
+    private final File directory;
+    private final int journalLimit;
+    private volatile State state;
+    private DataOutputStream journal;
+    private int journalCount;
+    private IOException journalFailure;
+    private boolean closed;
+
+    /**
+     * open a persistent bindings map, creating the directory if needed
+     * @param directory the directory holding the snapshot and journal files
+     * @throws IOException if the directory cannot be created or its files cannot be read
+     */
+    public PersistentBindingMap(File directory) throws IOException
+    {
+        this(directory, DEFAULT_JOURNAL_LIMIT);
+    }
+
+    /**
+     * open a persistent bindings map, creating the directory if needed
+     * @param directory the directory holding the snapshot and journal files
+     * @param journalLimit the number of journalled bindings which triggers a new snapshot
+     * @throws IOException if the directory cannot be created or its files cannot be read
+     */
+    public PersistentBindingMap(File directory, int journalLimit) throws IOException
+    {
+        if (journalLimit < 1) {
+            throw new IllegalArgumentException("journal limit must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create binding map directory " + directory);
+        }
+        this.directory = directory;
+        this.journalLimit = journalLimit;
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        Snapshot snapshot = (snapshotFile.exists() ? Snapshot.map(snapshotFile) : Snapshot.EMPTY);
+        state = new State(snapshot, new BindingMap());
+        journalCount = replay(new File(directory, JOURNAL_FILE));
+        journal = openJournal(true);
+        if (journalCount >= journalLimit) {
+            snapshot();
+        }
+    }
+
+    public synchronized String putIfAbsent(String identifier, String value)
+    {
+        if (closed) {
+            throw new IllegalStateException("binding map is closed");
+        }
+        String existing = bind(identifier, value);
+        if (existing == null) {
+            record(identifier, value);
+        }
+        return existing;
+    }
+
+    public boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        State current = state;
+        return current.snapshot.appendIdentifier(text, start, end, builder)
+                || current.recent.appendIdentifier(text, start, end, builder);
+    }
+
+    public boolean appendValue(CharSequence text, int start, int end, StringBuilder builder)
+    {
+        State current = state;
+        return current.snapshot.appendValue(text, start, end, builder)
+                || current.recent.appendValue(text, start, end, builder);
+    }
+
+    public String get(String identifier)
+    {
+        State current = state;
+        String value = current.snapshot.getValue(identifier);
+        return (value != null ? value : current.recent.get(identifier));
+    }
+
+    public Iterator<String> iterator()
+    {
+        final State current = state;
+        final Iterator<String> recent = current.recent.iterator();
+        return new Iterator<String>() {
+            private int next = 0;
+
+            public boolean hasNext()
+            {
+                return next < current.snapshot.count || recent.hasNext();
+            }
+
+            public String next()
+            {
+                if (next < current.snapshot.count) {
+                    return current.snapshot.getIdentifier(next++);
+                }
+                return recent.next();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public int nextIndex(String prefix)
+    {
+        State current = state;
+        int highest = 0;
+        for (int i = 0; i < current.snapshot.count; i++) {
+            highest = Math.max(highest, current.snapshot.indexOf(i, prefix));
+        }
+        Iterator<String> recent = current.recent.iterator();
+        while (recent.hasNext()) {
+            highest = Math.max(highest, indexOf(recent.next(), prefix));
+        }
+        return highest + 1;
+    }
+
+    /**
+     * push any buffered journal records to the journal file
+     * @throws IOException if the journal could not be written
+     */
+    public synchronized void flush() throws IOException
+    {
+        checkJournal();
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    /**
+     * flush and close the journal. the map may still be used for lookups but no new bindings may
+     * be established
+     * @throws IOException if the journal could not be written
+     */
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        DataOutputStream stream = journal;
+        journal = null;
+        try {
+            checkJournal();
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * write a new snapshot containing every binding and empty the journal
+     * @throws IOException if the snapshot could not be written
+     */
+    public synchronized void snapshot() throws IOException
+    {
+        if (closed) {
+            throw new IllegalStateException("binding map is closed");
+        }
+        checkJournal();
+        journal.flush();
+        State current = state;
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        File temporary = new File(directory, SNAPSHOT_FILE + ".tmp");
+        Snapshot.write(temporary, current.snapshot, current.recent);
+        if (!temporary.renameTo(snapshotFile)) {
+            throw new IOException("cannot rename " + temporary + " to " + snapshotFile);
+        }
+        state = new State(Snapshot.map(snapshotFile), new BindingMap());
+        // the snapshot now holds every journalled binding
+        journal.close();
+        journal = openJournal(false);
+        journalCount = 0;
+    }
+
+    /**
+     * establish a binding with the same semantics as {@link AbstractBindingMap#putIfAbsent(String, String)},
+     * called while holding the map's lock
+     */
+    private String bind(String identifier, String value)
+    {
+        State current = state;
+        String existing = current.snapshot.findIdentifier(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (current.snapshot.getValue(identifier) != null) {
+            throw new IllegalArgumentException("identifier " + identifier + " is already bound");
+        }
+        return current.recent.putIfAbsent(identifier, value);
+    }
+
+    private void record(String identifier, String value)
+    {
+        if (journal == null || journalFailure != null) {
+            return;
+        }
+        try {
+            writeString(journal, identifier);
+            writeString(journal, value);
+        } catch (IOException ioe) {
+            journalFailure = ioe;
+            return;
+        }
+        if (++journalCount >= journalLimit) {
+            try {
+                snapshot();
+            } catch (IOException ioe) {
+                // the caller is establishing a binding and cannot be handed an IOException so record the
+                // failure and report it from the next call to flush, close or snapshot
+                journalFailure = ioe;
+            }
+        }
+    }
+
+    private void checkJournal() throws IOException
+    {
+        if (journalFailure != null) {
+            IOException failure = new IOException("journal or snapshot write failed");
+            failure.initCause(journalFailure);
+            throw failure;
+        }
+    }
+
+    private DataOutputStream openJournal(boolean append) throws IOException
+    {
+        File journalFile = new File(directory, JOURNAL_FILE);
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, append)));
+    }
+
+    /**
+     * reload the bindings recorded in a journal, truncating the journal after the last complete record
+     * @return the number of records in the journal
+     */
+    private int replay(File journalFile) throws IOException
+    {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        int records = 0;
+        long complete = 0;
+        long length = journalFile.length();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            while (true) {
+                String identifier = readString(input, length - complete);
+                if (identifier == null) {
+                    break;
+                }
+                String value = readString(input, length - complete - 4 - 2L * identifier.length());
+                if (value == null) {
+                    break;
+                }
+                bind(identifier, value);
+                records++;
+                complete += 8 + 2L * (identifier.length() + value.length());
+            }
+        } finally {
+            input.close();
+        }
+        if (complete < length) {
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(complete);
+            } finally {
+                file.close();
+            }
+        }
+        return records;
+    }
+
+    private static void writeString(DataOutputStream output, String text) throws IOException
+    {
+        output.writeInt(text.length());
+        output.writeChars(text);
+    }
+
+    /**
+     * @param available the number of bytes left in the journal file at the start of the string. a torn or
+     * corrupt length which claims more chars than remain is treated as the end of the journal rather than
+     * being used to size the char array
+     * @return the next string in a journal or null if the journal ends before a complete string
+     */
+    private static String readString(DataInputStream input, long available) throws IOException
+    {
+        try {
+            int length = input.readInt();
+            if (length < 0 || 4 + 2L * length > available) {
+                return null;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = input.readChar();
+            }
+            return new String(chars);
+        } catch (EOFException eof) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the decimal index of identifier if it consists of prefix followed by a number without
+     * leading zeros otherwise 0
+     */
+    private static int indexOf(CharSequence identifier, String prefix)
+    {
+        int length = identifier.length();
+        int start = prefix.length();
+        if (length <= start || length - start > 9 || identifier.charAt(start) == '0') {
+            return 0;
+        }
+        for (int i = 0; i < start; i++) {
+            if (identifier.charAt(i) != prefix.charAt(i)) {
+                return 0;
+            }
+        }
+        int index = 0;
+        for (int i = start; i < length; i++) {
+            char c = identifier.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * part of the snapshot file format
+     * @return a hash of a char sequence which is spread over the low bits used to index the tables
+     */
+    private static int hash(CharSequence text, int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * the bindings visible to lookups. a snapshot and the bindings established since it was written are
+     * replaced together so that a lookup always sees every binding
+     */
+    private static class State
+    {
+        final Snapshot snapshot;
+        final BindingMap recent;
+
+        State(Snapshot snapshot, BindingMap recent)
+        {
+            this.snapshot = snapshot;
+            this.recent = recent;
+        }
+    }
+
+    /**
+     * a read only view of a snapshot file. the file holds the header, a table of binding numbers
+     * keyed by value hash, a table of binding numbers keyed by identifier hash, the entries and then the
+     * chars of all the identifiers and values. table slots hold a binding number plus one so that zero
+     * marks an empty slot
+     */
+    private static class Snapshot
+    {
+        static final Snapshot EMPTY = new Snapshot(emptyBuffer());
+
+        final int count;
+        private final int mask;
+        private final int valueTable;
+        private final int identifierTable;
+        private final int entries;
+        private final IntBuffer ints;
+        private final CharBuffer chars;
+
+        private Snapshot(ByteBuffer buffer)
+        {
+            ints = buffer.asIntBuffer();
+            count = ints.get(2);
+            int tableSize = ints.get(3);
+            mask = tableSize - 1;
+            valueTable = HEADER_INTS;
+            identifierTable = valueTable + tableSize;
+            entries = identifierTable + tableSize;
+            buffer.position(4 * (entries + ENTRY_INTS * count));
+            chars = buffer.slice().asCharBuffer();
+        }
+
+        private static ByteBuffer emptyBuffer()
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * (HEADER_INTS + 2));
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(1).putInt(0);
+            buffer.clear();
+            return buffer;
+        }
+
+        static Snapshot map(File file) throws IOException
+        {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE || size < 4 * HEADER_INTS) {
+                    throw new IOException("invalid binding snapshot " + file);
+                }
+                // the mapping remains valid once the file is closed
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                IntBuffer header = buffer.asIntBuffer();
+                long count = header.get(2);
+                long tableSize = header.get(3);
+                long charCount = header.get(4);
+                if (header.get(0) != MAGIC || header.get(1) != VERSION || count < 0 || tableSize < 1
+                        || (tableSize & (tableSize - 1)) != 0 || tableSize <= count
+                        || size != 4 * (HEADER_INTS + 2 * tableSize + ENTRY_INTS * count) + 2 * charCount) {
+                    throw new IOException("invalid binding snapshot " + file);
+                }
+                return new Snapshot(buffer);
+            } finally {
+                input.close();
+            }
+        }
+
+        /**
+         * write a snapshot containing the bindings of an existing snapshot and of a map of later bindings
+         */
+        static void write(File file, Snapshot snapshot, BindingMap recent) throws IOException
+        {
+            // the recent map only changes while the caller holds the lock so its order is stable
+            int recentCount = 0;
+            for (Iterator<String> iterator = recent.iterator(); iterator.hasNext(); iterator.next()) {
+                recentCount++;
+            }
+            String[] identifiers = new String[recentCount];
+            String[] values = new String[recentCount];
+            Iterator<String> iterator = recent.iterator();
+            for (int i = 0; i < recentCount; i++) {
+                identifiers[i] = iterator.next();
+                values[i] = recent.get(identifiers[i]);
+            }
+            int count = snapshot.count + recentCount;
+            if (count > (Integer.MAX_VALUE >> 2)) {
+                throw new IOException("too many bindings for a snapshot");
+            }
+            int tableSize = 2;
+            while (tableSize < 2 * count) {
+                tableSize <<= 1;
+            }
+            int mask = tableSize - 1;
+            int[] valueTable = new int[tableSize];
+            int[] identifierTable = new int[tableSize];
+            long charCount = 0;
+            for (int i = 0; i < snapshot.count; i++) {
+                int entry = snapshot.entries + ENTRY_INTS * i;
+                int identifierOffset = snapshot.ints.get(entry);
+                int identifierLength = snapshot.ints.get(entry + 1);
+                int valueOffset = snapshot.ints.get(entry + 2);
+                int valueLength = snapshot.ints.get(entry + 3);
+                insert(identifierTable, mask, hash(snapshot.chars, identifierOffset, identifierOffset + identifierLength), i);
+                insert(valueTable, mask, hash(snapshot.chars, valueOffset, valueOffset + valueLength), i);
+                charCount += identifierLength + valueLength;
+            }
+            for (int i = 0; i < recentCount; i++) {
+                insert(identifierTable, mask, hash(identifiers[i], 0, identifiers[i].length()), snapshot.count + i);
+                insert(valueTable, mask, hash(values[i], 0, values[i].length()), snapshot.count + i);
+                charCount += identifiers[i].length() + values[i].length();
+            }
+            if (4L * (HEADER_INTS + 2L * tableSize + ENTRY_INTS * (long) count) + 2 * charCount > Integer.MAX_VALUE) {
+                throw new IOException("too many bindings for a snapshot");
+            }
+
+            FileOutputStream stream = new FileOutputStream(file);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(count);
+                output.writeInt(tableSize);
+                output.writeInt((int) charCount);
+                for (int i = 0; i < tableSize; i++) {
+                    output.writeInt(valueTable[i]);
+                }
+                for (int i = 0; i < tableSize; i++) {
+                    output.writeInt(identifierTable[i]);
+                }
+                int offset = 0;
+                for (int i = 0; i < snapshot.count; i++) {
+                    int entry = snapshot.entries + ENTRY_INTS * i;
+                    int identifierLength = snapshot.ints.get(entry + 1);
+                    int valueLength = snapshot.ints.get(entry + 3);
+                    offset = writeEntry(output, offset, identifierLength, valueLength);
+                }
+                for (int i = 0; i < recentCount; i++) {
+                    offset = writeEntry(output, offset, identifiers[i].length(), values[i].length());
+                }
+                for (int i = 0; i < snapshot.count; i++) {
+                    int entry = snapshot.entries + ENTRY_INTS * i;
+                    writeChars(output, snapshot.chars, snapshot.ints.get(entry), snapshot.ints.get(entry + 1));
+                    writeChars(output, snapshot.chars, snapshot.ints.get(entry + 2), snapshot.ints.get(entry + 3));
+                }
+                for (int i = 0; i < recentCount; i++) {
+                    output.writeChars(identifiers[i]);
+                    output.writeChars(values[i]);
+                }
+                output.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+        }
+
+        private static void insert(int[] table, int mask, int hash, int binding)
+        {
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = binding + 1;
+        }
+
+        private static int writeEntry(DataOutputStream output, int offset, int identifierLength, int valueLength)
+                throws IOException
+        {
+            output.writeInt(offset);
+            output.writeInt(identifierLength);
+            output.writeInt(offset + identifierLength);
+            output.writeInt(valueLength);
+            return offset + identifierLength + valueLength;
+        }
+
+        private static void writeChars(DataOutputStream output, CharBuffer chars, int offset, int length)
+                throws IOException
+        {
+            for (int i = offset; i < offset + length; i++) {
+                output.writeChar(chars.get(i));
+            }
+        }
+
+        /**
+         * @return the number of the binding whose value is the given text or -1
+         */
+        private int findValue(CharSequence text, int start, int end)
+        {
+            int slot = hash(text, start, end) & mask;
+            int entry;
+            while ((entry = ints.get(valueTable + slot)) != 0) {
+                int binding = entry - 1;
+                if (matches(entries + ENTRY_INTS * binding + 2, text, start, end)) {
+                    return binding;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the number of the binding whose identifier is the given text or -1
+         */
+        private int findBinding(CharSequence text, int start, int end)
+        {
+            int slot = hash(text, start, end) & mask;
+            int entry;
+            while ((entry = ints.get(identifierTable + slot)) != 0) {
+                int binding = entry - 1;
+                if (matches(entries + ENTRY_INTS * binding, text, start, end)) {
+                    return binding;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * @return true if the chars located by the offset and length at field match the text
+         */
+        private boolean matches(int field, CharSequence text, int start, int end)
+        {
+            int offset = ints.get(field);
+            int length = ints.get(field + 1);
+            if (length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars.get(offset + i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean appendIdentifier(CharSequence text, int start, int end, StringBuilder builder)
+        {
+            int binding = findValue(text, start, end);
+            if (binding < 0) {
+                return false;
+            }
+            if (builder != null) {
+                int entry = entries + ENTRY_INTS * binding;
+                int offset = ints.get(entry);
+                builder.append(chars, offset, offset + ints.get(entry + 1));
+            }
+            return true;
+        }
+
+        boolean appendValue(CharSequence text, int start, int end, StringBuilder builder)
+        {
+            int binding = findBinding(text, start, end);
+            if (binding < 0) {
+                return false;
+            }
+            if (builder != null) {
+                int entry = entries + ENTRY_INTS * binding + 2;
+                int offset = ints.get(entry);
+                builder.append(chars, offset, offset + ints.get(entry + 1));
+            }
+            return true;
+        }
+
+        String findIdentifier(String value)
+        {
+            int binding = findValue(value, 0, value.length());
+            return (binding < 0 ? null : getIdentifier(binding));
+        }
+
+        String getValue(String identifier)
+        {
+            int binding = findBinding(identifier, 0, identifier.length());
+            return (binding < 0 ? null : string(entries + ENTRY_INTS * binding + 2));
+        }
+
+        String getIdentifier(int binding)
+        {
+            return string(entries + ENTRY_INTS * binding);
+        }
+
+        /**
+         * @return the index of a binding's identifier if it consists of prefix followed by a decimal
+         * index otherwise 0
+         */
+        int indexOf(int binding, String prefix)
+        {
+            int entry = entries + ENTRY_INTS * binding;
+            int offset = ints.get(entry);
+            return PersistentBindingMap.indexOf(chars.subSequence(offset, offset + ints.get(entry + 1)), prefix);
+        }
+
+        private String string(int field)
+        {
+            int offset = ints.get(field);
+            char[] text = new char[ints.get(field + 1)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = chars.get(offset + i);
+            }
+            return new String(text);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A Channel implemented using a JDK PipedWriter and PipedReader pair
+ */
+public class PipedChannel implements Channel
+{
+    private PipedWriter writer;
+    private PipedReader reader;
+
+    public PipedChannel() throws IOException
+    {
+        writer = new PipedWriter();
+        reader = new PipedReader(writer);
+    }
+
+    public Reader getReader()
+    {
+        return reader;
+    }
+
+    public Writer getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * factory which creates piped channels
+     */
+    public static class Factory implements ChannelFactory
+    {
+        public Channel createChannel() throws IOException
+        {
+            return new PipedChannel();
+        }
+    }
+}
@@ -25,6 +25,8 @@
 package org.my;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A simple application which streams an input file, performs several pattern matching replacements
@@ -34,6 +36,7 @@ public class PipelineAppMain
 {
     public static void main(String[] args)
     {
+        ExecutorService executor = PipelineRunner.newDefaultExecutor();
         try {
             // pipeline source reads file foo.txt
             FileReader reader = new FileReader("foo.txt");
@@ -51,31 +54,23 @@ public class PipelineAppMain
             pipeline[4] = new PatternReplacer("(.*)[Dd]inn(.*)", "\\1Smith\\2", pipeline[3]);
 
             // the tees feed file wwriters sowe can sanity check the intermediate results
-            FileWriter writer = new FileWriter("bar1.txt", pipeline[1]);
-            FileWriter writer2 = new FileWriter("bar2.txt", pipeline[3]);
+            ChannelFileWriter writer = new ChannelFileWriter("bar1.txt", pipeline[1]);
+            ChannelFileWriter writer2 = new ChannelFileWriter("bar2.txt", pipeline[3]);
 
             // pipeline stage 4 writes the final output to filebar.txt
-            FileWriter writer3 = new FileWriter("bar.txt", pipeline[4]);
-            // start all the stream processors
-            reader.start();
-            for(int i = 0; i <pipeline.length ;i++) {
-                pipeline[i].start();
-            }
-            writer.start();
-            writer2.start();
-            writer3.start();
-            //now wait for all the processors to finish
-            reader.join();
-            for(int i = 0; i <pipeline.length; i++) {
-                pipeline[i].join();
-            }
-            writer.join();
-            writer2.join();
-            writer3.join();
+            ChannelFileWriter writer3 = new ChannelFileWriter("bar.txt", pipeline[4]);
+            // run all the stream processors and wait for them to finish
+            PipelineRunner runner = new PipelineRunner(executor);
+            runner.run(reader, pipeline[0], pipeline[1], pipeline[2], pipeline[3], pipeline[4],
+                    writer, writer2, writer3).get();
+        } catch (ExecutionException ee) {
+            ee.printStackTrace();
         } catch (InterruptedException ie) {
             ie.printStackTrace();
         } catch (IOException ioe) {
             ioe.printStackTrace();
+        } finally {
+            executor.shutdown();
         }
     }
 }
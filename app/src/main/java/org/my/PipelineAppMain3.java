@@ -25,10 +25,8 @@
 package org.my;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A simple application which streams an input String, performs several binding replacements
@@ -38,6 +36,7 @@ public class PipelineAppMain3
 {
     public static void main(String[] args)
     {
+        ExecutorService executor = PipelineRunner.newDefaultExecutor();
         try {
             BindingMap  bindings = new BindingMap();
             bindings.putIfAbsent("Z1", "dog");
@@ -63,20 +62,9 @@ public class PipelineAppMain3
             // the output is also a char sequence writer
             CharSequenceWriter writer2 = new CharSequenceWriter(pipeline[2]);
 
-            // start all the stream processors
-            reader.start();
-            for(int i = 0; i <pipeline.length ;i++) {
-                pipeline[i].start();
-            }
-            writer.start();
-            writer2.start();
-            //now wait for all the processors to finish
-            reader.join();
-            for(int i = 0; i <pipeline.length; i++) {
-                pipeline[i].join();
-            }
-            writer.join();
-            writer2.join();
+            // run all the stream processors and wait for them to finish
+            PipelineRunner runner = new PipelineRunner(executor);
+            runner.run(reader, pipeline[0], pipeline[1], pipeline[2], writer, writer2).get();
 
             System.out.println("input:");
             System.out.println(input);
@@ -85,24 +73,21 @@ public class PipelineAppMain3
             System.out.println("output:");
             System.out.println(writer2.toString());
 
-            Iterator<String> iterator = bindings.iterator();
-            List<String> list = new ArrayList<String>();
-            while (iterator.hasNext()) {
-                String id = iterator.next();
-                list.add(id);
-            }
-            Collections.sort(list);
-            iterator = list.iterator();
+            // a frozen map lists its identifiers in sorted order
+            FrozenBindingMap frozen = bindings.freeze();
             System.out.println("bindings[");
-            while (iterator.hasNext()) {
-                String id = iterator.next();
-                System.out.println(id + " -> " + bindings.get(id));
+            for (int i = 0; i < frozen.size(); i++) {
+                System.out.println(frozen.getIdentifier(i) + " -> " + frozen.getValue(i));
             }
             System.out.println("]");
+        } catch (ExecutionException ee) {
+            ee.printStackTrace();
         } catch (InterruptedException ie) {
             ie.printStackTrace();
         } catch (IOException ioe) {
             ioe.printStackTrace();
+        } finally {
+            executor.shutdown();
         }
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A PipelineFuture is the completion handle returned by {@link PipelineRunner#run(Runnable...)}. It completes
+ * once every stage of the pipeline has finished running. If any stage throws an exception the remaining
+ * running stages are interrupted, which causes them to close their channels and exit, and the exception
+ * is reported by {@link #get()}.<p/>
+ *
+ * Cancelling the future completes it at once. The stages of a pipeline depend upon each other so a stage
+ * cannot simply be skipped: a running neighbour would wait forever for its channel to be read or
+ * written. {@link #cancel(boolean) cancel(true)} interrupts the running stages and any stage which starts
+ * afterwards is run with its thread already interrupted, so that it closes its channels at its first
+ * blocking operation. {@link #cancel(boolean) cancel(false)} interrupts nothing and lets the whole pipeline,
+ * including stages which have not yet started, run to completion.
+ */
+public class PipelineFuture implements Future<Void>
+{
+    private final CountDownLatch remaining;
+    /**
+     * released once every stage has finished or the future has been cancelled
+     */
+    private final CountDownLatch done;
+    private final Set<Thread> running;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private volatile boolean interrupting;
+
+    PipelineFuture(int stageCount)
+    {
+        remaining = new CountDownLatch(stageCount);
+        done = new CountDownLatch(stageCount == 0 ? 0 : 1);
+        running = new HashSet<Thread>();
+        failure = null;
+        cancelled = false;
+        interrupting = false;
+    }
+
+    /**
+     * cancel the pipeline, completing this future
+     * @param mayInterruptIfRunning true if running stages should be interrupted and stages which have not
+     * yet started should close their channels as soon as they run. if false the pipeline is allowed to
+     * run to completion
+     * @return false if the pipeline had already completed or been cancelled otherwise true
+     */
+    public synchronized boolean cancel(boolean mayInterruptIfRunning)
+    {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        if (mayInterruptIfRunning) {
+            interrupting = true;
+            interruptRunning();
+        }
+        done.countDown();
+        return true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    public Void get() throws InterruptedException, ExecutionException
+    {
+        done.await();
+        return result();
+    }
+
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private Void result() throws ExecutionException
+    {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return null;
+    }
+
+    /**
+     * wrap a stage so that its progress is tracked by this future
+     * @param stage the stage to be run
+     * @return a task which runs the stage
+     */
+    Runnable track(final Runnable stage)
+    {
+        return new Runnable() {
+            public void run()
+            {
+                Thread thread = Thread.currentThread();
+                synchronized (running) {
+                    running.add(thread);
+                }
+                try {
+                    if (interrupting) {
+                        // the pipeline was cancelled before this stage started. its neighbours may already be
+                        // using its channels so run it interrupted, which makes it close them and exit
+                        thread.interrupt();
+                    }
+                    stage.run();
+                } catch (Throwable th) {
+                    if (failure == null) {
+                        failure = th;
+                    }
+                    interruptRunning();
+                } finally {
+                    synchronized (running) {
+                        running.remove(thread);
+                    }
+                    // make sure a pooled thread does not carry an interrupt into its next task
+                    Thread.interrupted();
+                    remaining.countDown();
+                    if (remaining.getCount() == 0) {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+    }
+
+    private void interruptRunning()
+    {
+        synchronized (running) {
+            for (Thread thread : running) {
+                if (thread != Thread.currentThread()) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+}
@@ -25,8 +25,8 @@
 package org.my;
 
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
 
 /**
  * A PipelineProcessor is a stream processor which transforms an input stream of bytes into an
@@ -40,12 +40,12 @@ public abstract class PipelineProcessor extends Thread implements Sink, Source {
     /**
      * the stream feeding this processor
      */
-    protected PipedReader input;
+    protected Reader input;
 
     /**
      * the stream fed by this processor
      */
-    protected PipedWriter output;
+    protected Writer output;
 
     /**
      * construct a PipelineProcessor by setting up its input stream from the supplied Source
@@ -63,11 +63,24 @@ public abstract class PipelineProcessor extends Thread implements Sink, Source {
         if (output != null) {
             throw new IOException("output already connected");
         }
-        output = new PipedWriter();
-        sink.setInput(new PipedReader(output));
+        Channel channel = createChannel(sink);
+        output = channel.getWriter();
+        sink.setInput(channel.getReader());
     }
 
-    public void setInput(PipedReader input) throws IOException {
+    /**
+     * create the channel used to connect this processor's output to a sink. by default the channel
+     * is obtained from {@link Channels}.
+     * @param sink the sink which will consume the output
+     * @return the channel
+     * @throws IOException
+     */
+    protected Channel createChannel(Sink sink) throws IOException
+    {
+        return Channels.createChannel();
+    }
+
+    public void setInput(Reader input) throws IOException {
         if (this.input != null) {
             throw new IOException("input already connected");
         }
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A PipelineRunner executes the stages of a connected pipeline on a supplied Executor rather than
+ * giving each stage a thread of its own. The stages are only ever treated as Runnables. Although
+ * the existing stage classes still extend Thread, so that they can also be started and joined
+ * directly, the runner never starts them and so they never consume a thread of their own.<p/>
+ *
+ * Each stage blocks while its input is empty or its output is full so the executor must be able to
+ * run every stage of the pipeline at the same time. A cached thread pool or a virtual thread executor
+ * satisfies this for any number of concurrent pipelines. A fixed size pool must have at least as many
+ * threads as there are stages in all the pipelines it runs concurrently. The runner can only check this
+ * for a {@link ThreadPoolExecutor} and then only against the pipeline being started. Any other executor is
+ * trusted to provide a thread for every stage and a pipeline run on one which does not will deadlock.<p/>
+ *
+ * A {@link ParallelLineProcessor} which has not been given an executor of its own runs its worker tasks on
+ * the runner's executor, so each of its replicas also needs a thread.<p/>
+ *
+ * If fusion is enabled each chain of directly connected {@link TextLineProcessor}s in the pipeline is
+ * replaced by a single {@link FusedLineProcessor}, reducing the number of tasks the pipeline needs.
+ */
+public class PipelineRunner
+{
+    private Executor executor;
+    private boolean fusion;
+
+    /**
+     * create a runner
+     * @param executor the executor used to run the pipeline stages
+     */
+    public PipelineRunner(Executor executor)
+    {
+        this.executor = executor;
+        this.fusion = false;
+    }
+
+    /**
+     * configure whether chains of TextLineProcessors are fused before the pipeline is run
+     * @param fusion true if chains should be fused otherwise false
+     */
+    public void setFusion(boolean fusion)
+    {
+        this.fusion = fusion;
+    }
+
+    /**
+     * run all the stages of a pipeline. the stages must have been connected but not started
+     * @param stages the sources, processors and sinks which make up the pipeline
+     * @return a handle which completes when every stage has finished
+     * @throws IllegalArgumentException if the executor is a thread pool which cannot run every stage at once.
+     * a pool which queues tasks only adds threads beyond its core size once its queue is full so it is
+     * judged by its core size. a pool which hands tasks directly to threads is judged by its maximum size
+     */
+    public PipelineFuture run(Runnable... stages)
+    {
+        List<Runnable> tasks = (fusion ? fuse(stages) : asList(stages));
+        int threads = tasks.size();
+        for (Runnable stage : stages) {
+            if (stage instanceof ParallelLineProcessor) {
+                ParallelLineProcessor parallel = (ParallelLineProcessor)stage;
+                if (parallel.getExecutor() == null) {
+                    parallel.setExecutor(executor);
+                }
+                if (parallel.getExecutor() == executor) {
+                    threads += parallel.getReplicaCount();
+                }
+            }
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
+            int poolSize = (pool.getQueue() instanceof SynchronousQueue ? pool.getMaximumPoolSize() : pool.getCorePoolSize());
+            if (poolSize < threads) {
+                throw new IllegalArgumentException("pool of " + poolSize + " threads cannot run " + threads + " stages and workers");
+            }
+        }
+        PipelineFuture future = new PipelineFuture(tasks.size());
+        for (Runnable task : tasks) {
+            executor.execute(future.track(task));
+        }
+        return future;
+    }
+
+    /**
+     * replace each chain of directly connected TextLineProcessors with a FusedLineProcessor
+     * @param stages the pipeline stages
+     * @return the stages which remain to be run
+     */
+    private List<Runnable> fuse(Runnable[] stages)
+    {
+        Set<TextLineProcessor> fedByLineProcessor = new HashSet<TextLineProcessor>();
+        for (Runnable stage : stages) {
+            if (stage instanceof TextLineProcessor) {
+                TextLineProcessor downstream = ((TextLineProcessor)stage).getDownstream();
+                if (downstream != null) {
+                    fedByLineProcessor.add(downstream);
+                }
+            }
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (Runnable stage : stages) {
+            if (stage instanceof TextLineProcessor) {
+                TextLineProcessor processor = (TextLineProcessor)stage;
+                if (fedByLineProcessor.contains(processor)) {
+                    // this processor will be run as part of the chain which feeds it
+                    continue;
+                }
+                if (processor.getDownstream() != null) {
+                    tasks.add(new FusedLineProcessor(processor));
+                    continue;
+                }
+            }
+            tasks.add(stage);
+        }
+        return tasks;
+    }
+
+    private static List<Runnable> asList(Runnable[] stages)
+    {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (Runnable stage : stages) {
+            tasks.add(stage);
+        }
+        return tasks;
+    }
+
+    /**
+     * create an executor suitable for running any number of pipelines. on JDKs which provide virtual
+     * threads this runs each stage in its own virtual thread. on older JDKs it is a cached thread pool.
+     * @return the executor
+     */
+    public static ExecutorService newDefaultExecutor()
+    {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
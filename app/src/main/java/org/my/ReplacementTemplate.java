@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * A ReplacementTemplate is the compiled form of a PatternReplacer replacement string. The replacement
+ * is parsed once into a sequence of literal segments interleaved with match group references so that
+ * substituting a match appends the literal text and the matched group text directly to the output
+ * buffer without creating any intermediate Strings.<p/>
+ *
+ * The replacement syntax recognises the following escapes
+ * <ul>
+ * <li>\nn substitutes the text matched by the group with index nn</li>
+ * <li>\k&lt;name&gt; substitutes the text matched by the group declared as (?&lt;name&gt;...) in the pattern</li>
+ * <li>\\ inserts a single backslash</li>
+ * </ul>
+ * Any other character, including a backslash which does not start one of these escapes, is copied
+ * literally. Group values are always inserted verbatim i.e. a '$' or '\' in the matched text has no
+ * special significance. A group which did not participate in the match inserts no text.
+ */
+class ReplacementTemplate
+{
+    /**
+     * all the literal text of the replacement concatenated in order
+     */
+    private char[] literals;
+    /**
+     * literalEnds[i] is the end offset in literals of the literal segment which precedes the i-th
+     * group reference. the final entry is the end of the trailing literal segment
+     */
+    private int[] literalEnds;
+    /**
+     * the group index for each group reference in order of appearance
+     */
+    private int[] groups;
+    private int maxGroupIndex;
+
+    /**
+     * compile a replacement template
+     * @param replacement the replacement text
+     * @param pattern the pattern whose matches will be substituted, used to resolve named group references
+     * @throws IllegalArgumentException if the replacement refers to a group name which is not declared
+     * by the pattern
+     */
+    public ReplacementTemplate(String replacement, Pattern pattern)
+    {
+        Map<String, Integer> names = null;
+        StringBuilder text = new StringBuilder();
+        int[] ends = new int[4];
+        int[] indices = new int[3];
+        int count = 0;
+        int length = replacement.length();
+        int i = 0;
+        maxGroupIndex = 0;
+
+        while (i < length) {
+            char c = replacement.charAt(i++);
+            int group = -1;
+            if (c == '\\' && i < length) {
+                char next = replacement.charAt(i);
+                if (next >= '1' && next <= '9') {
+                    // numbered group reference
+                    int end = i + 1;
+                    while (end < length && Character.isDigit(replacement.charAt(end))) {
+                        end++;
+                    }
+                    group = Integer.parseInt(replacement.substring(i, end));
+                    i = end;
+                } else if (next == 'k' && i + 1 < length && replacement.charAt(i + 1) == '<') {
+                    // named group reference
+                    int end = replacement.indexOf('>', i + 2);
+                    if (end > i + 2) {
+                        String name = replacement.substring(i + 2, end);
+                        if (names == null) {
+                            names = groupNames(pattern.pattern());
+                        }
+                        Integer index = names.get(name);
+                        if (index == null) {
+                            throw new IllegalArgumentException("unknown group name " + name + " in replacement " + replacement);
+                        }
+                        group = index;
+                        i = end + 1;
+                    }
+                } else if (next == '\\') {
+                    // escaped backslash
+                    i++;
+                }
+            }
+            if (group < 0) {
+                text.append(c);
+                continue;
+            }
+            // close the current literal segment and record the group reference
+            if (count + 1 == ends.length) {
+                int[] newEnds = new int[ends.length * 2];
+                System.arraycopy(ends, 0, newEnds, 0, ends.length);
+                ends = newEnds;
+                int[] newIndices = new int[indices.length * 2];
+                System.arraycopy(indices, 0, newIndices, 0, indices.length);
+                indices = newIndices;
+            }
+            ends[count] = text.length();
+            indices[count++] = group;
+            if (group > maxGroupIndex) {
+                maxGroupIndex = group;
+            }
+        }
+        ends[count] = text.length();
+
+        literals = new char[text.length()];
+        text.getChars(0, text.length(), literals, 0);
+        literalEnds = new int[count + 1];
+        System.arraycopy(ends, 0, literalEnds, 0, count + 1);
+        groups = new int[count];
+        System.arraycopy(indices, 0, groups, 0, count);
+    }
+
+    /**
+     * @return the highest group index referred to by the template or 0 if it contains no group references
+     */
+    public int getMaxGroupIndex()
+    {
+        return maxGroupIndex;
+    }
+
+    /**
+     * append the substituted replacement for the current match to a buffer
+     * @param text the text being matched
+     * @param matcher the result of a successful match over text
+     * @param builder the buffer to append to
+     */
+    public void appendTo(CharSequence text, MatchResult matcher, StringBuilder builder)
+    {
+        appendTo(text, matcher, 0, builder);
+    }
+
+    /**
+     * append the substituted replacement for the current match to a buffer where the pattern whose
+     * groups the template refers to is embedded in a larger pattern
+     * @param text the text being matched
+     * @param matcher the result of a successful match over text. this may be null if the
+     * template contains no group references
+     * @param groupOffset the amount to add to each group index in the template to obtain the index
+     * of the corresponding group in the matcher
+     * @param builder the buffer to append to
+     */
+    public void appendTo(CharSequence text, MatchResult matcher, int groupOffset, StringBuilder builder)
+    {
+        int current = 0;
+        for (int i = 0; i < groups.length; i++) {
+            int end = literalEnds[i];
+            builder.append(literals, current, end - current);
+            current = end;
+            int group = groups[i] + groupOffset;
+            int start = matcher.start(group);
+            if (start >= 0) {
+                builder.append(text, start, matcher.end(group));
+            }
+        }
+        builder.append(literals, current, literalEnds[groups.length] - current);
+    }
+
+    /**
+     * scan the source of a regular expression to identify the index of each named capturing group
+     * @param regex the regular expression source
+     * @return a map from group name to group index
+     */
+    static Map<String, Integer> groupNames(String regex)
+    {
+        Map<String, Integer> names = new HashMap<String, Integer>();
+        int length = regex.length();
+        int groupCount = 0;
+        int classDepth = 0;
+        int i = 0;
+
+        while (i < length) {
+            char c = regex.charAt(i++);
+            if (c == '\\') {
+                if (i < length && regex.charAt(i) == 'Q') {
+                    // quoted text runs up to the next \E
+                    int end = regex.indexOf("\\E", i + 1);
+                    i = (end < 0 ? length : end + 2);
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (c == '(' && classDepth == 0) {
+                if (i >= length || regex.charAt(i) != '?') {
+                    groupCount++;
+                } else if (i + 2 < length && regex.charAt(i + 1) == '<'
+                        && regex.charAt(i + 2) != '=' && regex.charAt(i + 2) != '!') {
+                    groupCount++;
+                    int end = regex.indexOf('>', i + 2);
+                    if (end > 0) {
+                        names.put(regex.substring(i + 2, end), groupCount);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+}
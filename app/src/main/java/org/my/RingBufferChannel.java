@@ -0,0 +1,364 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A RingBufferChannel is a bounded Channel which passes chars from a single producer thread to a
+ * single consumer thread through a ring buffer. Each write publishes the whole block of chars it
+ * copies into the ring by advancing the tail index and each read consumes every char available
+ * up to the requested length by advancing the head index. No monitor locks are used. A thread which
+ * finds the ring full or empty spins briefly, then yields for a while and finally parks until the
+ * other side unparks it. Yielding before parking avoids paying for an unpark on every write when
+ * a stage trickles out single chars.
+ */
+public class RingBufferChannel implements Channel
+{
+    /**
+     * the default capacity in chars of the ring
+     */
+    public final static int DEFAULT_CAPACITY = 16 * 1024;
+
+    /**
+     * the number of times a blocked thread rechecks the ring before it starts yielding
+     */
+    private final static int SPIN_LIMIT = 100;
+
+    /**
+     * the number of times a blocked thread yields and rechecks the ring before it parks
+     */
+    private final static int YIELD_LIMIT = 200;
+
+    private final char[] buffer;
+    private final int mask;
+
+    /**
+     * the index of the next char to be written, only updated by the producer
+     */
+    private volatile long tail;
+    /**
+     * the index of the next char to be read, only updated by the consumer
+     */
+    private volatile long head;
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+    private volatile Thread waitingWriter;
+    private volatile Thread waitingReader;
+
+    private final ChannelReader reader;
+    private final ChannelWriter writer;
+
+    /**
+     * create a ring buffer channel
+     * @param capacity the minimum number of chars the ring can hold, rounded up to a power of two
+     */
+    public RingBufferChannel(int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new char[size];
+        mask = size - 1;
+        tail = 0;
+        head = 0;
+        writerClosed = false;
+        readerClosed = false;
+        reader = new ChannelReader();
+        writer = new ChannelWriter();
+    }
+
+    public Reader getReader()
+    {
+        return reader;
+    }
+
+    public Writer getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * the producer end of the channel
+     */
+    private class ChannelWriter extends Writer
+    {
+        /**
+         * the producer's copy of the head index. the ring has at least as much space as this implies
+         */
+        private long headCache = 0;
+
+        public void write(int c) throws IOException
+        {
+            long t = tail;
+            awaitSpace(t);
+            buffer[(int)t & mask] = (char)c;
+            publish(t + 1);
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            while (len > 0) {
+                long t = tail;
+                int count = Math.min(len, awaitSpace(t));
+                int index = (int)t & mask;
+                int first = Math.min(count, buffer.length - index);
+                System.arraycopy(cbuf, off, buffer, index, first);
+                System.arraycopy(cbuf, off + first, buffer, 0, count - first);
+                publish(t + count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        public void write(String str, int off, int len) throws IOException
+        {
+            while (len > 0) {
+                long t = tail;
+                int count = Math.min(len, awaitSpace(t));
+                int index = (int)t & mask;
+                int first = Math.min(count, buffer.length - index);
+                str.getChars(off, off + first, buffer, index);
+                str.getChars(off + first, off + count, buffer, 0);
+                publish(t + count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * the chars are visible to the reader as soon as they are written so there is nothing to do
+         */
+        public void flush() throws IOException
+        {
+            checkOpen();
+        }
+
+        public void close() throws IOException
+        {
+            writerClosed = true;
+            LockSupport.unpark(waitingReader);
+        }
+
+        private void checkOpen() throws IOException
+        {
+            if (writerClosed || readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        /**
+         * wait until there is space to write at least one char
+         * @param t the current tail index
+         * @return the number of chars which can be written
+         * @throws IOException if either end of the channel is closed or the thread is interrupted
+         */
+        private int awaitSpace(long t) throws IOException
+        {
+            checkOpen();
+            int space = buffer.length - (int)(t - headCache);
+            if (space > 0) {
+                return space;
+            }
+            int spins = 0;
+            while (true) {
+                headCache = head;
+                space = buffer.length - (int)(t - headCache);
+                if (space > 0) {
+                    return space;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    // advertise that we are waiting and then recheck before parking so that
+                    // the reader cannot consume chars without seeing us
+                    waitingWriter = Thread.currentThread();
+                    if (head == headCache && !readerClosed) {
+                        LockSupport.park(this);
+                    }
+                    waitingWriter = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                checkOpen();
+            }
+        }
+
+        private void publish(long t)
+        {
+            tail = t;
+            Thread waiting = waitingReader;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    /**
+     * the consumer end of the channel
+     */
+    private class ChannelReader extends Reader
+    {
+        /**
+         * the consumer's copy of the tail index. the ring holds at least as many chars as this implies
+         */
+        private long tailCache = 0;
+
+        public int read() throws IOException
+        {
+            long h = head;
+            if (awaitData(h) < 0) {
+                return -1;
+            }
+            char c = buffer[(int)h & mask];
+            consume(h + 1);
+            return c;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            long h = head;
+            int available = awaitData(h);
+            if (available < 0) {
+                return -1;
+            }
+            int count = Math.min(len, available);
+            int index = (int)h & mask;
+            int first = Math.min(count, buffer.length - index);
+            System.arraycopy(buffer, index, cbuf, off, first);
+            System.arraycopy(buffer, 0, cbuf, off + first, count - first);
+            consume(h + count);
+            return count;
+        }
+
+        public boolean ready() throws IOException
+        {
+            checkOpen();
+            return tail != head;
+        }
+
+        public void close() throws IOException
+        {
+            readerClosed = true;
+            LockSupport.unpark(waitingWriter);
+        }
+
+        private void checkOpen() throws IOException
+        {
+            if (readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        /**
+         * wait until there is at least one char to read or the writer has closed the channel
+         * @param h the current head index
+         * @return the number of chars which can be read or -1 at end of stream
+         * @throws IOException if the reader is closed or the thread is interrupted
+         */
+        private int awaitData(long h) throws IOException
+        {
+            checkOpen();
+            int available = (int)(tailCache - h);
+            if (available > 0) {
+                return available;
+            }
+            int spins = 0;
+            while (true) {
+                // read the closed flag before the tail so that we cannot miss chars
+                // written just before the channel was closed
+                boolean closed = writerClosed;
+                tailCache = tail;
+                available = (int)(tailCache - h);
+                if (available > 0) {
+                    return available;
+                }
+                if (closed) {
+                    return -1;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    // advertise that we are waiting and then recheck before parking so that
+                    // the writer cannot publish chars without seeing us
+                    waitingReader = Thread.currentThread();
+                    if (tail == tailCache && !writerClosed) {
+                        LockSupport.park(this);
+                    }
+                    waitingReader = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                checkOpen();
+            }
+        }
+
+        private void consume(long h)
+        {
+            head = h;
+            Thread waiting = waitingWriter;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    /**
+     * factory which creates ring buffer channels with a given capacity
+     */
+    public static class Factory implements ChannelFactory
+    {
+        private int capacity;
+
+        public Factory(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        public Channel createChannel() throws IOException
+        {
+            return new RingBufferChannel(capacity);
+        }
+    }
+}
@@ -25,7 +25,7 @@
 package org.my;
 
 import java.io.IOException;
-import java.io.PipedReader;
+import java.io.Reader;
 
 /**
  * interface implemented by data sinks allowing them to fixup their input feed from a data source
@@ -41,5 +41,5 @@ public interface Sink
      * @param input an input stream to be consumed by the Sink.
      * @throws IOException
      */
-    public void setInput(PipedReader input) throws IOException;
+    public void setInput(Reader input) throws IOException;
 }
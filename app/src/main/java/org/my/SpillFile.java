@@ -0,0 +1,294 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A SpillFile is a bounded queue of blocks of chars held in a temporary file. It is used by a
+ * {@link TeeProcessor} to hold the blocks which a branch with policy {@link ConsumerPolicy#SPILL} has not
+ * yet read when they are about to be overwritten in the tee's ring.<p/>
+ *
+ * The tee does not write the file itself. It hands each block to the spill, which holds a bounded number
+ * of blocks in memory, and a writer thread belonging to the spill appends them to the file. The tee only
+ * waits when the blocks in memory reach that bound, i.e. when the disk has been slower than the input for
+ * long enough to fill it. The branch takes the blocks which have reached the file first and then takes the
+ * rest directly from memory, so a branch which catches up never waits for the disk either.<p/>
+ *
+ * Each block is written as a record containing its sequence number, its length and its chars. The file is
+ * used circularly so the space taken by records which have been read is reused and the file never grows
+ * beyond the limit supplied when the spill is created. The file is created when the first block is written
+ * and deleted when the spill is closed. The spill fails if a block cannot be written without exceeding the
+ * limit or the file cannot be written. The branch then receives the blocks handed over before the failure
+ * and an IOException once they run out.
+ */
+class SpillFile implements Runnable
+{
+    /**
+     * the size of a record header holding a block's sequence number and length
+     */
+    private final static int HEADER_SIZE = 12;
+
+    private final File directory;
+    private final long limit;
+    private final int capacity;
+    /**
+     * blocks handed over by the tee which are not yet in the file, oldest first
+     */
+    private final ArrayDeque<TeeProcessor.Block> pending;
+    private File file;
+    private FileChannel channel;
+    private ByteBuffer appendBuffer;
+    private ByteBuffer takeBuffer;
+    private Thread writer;
+    /**
+     * the total number of bytes appended, only updated by the writer thread
+     */
+    private volatile long appended;
+    /**
+     * the total number of bytes taken, only updated by the taking thread
+     */
+    private volatile long taken;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * create a spill
+     * @param directory the directory in which to create the temporary file or null to use the default
+     * temporary directory
+     * @param limit the maximum number of bytes of unread records the file may hold
+     * @param capacity the maximum number of blocks held in memory waiting to be written
+     */
+    SpillFile(File directory, long limit, int capacity)
+    {
+        if (limit < HEADER_SIZE + 2 * TeeProcessor.BLOCK_SIZE) {
+            throw new IllegalArgumentException("spill limit " + limit + " is too small to hold a block");
+        }
+        this.directory = directory;
+        this.limit = limit;
+        this.capacity = capacity;
+        this.pending = new ArrayDeque<TeeProcessor.Block>();
+        this.appended = 0;
+        this.taken = 0;
+        this.failure = null;
+        this.closed = false;
+    }
+
+    /**
+     * hand a block to the spill, waiting if the blocks not yet written already fill its capacity. a block
+     * handed to a spill which has failed or been closed is discarded
+     * @throws IOException if the thread is interrupted while waiting
+     */
+    synchronized void offer(TeeProcessor.Block block) throws IOException
+    {
+        while (pending.size() >= capacity && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                throw new InterruptedIOException();
+            }
+        }
+        if (failure != null || closed) {
+            return;
+        }
+        pending.addLast(block);
+        if (writer == null) {
+            writer = new Thread(this, "tee spill writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * take the next block, either from the file or, once the file has been read, from the blocks which
+     * have not yet been written
+     * @return the next block or null if none has been handed over yet
+     * @throws IOException if the spill has failed and holds no more blocks or the file cannot be read
+     */
+    TeeProcessor.Block poll() throws IOException
+    {
+        if (taken == appended) {
+            synchronized (this) {
+                if (taken == appended) {
+                    // the writer may be writing the first pending block but it only records it as
+                    // appended if it is still pending when the write completes
+                    TeeProcessor.Block block = pending.pollFirst();
+                    if (block != null) {
+                        notifyAll();
+                        return block;
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return null;
+                }
+            }
+        }
+        return take();
+    }
+
+    /**
+     * close and delete the file. any blocks which have not been taken are discarded
+     */
+    synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.clear();
+        notifyAll();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // nothing more can be done with it
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * the writer thread which moves pending blocks to the file
+     */
+    public void run()
+    {
+        try {
+            while (true) {
+                TeeProcessor.Block block;
+                long position;
+                synchronized (this) {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    if (channel == null) {
+                        open();
+                    }
+                    block = pending.peekFirst();
+                    position = appended;
+                }
+                int size = HEADER_SIZE + 2 * block.length;
+                if (position + size - taken > limit) {
+                    throw new IOException("spill limit of " + limit + " bytes exceeded");
+                }
+                ByteBuffer buffer = appendBuffer;
+                buffer.clear();
+                buffer.putLong(block.sequence);
+                buffer.putInt(block.length);
+                for (int i = 0; i < block.length; i++) {
+                    buffer.putChar(block.chars[i]);
+                }
+                buffer.flip();
+                transfer(buffer, position, true);
+                synchronized (this) {
+                    // the block is only in the file if the branch did not take it from memory meanwhile
+                    if (pending.peekFirst() == block) {
+                        pending.pollFirst();
+                        appended = position + size;
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (IOException ioe) {
+            fail(ioe);
+        } catch (InterruptedException ie) {
+            fail(new InterruptedIOException());
+        }
+    }
+
+    private synchronized void fail(IOException ioe)
+    {
+        if (!closed) {
+            failure = ioe;
+        }
+        notifyAll();
+    }
+
+    /**
+     * take the next record from the file
+     * @return the block held in the record
+     * @throws IOException if the file cannot be read
+     */
+    private TeeProcessor.Block take() throws IOException
+    {
+        long position = taken;
+        ByteBuffer buffer = takeBuffer;
+        buffer.clear();
+        buffer.limit(HEADER_SIZE);
+        transfer(buffer, position, false);
+        buffer.flip();
+        long sequence = buffer.getLong();
+        int length = buffer.getInt();
+        buffer.clear();
+        buffer.limit(2 * length);
+        transfer(buffer, position + HEADER_SIZE, false);
+        buffer.flip();
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        taken = position + HEADER_SIZE + 2 * length;
+        return new TeeProcessor.Block(chars, length, sequence);
+    }
+
+    private void open() throws IOException
+    {
+        file = File.createTempFile("tee", ".spill", directory);
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        appendBuffer = ByteBuffer.allocateDirect(HEADER_SIZE + 2 * TeeProcessor.BLOCK_SIZE);
+        takeBuffer = ByteBuffer.allocateDirect(HEADER_SIZE + 2 * TeeProcessor.BLOCK_SIZE);
+    }
+
+    /**
+     * read or write the buffer at a logical position, wrapping round to the start of the file at the limit
+     */
+    private void transfer(ByteBuffer buffer, long position, boolean write) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            long offset = position % limit;
+            int count = (int)Math.min(buffer.remaining(), limit - offset);
+            int end = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            while (buffer.hasRemaining()) {
+                int transferred = (write ? channel.write(buffer, offset) : channel.read(buffer, offset));
+                if (transferred < 0) {
+                    throw new IOException("spill file truncated");
+                }
+                offset += transferred;
+            }
+            buffer.limit(end);
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A SplitFileRunner processes a large file by cutting it into ranges of bytes which start and end on line
+ * boundaries and running an independent copy of a pipeline on each range in parallel. Each copy is created
+ * by a {@link SplitPipeline} and is fed by a {@link FileReader} restricted to its range. The output of the
+ * copies is written to a single output file by a chain of {@link SplitFileWriter}s so that it appears in
+ * the same order as the ranges of the input. There is no merge pass once every range has finished but the
+ * output a range produces while the range before it is still running has to be staged and then copied into
+ * place, so that part of the output is written twice. See {@link SplitFileWriter}.<p/>
+ *
+ * Ranges are cut at LF bytes so the charset used to decode the file must encode LF as the single byte 0x0A.
+ * This is true of ASCII, ISO-8859-1 and UTF-8 but not of UTF-16. A range may be empty if the file contains
+ * lines which are longer than a range.<p/>
+ *
+ * The copies of the pipeline run independently so stages which are only given the text of their own range
+ * behave exactly as they would for the whole file. Stages which share an {@link AbstractBindingMap} across
+ * ranges do not, since the ranges are processed at the same time rather than in file order. There are three ways to
+ * use bindings consistently:
+ * <ul>
+ * <li>give each copy its own map. bindings are then consistent within a range but the same value may be
+ * given different identifiers in different ranges</li>
+ * <li>share a map on which {@link AbstractBindingMap#setDeterministic(boolean)} has been called. each range
+ * is created in file order so its binders are registered in file order and the identifiers each binder
+ * creates depend only upon its own range. however, which of two ranges binds a value they both contain, and
+ * whether a {@link BindingReplacer} in one range sees a binding made in another, still depends upon
+ * scheduling</li>
+ * <li>bind first, then replace. run a split pass whose pipelines only contain binders, freeze the map with
+ * {@link AbstractBindingMap#freeze()} and then run a second split pass whose replacers use the frozen map.
+ * every range then sees every binding made anywhere in the file and the output does not depend upon scheduling</li>
+ * </ul>
+ */
+public class SplitFileRunner
+{
+    /**
+     * the number of bytes examined at a time when looking for a line boundary
+     */
+    private final static int SCAN_SIZE = 8192;
+
+    private final PipelineRunner runner;
+
+    /**
+     * create a runner
+     * @param executor the executor used to run every stage of every copy of the pipeline
+     */
+    public SplitFileRunner(Executor executor)
+    {
+        this.runner = new PipelineRunner(executor);
+    }
+
+    /**
+     * configure whether chains of TextLineProcessors are fused before each copy of the pipeline is run
+     * @param fusion true if chains should be fused otherwise false
+     */
+    public void setFusion(boolean fusion)
+    {
+        runner.setFusion(fusion);
+    }
+
+    /**
+     * split the input file, create a copy of the pipeline for each range and run them all
+     * @param inputFile the file to process
+     * @param outputFile the file to which the concatenated output is written
+     * @param charset the charset used to decode the input and encode the output or null if each byte
+     * should be treated as a char
+     * @param splits the number of ranges into which to cut the file
+     * @param pipeline creates the copy of the pipeline which processes each range
+     * @return a handle which completes when every stage of every copy has finished
+     * @throws IOException
+     * @throws IllegalArgumentException if the charset does not encode LF as a single byte or a copy of the
+     * pipeline does not end in a Source
+     */
+    public PipelineFuture run(String inputFile, String outputFile, Charset charset, int splits, SplitPipeline pipeline)
+            throws IOException
+    {
+        if (charset != null && !Arrays.equals("\n".getBytes(charset), new byte[] {'\n'})) {
+            throw new IllegalArgumentException("cannot split text encoded using " + charset);
+        }
+        long[] boundaries = split(inputFile, splits);
+        List<Runnable> stages = new ArrayList<Runnable>();
+        SplitFileWriter writer = null;
+        for (int i = 0; i < splits; i++) {
+            FileReader reader = new FileReader(inputFile, charset, boundaries[i], boundaries[i + 1]);
+            Runnable[] copy = pipeline.createStages(reader, i);
+            Runnable last = (copy.length == 0 ? reader : copy[copy.length - 1]);
+            if (!(last instanceof Source)) {
+                throw new IllegalArgumentException("pipeline for range " + i + " does not end in a source");
+            }
+            if (writer == null) {
+                writer = new SplitFileWriter(outputFile, charset, (Source)last);
+            } else {
+                writer = new SplitFileWriter(writer, (Source)last);
+            }
+            stages.add(reader);
+            stages.addAll(Arrays.asList(copy));
+            stages.add(writer);
+        }
+        return runner.run(stages.toArray(new Runnable[stages.size()]));
+    }
+
+    /**
+     * cut a file into ranges which start and end on line boundaries
+     * @param file the file
+     * @param splits the number of ranges
+     * @return splits + 1 offsets. range i starts at offset i and ends before offset i + 1
+     * @throws IOException
+     */
+    public static long[] split(String file, int splits) throws IOException
+    {
+        if (splits <= 0) {
+            throw new IllegalArgumentException("invalid split count " + splits);
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            ByteBuffer bytes = ByteBuffer.allocate(SCAN_SIZE);
+            long[] boundaries = new long[splits + 1];
+            boundaries[0] = 0;
+            boundaries[splits] = size;
+            for (int i = 1; i < splits; i++) {
+                long target = Math.max(size / splits * i, boundaries[i - 1]);
+                boundaries[i] = nextLine(channel, bytes, target, size);
+            }
+            return boundaries;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the offset of the first line which starts at or after the given offset or size if there is none
+     */
+    private static long nextLine(FileChannel channel, ByteBuffer bytes, long offset, long size) throws IOException
+    {
+        if (offset == 0) {
+            return 0;
+        }
+        // a line starts at offset if it follows a LF
+        long position = offset - 1;
+        while (position < size) {
+            bytes.clear();
+            int count = channel.read(bytes, position);
+            if (count < 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (bytes.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += count;
+        }
+        return size;
+    }
+}
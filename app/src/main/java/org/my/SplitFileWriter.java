@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SplitFileWriter is a data Sink which writes the output produced for one range of a split file to its
+ * place in a shared output file. The writers for successive ranges form a chain: the first writer creates
+ * the output file and each following writer is created from the writer for the range before it. The
+ * output of the ranges is concatenated in chain order.<p/>
+ *
+ * Each writer encodes its input in the same way as a {@link ChannelFileWriter} and writes the bytes
+ * directly to the output file using positional FileChannel writes once it knows where its output starts,
+ * i.e. once the writer before it has finished. Until then the bytes have to be staged. The first
+ * {@link #MEMORY_STAGING_LIMIT} bytes are held in memory and any more are written to a temporary file
+ * created next to the output file. When the offset becomes known the staged bytes are copied into place,
+ * those in the temporary file using {@link FileChannel#transferFrom} so that the copy is done within the
+ * kernel, and the writer then carries on writing directly. The writer for the first range never needs to
+ * stage its output.<p/>
+ *
+ * Bytes staged in a temporary file are written twice, which is the cost of not knowing where a range's
+ * output starts. When ranges of similar size are processed at the same time most of the output of every
+ * range but the first is produced while the range before it is still running, so most of the output is
+ * staged and the total written to disk approaches twice the size of the output. Split processing trades
+ * that extra writing for processing the ranges in parallel.<p/>
+ *
+ * If a writer fails then every writer which follows it also fails.
+ */
+public class SplitFileWriter extends Thread implements Sink
+{
+    /**
+     * the number of chars read from the input in one block
+     */
+    private final static int BLOCK_SIZE = 8192;
+    /**
+     * the size of the direct buffer used to hold encoded bytes
+     */
+    private final static int BUFFER_SIZE = 64 * 1024;
+    /**
+     * the number of bytes a writer stages in memory before it uses a temporary file
+     */
+    public final static int MEMORY_STAGING_LIMIT = 4 * 1024 * 1024;
+
+    private final Output shared;
+    private final SplitFileWriter previous;
+    private Reader input;
+    /**
+     * the offset in the output file at which the next bytes are written or -1 until it is known
+     */
+    private long position;
+    /**
+     * the first staged bytes, held in memory
+     */
+    private List<ByteBuffer> memory;
+    private int memoryStaged;
+    private File stagingFile;
+    private FileChannel staging;
+    private long staged;
+    /**
+     * the offset following the last byte written by this writer, set once it has finished
+     */
+    private long end;
+    private boolean finished;
+    private boolean failed;
+
+    /**
+     * create the writer for the first range
+     * @param file the output file
+     * @param charset the charset used to encode the text or null to encode each char as a single byte
+     * @param source the source stream which provides the text for the first range
+     * @throws IOException
+     */
+    public SplitFileWriter(String file, Charset charset, Source source) throws IOException
+    {
+        this(new Output(new File(file), charset), null, source);
+    }
+
+    /**
+     * create the writer for the range following that of another writer
+     * @param previous the writer for the preceding range
+     * @param source the source stream which provides the text for this range
+     * @throws IOException
+     */
+    public SplitFileWriter(SplitFileWriter previous, Source source) throws IOException
+    {
+        this(previous.shared, previous, source);
+    }
+
+    private SplitFileWriter(Output shared, SplitFileWriter previous, Source source) throws IOException
+    {
+        this.shared = shared;
+        this.previous = previous;
+        this.input = null;
+        this.position = (previous == null ? 0 : -1);
+        this.memory = new ArrayList<ByteBuffer>();
+        this.memoryStaged = 0;
+        this.staged = 0;
+        this.end = -1;
+        this.finished = false;
+        this.failed = false;
+        shared.open();
+        source.feed(this);
+    }
+
+    public void setInput(Reader input) throws IOException {
+        if (this.input != null) {
+            throw new IOException("input already connected");
+        }
+        this.input = input;
+    }
+
+    public void run()
+    {
+        if (input == null) {
+            //nothing to do
+            return;
+        }
+        boolean excepted = true;
+        try {
+            CharsetEncoder encoder = shared.charset.newEncoder();
+            encoder.onMalformedInput(CodingErrorAction.REPLACE);
+            encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+            ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int count = input.read(chars.array(), 0, chars.capacity());
+            while (count >= 0) {
+                chars.position(chars.position() + count);
+                chars.flip();
+                CoderResult result = encoder.encode(chars, bytes, false);
+                while (result.isOverflow()) {
+                    write(bytes);
+                    result = encoder.encode(chars, bytes, false);
+                }
+                // keep any unencoded char, i.e. the first half of a surrogate pair
+                chars.compact();
+                count = input.read(chars.array(), chars.position(), chars.remaining());
+            }
+            chars.flip();
+            while (encoder.encode(chars, bytes, true).isOverflow()) {
+                write(bytes);
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                write(bytes);
+            }
+            write(bytes);
+            if (position < 0) {
+                place(previous.awaitEnd());
+            }
+            excepted = false;
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } catch (InterruptedException ie) {
+            // give up
+        } finally {
+            if (excepted) {
+                try {
+                    // release the stage feeding us
+                    input.close();
+                } catch (IOException ioe) {
+                    // nothing more to do
+                }
+            }
+            discardStaging();
+            finish(excepted);
+            shared.close();
+        }
+    }
+
+    /**
+     * wait until this writer has finished
+     * @return the offset following the last byte it wrote
+     * @throws IOException if this writer or any writer before it failed
+     * @throws InterruptedException
+     */
+    public synchronized long awaitEnd() throws IOException, InterruptedException
+    {
+        while (!finished) {
+            wait();
+        }
+        if (failed) {
+            throw new IOException("split output failed");
+        }
+        return end;
+    }
+
+    private synchronized void finish(boolean failed)
+    {
+        this.end = position;
+        this.failed = failed;
+        this.finished = true;
+        notifyAll();
+    }
+
+    private synchronized boolean isFinished()
+    {
+        return finished;
+    }
+
+    /**
+     * write the encoded bytes to the output file if our offset is known otherwise stage them and clear
+     * the buffer ready for reuse
+     */
+    private void write(ByteBuffer bytes) throws IOException, InterruptedException
+    {
+        if (position < 0 && previous.isFinished()) {
+            place(previous.awaitEnd());
+        }
+        bytes.flip();
+        if (position >= 0) {
+            while (bytes.hasRemaining()) {
+                position += shared.channel.write(bytes, position);
+            }
+        } else if (staging == null && memoryStaged + bytes.remaining() <= MEMORY_STAGING_LIMIT) {
+            ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes);
+            copy.flip();
+            memory.add(copy);
+            memoryStaged += copy.limit();
+        } else {
+            if (staging == null) {
+                stagingFile = File.createTempFile("split", ".part", shared.file.getAbsoluteFile().getParentFile());
+                staging = new RandomAccessFile(stagingFile, "rw").getChannel();
+            }
+            while (bytes.hasRemaining()) {
+                staged += staging.write(bytes, staged);
+            }
+        }
+        bytes.clear();
+    }
+
+    /**
+     * copy the staged bytes to their place in the output file now that our offset is known. the bytes held
+     * in memory come first followed by those in the temporary file
+     */
+    private void place(long offset) throws IOException
+    {
+        position = offset;
+        for (ByteBuffer buffer : memory) {
+            while (buffer.hasRemaining()) {
+                position += shared.channel.write(buffer, position);
+            }
+        }
+        memory = null;
+        long moved = 0;
+        while (moved < staged) {
+            moved += shared.channel.transferFrom(staging.position(moved), position + moved, staged - moved);
+        }
+        position += staged;
+        discardStaging();
+    }
+
+    private void discardStaging()
+    {
+        if (staging != null) {
+            try {
+                staging.close();
+            } catch (IOException ioe) {
+                // nothing more to do
+            }
+            stagingFile.delete();
+            staging = null;
+        }
+    }
+
+    /**
+     * the output file shared by a chain of writers. it is closed when the last writer finishes
+     */
+    private static class Output
+    {
+        final File file;
+        final Charset charset;
+        final FileChannel channel;
+        private int writers;
+
+        Output(File file, Charset charset) throws IOException
+        {
+            this.file = file;
+            this.charset = (charset == null ? Charset.forName("ISO-8859-1") : charset);
+            this.channel = new FileOutputStream(file).getChannel();
+            this.writers = 0;
+        }
+
+        synchronized void open()
+        {
+            writers++;
+        }
+
+        synchronized void close()
+        {
+            if (--writers == 0) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.my;
+
+import java.io.IOException;
+
+/**
+ * Interface implemented by classes which create the copy of a pipeline used to process one range of a
+ * file split by a {@link SplitFileRunner}
+ */
+public interface SplitPipeline
+{
+    /**
+     * create and connect the stages which process one range
+     * @param source the source which provides the text of the range
+     * @param split the index of the range counting from zero in file order
+     * @return the stages which must be run for the range, including any sinks which they feed other than
+     * the output file. the last stage must be a Source whose output is written to the output file
+     * @throws IOException
+     */
+    public Runnable[] createStages(Source source, int split) throws IOException;
+}
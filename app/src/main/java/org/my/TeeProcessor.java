@@ -24,42 +24,161 @@
 
 package org.my;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PipedReader;
-import java.io.PipedWriter;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A TeeProcessor is a PipelineProcessor which copies its input stream of bytes into two output streams.
- * This class implements Sink allowing it to be connected to a Source which provides its input. It also
- * implements Source allowing a Sink to consume its output. It expects and will only accept connections
- * from exactly two sinks
+ * A TeeProcessor is a PipelineProcessor which copies its input stream of chars to any number of output
+ * streams. This class implements Sink allowing it to be connected to a Source which provides its input. It
+ * also implements Source allowing sinks to consume its output. Each sink which is fed directly consumes with
+ * policy {@link ConsumerPolicy#BLOCK}. A sink may choose another policy by being fed from the Source returned
+ * by {@link #getBranch(ConsumerPolicy)}.<p/>
+ *
+ * The input is read into blocks of chars which, wherever possible, end at a line boundary. Each block is
+ * published once to a ring shared by all the branches and is never modified afterwards so every branch reads
+ * the same block without it being copied for each of them. Each branch keeps its own cursor into the ring.
+ * The tee only waits for branches whose policy is BLOCK and only when the slowest of them is a whole ring
+ * behind, so memory is bounded by the ring size. A branch which drops or samples blocks never holds up the
+ * others: if it falls a whole ring behind it skips forward to the middle of the ring and counts the blocks it
+ * missed. A branch which spills sees every block: before the tee reuses the slot of a block which the branch
+ * has not yet read it hands the block to the branch's {@link SpillFile}, which the branch replays, in order,
+ * before it returns to reading the ring. The spill's own thread writes the blocks to a temporary file so the
+ * tee does not pay for the disk writes unless the disk falls behind by more than a ring's worth of blocks,
+ * in which case the tee waits for it. The file is bounded and the branch fails with an IOException if its
+ * backlog would exceed the bound. Blocked threads spin, yield and then park in the same way as in a
+ * {@link RingBufferChannel}.
  */
 public class TeeProcessor extends PipelineProcessor {
-    protected PipedWriter output2;
+    /**
+     * the default number of blocks in the ring
+     */
+    public final static int DEFAULT_WINDOW = 256;
+
+    /**
+     * the maximum number of chars in a block
+     */
+    public final static int BLOCK_SIZE = 4096;
+
+    /**
+     * the default maximum number of bytes a spilling branch may hold on disk
+     */
+    public final static long DEFAULT_SPILL_LIMIT = 1L << 30;
+
+    private final static int SPIN_LIMIT = 100;
+    private final static int YIELD_LIMIT = 200;
+
+    private final Block[] ring;
+    private final int mask;
+    private final List<Branch> branches;
+    /**
+     * the index of the next block to be published, only updated by the tee
+     */
+    private volatile long tail;
+    private volatile boolean writerClosed;
+    private volatile Thread waitingWriter;
 
     public TeeProcessor(Source source) throws IOException {
+        this(source, DEFAULT_WINDOW);
+    }
+
+    /**
+     * create a tee
+     * @param source the source of the input
+     * @param window the minimum number of blocks the ring can hold, rounded up to a power of two
+     * @throws IOException
+     */
+    public TeeProcessor(Source source, int window) throws IOException {
         super(source);
-        this.output2 = null;
+        if (window <= 1) {
+            throw new IllegalArgumentException("invalid window " + window);
+        }
+        int size = Integer.highestOneBit(window);
+        if (size < window) {
+            size <<= 1;
+        }
+        this.ring = new Block[size];
+        this.mask = size - 1;
+        this.branches = new ArrayList<Branch>();
+        this.tail = 0;
+        this.writerClosed = false;
     }
 
     /**
-     * TeeProcessor expects and will only accept two feed requests.
+     * connect a sink which consumes with policy {@link ConsumerPolicy#BLOCK}
      * @param sink
      * @throws IOException
      */
     public void feed(Sink sink) throws IOException
     {
-        if (output == null) {
-            super.feed(sink);
-        } else if (output2 == null) {
-            output2 = new PipedWriter();
-            sink.setInput(new PipedReader(output2));
-        } else {
-            throw new IOException("output already connected");
+        getBranch(ConsumerPolicy.BLOCK).feed(sink);
+    }
+
+    /**
+     * @param policy what to do when the sink falls behind. a branch with policy {@link ConsumerPolicy#SPILL}
+     * spills to the default temporary directory and may hold up to {@link #DEFAULT_SPILL_LIMIT} bytes
+     * @return a Source which feeds a sink with a copy of the input. the sink must be connected before the
+     * tee is started
+     */
+    public Source getBranch(ConsumerPolicy policy)
+    {
+        if (policy == ConsumerPolicy.SPILL) {
+            return getSpillingBranch(null, DEFAULT_SPILL_LIMIT);
         }
+        return newBranch(policy, null);
+    }
+
+    /**
+     * @param directory the directory in which to create the spill file or null to use the default
+     * temporary directory
+     * @param limit the maximum number of bytes of unread input the spill file may hold. each char takes
+     * two bytes
+     * @return a Source which feeds a sink with a copy of the input using policy {@link ConsumerPolicy#SPILL}.
+     * the sink must be connected before the tee is started
+     */
+    public Source getSpillingBranch(File directory, long limit)
+    {
+        return newBranch(ConsumerPolicy.SPILL, new SpillFile(directory, limit, ring.length));
+    }
+
+    private Source newBranch(final ConsumerPolicy policy, final SpillFile spill)
+    {
+        return new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                if (getState() != Thread.State.NEW) {
+                    throw new IOException("tee already started");
+                }
+                Branch branch = new Branch(policy, spill);
+                branches.add(branch);
+                sink.setInput(branch);
+            }
+        };
     }
 
-    public void setInput(PipedReader input) throws IOException {
+    /**
+     * @return the number of branches fed by this tee
+     */
+    public int getBranchCount()
+    {
+        return branches.size();
+    }
+
+    /**
+     * @param index the index of a branch in the order the sinks were connected
+     * @return the number of blocks the branch has dropped or sampled away. only meaningful once the branch
+     * has reached EOF
+     */
+    public long getDroppedCount(int index)
+    {
+        return branches.get(index).dropped;
+    }
+
+    public void setInput(Reader input) throws IOException {
         if (this.input != null) {
             throw new IOException("input already connected");
         }
@@ -67,24 +186,386 @@ public class TeeProcessor extends PipelineProcessor {
     }
 
     /**
-     * Copies the input stream to both output streams
-     * @throws RuntimeException if a second output has not been configured
+     * Calls {@link #processPipeline()}, signalling EOF to every branch when done and also closing the input
+     * if an exception occurred.
+     * @throws RuntimeException if the input or any output has not been configured
+     */
+    public void run() {
+        boolean excepted = false;
+
+        if (input == null || branches.isEmpty()) {
+            throw new RuntimeException("unconnected pipeline");
+        }
+        try {
+            processPipeline();
+        } catch (IOException ioe) {
+            excepted = true;
+        } finally {
+            writerClosed = true;
+            for (Branch branch : branches) {
+                LockSupport.unpark(branch.waitingReader);
+            }
+            if (excepted) {
+                try {
+                    input.close();
+                } catch (IOException ioe2) {
+                    // the input may be the source of the original exception
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the input stream to all the output streams
+     * @throws RuntimeException if no output has been configured
      */
     public void processPipeline() throws IOException
     {
-        if (output2 == null) {
+        if (branches.isEmpty()) {
             throw new RuntimeException("unconnected tee");
         }
+        char[] buffer = new char[BLOCK_SIZE];
+        int fill = 0;
+        int count = input.read(buffer, 0, BLOCK_SIZE);
+        while (count >= 0) {
+            fill += count;
+            // gather whatever input is already available before publishing
+            if (fill == BLOCK_SIZE || !input.ready()) {
+                int end = fill;
+                while (end > 0 && buffer[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0 && fill == BLOCK_SIZE) {
+                    // a line longer than a block
+                    end = fill;
+                }
+                if (end > 0) {
+                    char[] next = new char[BLOCK_SIZE];
+                    System.arraycopy(buffer, end, next, 0, fill - end);
+                    publish(buffer, end);
+                    buffer = next;
+                    fill = fill - end;
+                }
+            }
+            count = input.read(buffer, fill, BLOCK_SIZE - fill);
+        }
+        if (fill > 0) {
+            publish(buffer, fill);
+        }
+    }
 
-        try {
-            int next = input.read();
-            while (next != -1) {
-                output.write(next);
-                output2.write(next);
-                next = input.read();
+    private void publish(char[] chars, int length) throws IOException
+    {
+        long t = tail;
+        awaitSpace(t);
+        int slot = (int)t & mask;
+        if (t >= ring.length) {
+            spill(ring[slot]);
+        }
+        ring[slot] = new Block(chars, length, t);
+        tail = t + 1;
+        for (Branch branch : branches) {
+            Thread waiting = branch.waitingReader;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    /**
+     * hand a block which is about to be overwritten to the spill of every spilling branch which has not yet
+     * taken it. a branch whose spill has failed misses the block and fails when it reaches it
+     * @throws IOException if the thread is interrupted while waiting for a spill to make room
+     */
+    private void spill(Block block) throws IOException
+    {
+        for (Branch branch : branches) {
+            if (branch.spill != null && !branch.closed && branch.next <= block.sequence) {
+                branch.spill.offer(block);
+            }
+        }
+    }
+
+    /**
+     * wait until every open branch with policy BLOCK has taken the block whose slot the next block will use
+     * @throws IOException if every branch has been closed or the thread is interrupted
+     */
+    private void awaitSpace(long t) throws IOException
+    {
+        int spins = 0;
+        while (true) {
+            if (allClosed()) {
+                throw new IOException("Pipe closed");
+            }
+            long slowest = slowestBlockingCursor(t);
+            if (t - slowest < ring.length) {
+                return;
+            }
+            if (spins < SPIN_LIMIT) {
+                spins++;
+            } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                spins++;
+                Thread.yield();
+            } else {
+                waitingWriter = Thread.currentThread();
+                // recheck now that a branch which advances its cursor will unpark us
+                if (slowestBlockingCursor(t) == slowest && !allClosed()) {
+                    LockSupport.park(this);
+                }
+                waitingWriter = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private boolean allClosed()
+    {
+        for (Branch branch : branches) {
+            if (!branch.closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long slowestBlockingCursor(long t)
+    {
+        long slowest = t;
+        for (Branch branch : branches) {
+            if (!branch.closed && branch.policy == ConsumerPolicy.BLOCK) {
+                slowest = Math.min(slowest, branch.next);
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * a published block of chars. blocks are immutable so a branch which has taken one can keep reading it
+     * even after its slot in the ring has been reused
+     */
+    static class Block
+    {
+        final char[] chars;
+        final int length;
+        final long sequence;
+
+        Block(char[] chars, int length, long sequence)
+        {
+            this.chars = chars;
+            this.length = length;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * the consumer end of one branch of the tee
+     */
+    private class Branch extends Reader
+    {
+        final ConsumerPolicy policy;
+        /**
+         * the index of the next block this branch will take, only updated by the consumer
+         */
+        volatile long next;
+        volatile boolean closed;
+        volatile Thread waitingReader;
+        /**
+         * the number of blocks dropped or sampled away, only updated by the consumer
+         */
+        long dropped;
+        /**
+         * the spill holding blocks overwritten before a spilling branch read them or null
+         */
+        final SpillFile spill;
+        private long tailCache;
+        private Block current;
+        private int position;
+
+        Branch(ConsumerPolicy policy, SpillFile spill)
+        {
+            this.policy = policy;
+            this.spill = spill;
+            this.next = 0;
+            this.closed = false;
+            this.dropped = 0;
+            this.tailCache = 0;
+            this.current = null;
+            this.position = 0;
+        }
+
+        public int read() throws IOException
+        {
+            if (!nextChars()) {
+                return -1;
+            }
+            return current.chars[position++];
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChars()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current.chars, position, cbuf, off, count);
+            position += count;
+            return count;
+        }
+
+        public boolean ready() throws IOException
+        {
+            checkOpen();
+            return (current != null && position < current.length) || tail > next;
+        }
+
+        public void close() throws IOException
+        {
+            closed = true;
+            LockSupport.unpark(waitingWriter);
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        /**
+         * ensure there is a block with unread chars, taking the next block if needed
+         * @return false at EOF
+         */
+        private boolean nextChars() throws IOException
+        {
+            checkOpen();
+            while (current == null || position >= current.length) {
+                current = null;
+                if (!take()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * take the next block allowed by the policy
+         * @return false at EOF
+         */
+        private boolean take() throws IOException
+        {
+            long n = next;
+            if (policy == ConsumerPolicy.SAMPLE) {
+                long backlog = tail - n;
+                int stride = (backlog >= ring.length * 3 / 4 ? 4 : backlog >= ring.length / 2 ? 2 : 1);
+                while ((n & (stride - 1)) != 0 && n < tail - 1) {
+                    n++;
+                    dropped++;
+                }
+            }
+            while (true) {
+                if (!awaitData(n)) {
+                    next = n;
+                    if (spill != null) {
+                        spill.close();
+                    }
+                    return false;
+                }
+                Block block = ring[(int)n & mask];
+                if (block.sequence == n) {
+                    current = block;
+                    position = 0;
+                    break;
+                }
+                if (spill != null) {
+                    current = takeSpilled(n);
+                    position = 0;
+                    break;
+                }
+                // the block has been overwritten so skip to the middle of the ring
+                long resume = tail - ring.length / 2;
+                dropped += resume - n;
+                n = resume;
+            }
+            next = n + 1;
+            Thread waiting = waitingWriter;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+            return true;
+        }
+
+        /**
+         * take a block which was overwritten before this branch read it from the spill. the tee hands
+         * the block over before it overwrites it but may also hand over blocks which this branch took
+         * from the ring while they were being spilled so those are skipped
+         */
+        private Block takeSpilled(long n) throws IOException
+        {
+            while (true) {
+                Block block;
+                try {
+                    block = spill.poll();
+                } catch (IOException ioe) {
+                    spill.close();
+                    throw ioe;
+                }
+                if (block == null) {
+                    // the tee has handed the block over but we may not see it yet
+                    Thread.yield();
+                } else if (block.sequence == n) {
+                    return block;
+                } else if (block.sequence > n) {
+                    throw new IOException("spilled block " + n + " missing");
+                }
+            }
+        }
+
+        private void checkOpen() throws IOException
+        {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        /**
+         * wait until the block at the given index has been published or the tee has finished
+         * @return false at EOF
+         */
+        private boolean awaitData(long n) throws IOException
+        {
+            if (tailCache > n) {
+                return true;
+            }
+            int spins = 0;
+            while (true) {
+                // read the closed flag before the tail so that we cannot miss blocks
+                // published just before the tee finished
+                boolean finished = writerClosed;
+                tailCache = tail;
+                if (tailCache > n) {
+                    return true;
+                }
+                if (finished) {
+                    return false;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                } else if (spins < SPIN_LIMIT + YIELD_LIMIT) {
+                    spins++;
+                    Thread.yield();
+                } else {
+                    waitingReader = Thread.currentThread();
+                    if (tail == tailCache && !writerClosed) {
+                        LockSupport.park(this);
+                    }
+                    waitingReader = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                checkOpen();
             }
-        } finally {
-            output2.close();
         }
     }
 }
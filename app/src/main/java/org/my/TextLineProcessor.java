@@ -26,114 +26,516 @@ package org.my;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
 
 /**
  * A TextLineProcessor is a PipelineProcessor which transforms its input line by line, using
  * either LF or CR/LF as a line separator.
  *
- * Subclasses of TextLineProcessor must provide an implementation of method transform which accepts a line
- * of text as a String and returns a transformed version of the line as a String
+ * Subclasses of TextLineProcessor must override at least one of the two transform methods. Method
+ * {@link #transform(CharSequence, StringBuilder)} accepts a line of text as a CharSequence which is only
+ * valid for the duration of the call and either appends a transformed version of the line to an output
+ * buffer or reports that the line is unchanged. Method {@link #transform(String)} accepts a line of text
+ * as a String and returns a transformed version of the line as a String. The constructor notes which of
+ * the two the subclass overrides and the other one adapts its arguments and calls it. The pipeline always
+ * calls the CharSequence version so a subclass which overrides it avoids creating any Strings for lines
+ * which it does not change.<p/>
+ *
+ * When a TextLineProcessor feeds another TextLineProcessor the two are connected using a {@link LineChannel}.
+ * Lines are passed as records holding the line text and its terminator so the downstream processor does not
+ * need to parse its input again. Other sinks are fed a plain stream of chars.<p/>
+ *
+ * A transform method may throw a {@link LineRejectedException} when it cannot transform a line, for
+ * example a {@link MatchBudgetExceededException} when matching a line takes too long. The line is then
+ * written to the reject output obtained from {@link #getRejects()} if a sink has been connected to it.
+ * Otherwise it is passed on unchanged.<p/>
+ *
+ * A processor may also feed a copy of its output lines to an observing processor, such as a {@link Binder},
+ * which is not part of the main chain. See {@link LineTap}.
  */
 
 public abstract class TextLineProcessor extends PipelineProcessor {
+    /**
+     * the TextLineProcessor fed by this one or null if it feeds some other kind of sink
+     */
+    private TextLineProcessor downstream;
+
+    /**
+     * true if this processor has been fused into a {@link FusedLineProcessor}
+     */
+    private boolean fused;
+
+    /**
+     * the stream fed with rejected lines or null if no sink has been connected to the reject source
+     */
+    private Writer rejects;
+    private LineOutput rejectOutput;
+
+    /**
+     * the tap passing this processor's output lines to an observer or null if it has no observer
+     */
+    private LineTap tap;
+
+    /**
+     * true if this processor is fed by a {@link LineTap} and only observes lines. n.b. this is set while the
+     * superclass constructor runs so it must not be given an initializer
+     */
+    private boolean observer;
+
+    /**
+     * true if copies of this processor may be run in a {@link ParallelLineProcessor}
+     */
+    private boolean replicable;
+
+    /**
+     * true if the subclass overrides {@link #transform(CharSequence, StringBuilder)}
+     */
+    private final boolean transformsText;
+
+    /**
+     * true if the subclass overrides {@link #transform(String)}
+     */
+    private final boolean transformsStrings;
 
     public TextLineProcessor(Source source) throws IOException
     {
         super(source);
+        transformsText = overrides(CharSequence.class, StringBuilder.class);
+        transformsStrings = overrides(String.class);
+    }
+
+    /**
+     * @param parameterTypes the parameter types of one of the transform methods
+     * @return true if the transform method with those parameter types is declared by a subclass
+     */
+    private boolean overrides(Class<?>... parameterTypes)
+    {
+        try {
+            Class<?> declaringClass = getClass().getMethod("transform", parameterTypes).getDeclaringClass();
+            return declaringClass != TextLineProcessor.class;
+        } catch (NoSuchMethodException e) {
+            // cannot happen since both methods are declared by this class
+            return false;
+        }
+    }
+
+    /**
+     * connect to a downstream TextLineProcessor using a line channel and to any other sink using
+     * the default channel. both are obtained from {@link Channels}
+     */
+    protected Channel createChannel(Sink sink) throws IOException
+    {
+        if (sink instanceof TextLineProcessor) {
+            downstream = (TextLineProcessor)sink;
+            return Channels.createLineChannel();
+        }
+        return super.createChannel(sink);
+    }
+
+    /**
+     * @return a Source which feeds a sink with the lines whose transformation exceeded a match budget.
+     * the sink must be connected before the processor is started
+     */
+    public Source getRejects()
+    {
+        return new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                if (rejects != null) {
+                    throw new IOException("output already connected");
+                }
+                // the reject sink is not part of the chain of line processors used for fusion
+                Channel channel;
+                if (sink instanceof TextLineProcessor) {
+                    channel = Channels.createLineChannel();
+                } else {
+                    channel = Channels.createChannel();
+                }
+                rejects = channel.getWriter();
+                rejectOutput = lineOutput(rejects);
+                sink.setInput(channel.getReader());
+            }
+        };
+    }
+
+    /**
+     * @param policy what to do with lines when the observer falls behind
+     * @param capacity the number of lines which may be waiting for the observer
+     * @return a Source which feeds a copy of this processor's output lines to an observing processor.
+     * the observer must be connected before this processor is started
+     */
+    public LineTap getTap(ConsumerPolicy policy, int capacity)
+    {
+        return new LineTap(this, policy, capacity);
+    }
+
+    /**
+     * a processor which has been fused does nothing when run since its lines are transformed by
+     * the thread running the {@link FusedLineProcessor} or, for a replica, by a worker of the
+     * {@link ParallelLineProcessor}. an observer transforms its lines but does
+     * not write them anywhere
+     */
+    public void run()
+    {
+        if (observer) {
+            observe();
+        } else if (!fused) {
+            super.run();
+        }
+    }
+
+    private void observe()
+    {
+        StringBuilder builder = new StringBuilder();
+        try {
+            LineInput lines = getLineInput();
+            while (lines.nextLine()) {
+                builder.setLength(0);
+                try {
+                    transform(lines.getText(), builder);
+                } catch (LineRejectedException e) {
+                    reject(lines.getText(), lines.getTerminator());
+                }
+            }
+        } catch (IOException ioe) {
+            // nothing to do
+        } finally {
+            try {
+                // release the tap if we stopped early
+                input.close();
+            } catch (IOException ioe) {
+                // nothing to do
+            }
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+            closeRejects();
+        }
     }
 
     /**
      * reads successive lines of text from its input up to a CR/LF or LF separator (or to EOF),
-     * calling {@link #transform(String)} to allow the text line to be substituted and then
-     * writes the test line followedby the same line terminator.
+     * calling {@link #transform(CharSequence, StringBuilder)} to allow the text line to be substituted
+     * and then writes the test line followedby the same line terminator.
      * @throws IOException
      */
     public void processPipeline() throws IOException
     {
-        TextLine lineBuffer = new TextLine(input);
-        String text = lineBuffer.readText();
-        while (text != null) {
-            text = transform(text);
-            output.write(text);
-            if (lineBuffer.isCrLf()) {
-                output.write('\r');
-                output.write('\n');
-            } else if (lineBuffer.isLf()){
-                output.write('\n');
+        LineInput lines = getLineInput();
+        LineOutput lineOutput = getLineOutput();
+        StringBuilder builder = new StringBuilder();
+        try {
+            while (lines.nextLine()) {
+                CharSequence text = lines.getText();
+                builder.setLength(0);
+                try {
+                    if (transform(text, builder)) {
+                        text = builder;
+                    }
+                } catch (LineRejectedException e) {
+                    if (reject(text, lines.getTerminator())) {
+                        continue;
+                    }
+                }
+                lineOutput.writeLine(text, lines.getTerminator());
+                tap(text, lines.getTerminator());
             }
-            text = lineBuffer.readText();
+        } finally {
+            closeRejects();
+            closeTap();
         }
     }
 
     /**
-     * abstract method provided to allow subclasses to define how each text line istobe transformed
+     * write a line whose transformation was rejected to the reject output
+     * @param text the untransformed line
+     * @param terminator the line terminator
+     * @return true if the line was written or false if no reject sink is connected
+     * @throws IOException
+     */
+    boolean reject(CharSequence text, LineTerminator terminator) throws IOException
+    {
+        if (rejectOutput == null) {
+            return false;
+        }
+        rejectOutput.writeLine(text, terminator);
+        return true;
+    }
+
+    /**
+     * pass an output line to the observer if one is connected
+     */
+    void tap(CharSequence text, LineTerminator terminator)
+    {
+        if (tap != null) {
+            tap.offer(text, terminator);
+        }
+    }
+
+    /**
+     * signal end of input to the observer if one is connected
+     */
+    void closeTap()
+    {
+        if (tap != null) {
+            tap.close();
+        }
+    }
+
+    void setTap(LineTap tap) throws IOException
+    {
+        if (this.tap != null) {
+            throw new IOException("output already connected");
+        }
+        this.tap = tap;
+    }
+
+    void setObserver()
+    {
+        observer = true;
+    }
+
+    /**
+     * close the reject output if a sink is connected to it
+     */
+    void closeRejects()
+    {
+        if (rejects != null) {
+            try {
+                rejects.close();
+            } catch (IOException ioe) {
+                // the reject sink may already have closed its input
+            }
+        }
+    }
+
+    /**
+     * @return a view of the input as a sequence of lines
+     * @throws IOException
+     */
+    LineInput getLineInput() throws IOException
+    {
+        return (input instanceof LineInput ? (LineInput)input : new TextLine(input));
+    }
+
+    /**
+     * @return a view of the output which accepts a sequence of lines
+     */
+    LineOutput getLineOutput()
+    {
+        return lineOutput(output);
+    }
+
+    private static LineOutput lineOutput(Writer writer)
+    {
+        return (writer instanceof LineOutput ? (LineOutput)writer : new TextLineWriter(writer));
+    }
+
+    /**
+     * @return the TextLineProcessor fed by this one or null if it feeds some other kind of sink
+     */
+    TextLineProcessor getDownstream()
+    {
+        return downstream;
+    }
+
+    /**
+     * mark this processor as fused, or replicated, so that running it does nothing
+     */
+    void setFused()
+    {
+        fused = true;
+    }
+
+    boolean isFused()
+    {
+        return fused;
+    }
+
+    /**
+     * @return true if this processor transforms each line as soon as it is read and passes it on so that it
+     * can be fused
+     */
+    boolean isFusable()
+    {
+        return !observer;
+    }
+
+    /**
+     * declare whether copies of this processor may transform different lines at the same time in a
+     * {@link ParallelLineProcessor}. a processor is replicable if its transform depends only upon the line
+     * and upon state which is safely shared with the other replicas. by default a processor is not
+     * replicable. the pattern replacers and the binding replacer declare themselves replicable. a binder
+     * or binding inserter must not be declared replicable: which replica first meets a new value depends
+     * upon scheduling so the bindings created would too
+     * @param replicable true if the processor may be replicated
+     */
+    public void setReplicable(boolean replicable)
+    {
+        this.replicable = replicable;
+    }
+
+    /**
+     * @return true if copies of this processor may transform different lines at the same time in a
+     * {@link ParallelLineProcessor}
+     */
+    public boolean isReplicable()
+    {
+        return replicable;
+    }
+
+    /**
+     * transform a single text line into a String. unless it is overridden this is an adapter which calls
+     * {@link #transform(CharSequence, StringBuilder)}
      * @param line a line of text from th efile omitting any line terminator
-     * @return
+     * @return the transformed line or the original line if it is unchanged
+     * @throws UnsupportedOperationException if the subclass overrides neither transform method
      */
-    public abstract String transform(String line);
+    public String transform(String line)
+    {
+        if (!transformsText) {
+            throw new UnsupportedOperationException("no transform method implemented");
+        }
+        StringBuilder builder = new StringBuilder();
+        if (transform(line, builder)) {
+            return builder.toString();
+        }
+        return line;
+    }
+
+    /**
+     * transform a single text line without creating any Strings. unless it is overridden this is an
+     * adapter which calls {@link #transform(String)} and so creates a String for every line
+     * @param line a line of text from the file omitting any line terminator. the line is only valid until
+     * this method returns
+     * @param output an empty buffer to which the transformed line should be appended
+     * @return true if the transformed line was appended to output or false if the line is unchanged in which
+     * case anything appended to output is ignored
+     * @throws UnsupportedOperationException if the subclass overrides neither transform method
+     */
+    public boolean transform(CharSequence line, StringBuilder output)
+    {
+        if (!transformsStrings) {
+            throw new UnsupportedOperationException("no transform method implemented");
+        }
+        String text = line.toString();
+        String result = transform(text);
+        if (result == text) {
+            return false;
+        }
+        output.append(result);
+        return true;
+    }
 
     /**
      * private class used to read sucessive text lines from an input stream up to CR/LF,LF or EOF.
-     * The text is returned as a String and methods are provided to check the line termination.
+     * The input is read in bulk into a reusable window which is scanned for line terminators. The text
+     * is returned as a reusable LineText and methods are provided to check the line termination.
+     * A CR which is not followed by LF is part of the text and so is the char which follows it.
      */
 
-    private static class TextLine
+    private static class TextLine implements LineInput
     {
+        /**
+         * the number of chars read from the input in one block
+         */
+        private final static int WINDOW_SIZE = 8192;
+
         private Reader input;
+        private char[] window;
+        private int position;
+        private int limit;
+        private boolean isEOF;
+        private LineText text;
         private boolean isCrLf;
         private boolean isLf;
 
         public TextLine(Reader input) throws IOException
         {
             this.input = input;
+            this.window = new char[WINDOW_SIZE];
+            this.position = 0;
+            this.limit = 0;
+            this.isEOF = false;
+            this.text = new LineText(128);
             this.isCrLf = false;
             this.isLf = false;
         }
 
         /**
-         * reads and returns the next line of text from the input stream
-         * @return the text as a String or null if the input is at EOF
+         * reads the next line of text from the input stream into the reusable text buffer
+         * @return true if a line was read or false if the input is at EOF
          * @throws IOException
          */
-        public String readText() throws IOException
+        public boolean nextLine() throws IOException
         {
-            StringBuilder builder = new StringBuilder();
+            text.clear();
             isCrLf = false;
             isLf = false;
-            int next = input.read();
-
-            while (next >=  0) {
-                char c =(char)next;
-                if (c == '\r') {
-
-                    next = input.read();
-                    if (next >= 0 && ((char)next) == '\n') {
-                        isCrLf = true;
-                        return builder.toString();
-                    } else {
-                        builder.append(c);
-                        c = (char)next;
+
+            while (position < limit || fill()) {
+                // scan for the next CR or LF and add everything before it to the text
+                char[] chars = window;
+                int start = position;
+                int end = limit;
+                int next = start;
+                while (next < end) {
+                    char c = chars[next];
+                    if (c == '\n' || c == '\r') {
+                        break;
                     }
-                } else  if (c == '\n') {
+                    next++;
+                }
+                text.append(chars, start, next - start);
+                position = next;
+                if (next == end) {
+                    continue;
+                }
+                char c = chars[position++];
+                if (c == '\n') {
                     isLf = true;
-                    return builder.toString();
+                    return true;
+                }
+                // we have a CR so look at the following char
+                if (position >= limit && !fill()) {
+                    text.append(c);
+                    break;
                 }
-                // add this character to the text
-                builder.append(c);
-                next = input.read();
+                char following = window[position++];
+                if (following == '\n') {
+                    isCrLf = true;
+                    return true;
+                }
+                text.append(c);
+                text.append(following);
             }
-            String text = builder.toString();
-
             /**
-             * we may have been called at EOF in which case we need to return null
+             * we may have been called at EOF in which case we need to return false
+             * otherwise we have a final line with no LF at end
              */
-            if (text.length() == 0) {
-                return null;
-            }
-            // this can happen if we have a final line with no LF at end
+            return text.length() > 0;
+        }
+
+        public CharSequence getText()
+        {
             return text;
         }
 
+        public LineTerminator getTerminator()
+        {
+            if (isCrLf) {
+                return LineTerminator.CRLF;
+            } else if (isLf) {
+                return LineTerminator.LF;
+            } else {
+                return LineTerminator.NONE;
+            }
+        }
+
         /**
          * true if the current line is terminated by CR/LF otherwise false
          * @return
@@ -151,5 +553,63 @@ public abstract class TextLineProcessor extends PipelineProcessor {
         {
             return isLf;
         }
+
+        /**
+         * refill the window from the input. this is only called once the window has been consumed
+         * @return false if the input is at EOF
+         * @throws IOException
+         */
+        private boolean fill() throws IOException
+        {
+            if (isEOF) {
+                return false;
+            }
+            int count = input.read(window, 0, window.length);
+            if (count < 0) {
+                isEOF = true;
+                return false;
+            }
+            position = 0;
+            limit = count;
+            return true;
+        }
+    }
+
+    /**
+     * private class used to write successive text lines and their terminators to a char stream
+     */
+    private static class TextLineWriter implements LineOutput
+    {
+        private Writer output;
+        private char[] scratch;
+
+        public TextLineWriter(Writer output)
+        {
+            this.output = output;
+            this.scratch = new char[128];
+        }
+
+        public void writeLine(CharSequence text, LineTerminator terminator) throws IOException
+        {
+            int length = text.length();
+            if (text instanceof String) {
+                output.write((String)text);
+            } else if (text instanceof LineText) {
+                output.write(((LineText)text).getChars(), 0, length);
+            } else {
+                if (scratch.length < length) {
+                    scratch = new char[Math.max(length, scratch.length * 2)];
+                }
+                if (text instanceof StringBuilder) {
+                    ((StringBuilder)text).getChars(0, length, scratch, 0);
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        scratch[i] = text.charAt(i);
+                    }
+                }
+                output.write(scratch, 0, length);
+            }
+            terminator.write(output);
+        }
     }
 }
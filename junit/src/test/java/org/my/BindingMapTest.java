@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the concurrent binding map. Bindings must stay 1:1 when many threads race to bind the
+ * same values or claim the same identifiers and readers must never see a binding which is withdrawn.
+ */
+public class BindingMapTest
+{
+    private static final int THREADS = 8;
+    private static final int VALUES = 2000;
+
+    /**
+     * a new binding returns null, rebinding a bound value returns its identifier and binding a new
+     * value to a bound identifier is refused
+     */
+    @Test
+    public void testPutIfAbsent()
+    {
+        BindingMap bindings = new BindingMap();
+        assertNull(bindings.putIfAbsent("X1", "boy"));
+        assertEquals("X1", bindings.putIfAbsent("X2", "boy"));
+        assertNull(bindings.get("X2"));
+        try {
+            bindings.putIfAbsent("X1", "stick");
+            fail("a bound identifier should not be rebound");
+        } catch (IllegalArgumentException e) {
+            assertEquals("identifier X1 is already bound", e.getMessage());
+        }
+        // the refused value must not be left claimed
+        assertFalse(bindings.appendIdentifier("stick", 0, 5, null));
+        assertNull(bindings.putIfAbsent("X2", "stick"));
+
+        assertEquals("boy", bindings.get("X1"));
+        assertEquals("stick", bindings.get("X2"));
+        StringBuilder builder = new StringBuilder();
+        assertTrue(bindings.appendIdentifier("the stick", 4, 9, builder));
+        assertEquals("X2", builder.toString());
+        assertTrue(bindings.appendValue("${X1}", 2, 4, builder));
+        assertEquals("X2boy", builder.toString());
+        assertFalse(bindings.appendValue("X3", 0, 2, builder));
+        assertEquals(2, count(bindings));
+    }
+
+    /**
+     * every thread binds every value, each proposing its own identifier. each value must end up with
+     * exactly one identifier and every thread must be told the same one
+     * @throws Exception
+     */
+    @Test
+    public void testRaceToBindValues() throws Exception
+    {
+        final BindingMap bindings = new BindingMap();
+        final String[][] results = new String[THREADS][VALUES];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    awaitQuietly(start);
+                    for (int v = 0; v < VALUES; v++) {
+                        String identifier = "T" + thread + "_" + v;
+                        String existing = bindings.putIfAbsent(identifier, "value" + v);
+                        results[thread][v] = (existing == null ? identifier : existing);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        join(threads);
+
+        for (int v = 0; v < VALUES; v++) {
+            String identifier = results[0][v];
+            for (int t = 1; t < THREADS; t++) {
+                assertEquals(identifier, results[t][v]);
+            }
+            assertEquals("value" + v, bindings.get(identifier));
+        }
+        assertEquals(VALUES, count(bindings));
+    }
+
+    /**
+     * every thread tries to bind its own value to each identifier. exactly one thread must win each
+     * identifier, the losers must be refused and none of their values may remain claimed
+     * @throws Exception
+     */
+    @Test
+    public void testRaceToClaimIdentifiers() throws Exception
+    {
+        final BindingMap bindings = new BindingMap();
+        final AtomicInteger won = new AtomicInteger();
+        final AtomicInteger refused = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    awaitQuietly(start);
+                    for (int v = 0; v < VALUES; v++) {
+                        try {
+                            if (bindings.putIfAbsent("X" + v, "T" + thread + "_" + v) == null) {
+                                won.incrementAndGet();
+                            }
+                        } catch (IllegalArgumentException e) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        join(threads);
+
+        assertEquals(VALUES, won.get());
+        assertEquals(VALUES * (THREADS - 1), refused.get());
+        assertEquals(VALUES, count(bindings));
+        for (int v = 0; v < VALUES; v++) {
+            String value = bindings.get("X" + v);
+            int claimed = 0;
+            for (int t = 0; t < THREADS; t++) {
+                String candidate = "T" + t + "_" + v;
+                if (bindings.appendIdentifier(candidate, 0, candidate.length(), null)) {
+                    assertEquals(candidate, value);
+                    claimed++;
+                }
+            }
+            assertEquals(1, claimed);
+        }
+    }
+
+    /**
+     * readers running alongside racing writers must only ever see bindings which agree in both
+     * directions and which are never withdrawn
+     * @throws Exception
+     */
+    @Test
+    public void testReadersSeeConsistentBindings() throws Exception
+    {
+        final BindingMap bindings = new BindingMap();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            if (t % 2 == 0) {
+                threads[t] = new Thread() {
+                    public void run() {
+                        awaitQuietly(start);
+                        for (int v = 0; v < VALUES; v++) {
+                            try {
+                                // writers contend for both the identifier and the value
+                                bindings.putIfAbsent("X" + ((v + thread) % VALUES), "value" + v);
+                            } catch (IllegalArgumentException e) {
+                                // another writer won the identifier
+                            }
+                        }
+                    }
+                };
+            } else {
+                threads[t] = new Thread() {
+                    public void run() {
+                        awaitQuietly(start);
+                        StringBuilder builder = new StringBuilder();
+                        for (int pass = 0; pass < 5; pass++) {
+                            for (int v = 0; v < VALUES; v++) {
+                                String value = bindings.get("X" + v);
+                                if (value == null) {
+                                    continue;
+                                }
+                                builder.setLength(0);
+                                if (!bindings.appendIdentifier(value, 0, value.length(), builder)
+                                        || !builder.toString().equals("X" + v)
+                                        || !value.equals(bindings.get("X" + v))) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+            threads[t].start();
+        }
+        start.countDown();
+        join(threads);
+        assertEquals(0, failures.get());
+
+        Set<String> values = new HashSet<String>();
+        Iterator<String> iterator = bindings.iterator();
+        while (iterator.hasNext()) {
+            String identifier = iterator.next();
+            String value = bindings.get(identifier);
+            assertTrue(values.add(value));
+            StringBuilder builder = new StringBuilder();
+            assertTrue(bindings.appendIdentifier(value, 0, value.length(), builder));
+            assertEquals(identifier, builder.toString());
+        }
+    }
+
+    private static int count(AbstractBindingMap bindings)
+    {
+        int count = 0;
+        Iterator<String> iterator = bindings.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void join(Thread[] threads) throws InterruptedException
+    {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the binding replacer in deferred mode. A line which refers to a binding established by a
+ * later line must be held back until the binding exists, without reordering the output, unless the
+ * pending buffer fills up or the input ends first.
+ */
+public class BindingReplacerTest
+{
+    /**
+     * a forward reference is resolved once the binder reaches the line which binds it and the lines
+     * held behind it keep their order and terminators
+     * @throws Exception
+     */
+    @Test
+    public void testForwardReferenceResolved() throws Exception
+    {
+        String input = "${X1} was seen first\r\n" +
+                "plain line\n" +
+                "${X2} then ${X1}\n" +
+                "the boy threw the stick\n" +
+                "after ${X1}";
+        String expected = "boy was seen first\r\n" +
+                "plain line\n" +
+                "stick then boy\n" +
+                "the boy threw the stick\n" +
+                "after boy";
+        assertEquals(expected, run(input, 10, BindingReplacer.UnboundPolicy.KEEP)[0]);
+    }
+
+    /**
+     * when the pending buffer overflows the first pending line is released with its unbound references
+     * kept, without waiting for the end of the input, and the lines behind it are checked again
+     * @throws Exception
+     */
+    @Test
+    public void testPendingLimit() throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        final LineChannel channel = new LineChannel(16);
+        BindingReplacer replacer = new BindingReplacer(bindings, new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                sink.setInput(channel.getReader());
+            }
+        });
+        replacer.setDeferred(2);
+        CharSequenceWriter writer = new CharSequenceWriter(replacer);
+        replacer.start();
+        writer.start();
+
+        Writer input = channel.getWriter();
+        input.write("${X1} one\ntwo\nthree\n");
+        // the third line overflows the buffer so all three lines are released while the input is open
+        String released = "${X1} one\ntwo\nthree\n";
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.length() < released.length() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(released, writer.toString());
+
+        bindings.putIfAbsent("X1", "boy");
+        input.write("${X1} four\n");
+        input.close();
+        replacer.join();
+        writer.join();
+        assertEquals(released + "boy four\n", writer.toString());
+    }
+
+    /**
+     * references which are still unbound at the end of the input are handled by the unbound policy, here
+     * by passing the line to the reject output
+     * @throws Exception
+     */
+    @Test
+    public void testUnresolvedAtEndRejected() throws Exception
+    {
+        String input = "${X9} never bound\n" +
+                "the boy\n" +
+                "${X1} is bound\n";
+        String[] output = run(input, 10, BindingReplacer.UnboundPolicy.REJECT);
+        assertEquals("the boy\nboy is bound\n", output[0]);
+        assertEquals("${X9} never bound\n", output[1]);
+
+        output = run(input, 10, BindingReplacer.UnboundPolicy.KEEP);
+        assertEquals("${X9} never bound\nthe boy\nboy is bound\n", output[0]);
+        assertEquals("", output[1]);
+    }
+
+    /**
+     * text which only looks like a reference is passed on unchanged and never held back
+     * @throws Exception
+     */
+    @Test
+    public void testMalformedReferences() throws Exception
+    {
+        String input = "${} ${X} ${X01} ${1} $X1 {X1} ${X1\n" +
+                "the boy\n";
+        assertEquals(input, run(input, 1, BindingReplacer.UnboundPolicy.REJECT)[0]);
+    }
+
+    @Test
+    public void testInvalidPendingLimit() throws Exception
+    {
+        BindingReplacer replacer = new BindingReplacer(new BindingMap(), new CharSequenceReader(""));
+        try {
+            replacer.setDeferred(-1);
+            fail("a negative pending limit should be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * run a binder binding "the xxx" to Xn followed by a deferred binding replacer
+     * @return the replacer's output and rejected text
+     */
+    private static String[] run(String input, int maxPending, BindingReplacer.UnboundPolicy policy) throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        CharSequenceReader reader = new CharSequenceReader(input);
+        Binder binder = new Binder("the ([A-Za-z]+)", "X", bindings, reader);
+        BindingReplacer replacer = new BindingReplacer(bindings, binder);
+        replacer.setDeferred(maxPending);
+        replacer.setUnboundPolicy(policy);
+        CharSequenceWriter writer = new CharSequenceWriter(replacer);
+        CharSequenceWriter rejects = new CharSequenceWriter(replacer.getRejects());
+        Thread[] threads = { reader, binder, replacer, writer, rejects };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new String[] { writer.toString(), rejects.toString() };
+    }
+}
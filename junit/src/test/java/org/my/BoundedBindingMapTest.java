@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the bounded binding map. The least recently used bindings must be evicted when a limit is
+ * exceeded or their time to live elapses and a frozen copy must hold exactly the retained bindings.
+ */
+public class BoundedBindingMapTest
+{
+    /**
+     * adding a binding beyond the limit evicts the least recently used one, where looking up either
+     * direction of a binding or binding its value again counts as a use
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction()
+    {
+        BoundedBindingMap bindings = new BoundedBindingMap(3);
+        assertNull(bindings.putIfAbsent("X1", "boy"));
+        assertNull(bindings.putIfAbsent("X2", "stick"));
+        assertNull(bindings.putIfAbsent("X3", "dog"));
+        // use X1 by identifier and X2 by value so that X3 is the eldest
+        assertEquals("boy", bindings.get("X1"));
+        assertEquals("X2", bindings.putIfAbsent("X9", "stick"));
+        assertNull(bindings.putIfAbsent("X4", "cat"));
+        assertEquals(3, bindings.size());
+        assertEquals(1, bindings.getEvictionCount());
+        assertNull(bindings.get("X3"));
+        assertFalse(bindings.appendIdentifier("dog", 0, 3, null));
+
+        StringBuilder builder = new StringBuilder();
+        assertTrue(bindings.appendIdentifier("a boy", 2, 5, builder));
+        assertEquals("X1", builder.toString());
+        assertNull(bindings.putIfAbsent("X5", "mat"));
+        // X2 was the eldest once X1 was used
+        assertNull(bindings.get("X2"));
+        assertEquals("boy", bindings.get("X1"));
+        assertEquals(2, bindings.getEvictionCount());
+        // an evicted identifier may be bound again
+        assertNull(bindings.putIfAbsent("X3", "rug"));
+    }
+
+    /**
+     * the char limit counts identifiers and values and never evicts the binding just established
+     */
+    @Test
+    public void testCharLimit()
+    {
+        BoundedBindingMap bindings = new BoundedBindingMap(100, 12, 0, TimeUnit.SECONDS);
+        bindings.putIfAbsent("X1", "abcd");
+        bindings.putIfAbsent("X2", "efgh");
+        assertEquals(2, bindings.size());
+        bindings.putIfAbsent("X3", "ij");
+        assertEquals(2, bindings.size());
+        assertNull(bindings.get("X1"));
+        bindings.putIfAbsent("X4", "a value longer than the limit");
+        assertEquals(1, bindings.size());
+        assertEquals("a value longer than the limit", bindings.get("X4"));
+        assertEquals(3, bindings.getEvictionCount());
+    }
+
+    /**
+     * a binding expires once its time to live has elapsed since it was last used
+     * @throws Exception
+     */
+    @Test
+    public void testTimeToLive() throws Exception
+    {
+        BoundedBindingMap bindings = new BoundedBindingMap(100, Long.MAX_VALUE, 400, TimeUnit.MILLISECONDS);
+        bindings.putIfAbsent("X1", "boy");
+        bindings.putIfAbsent("X2", "stick");
+        Thread.sleep(250);
+        assertEquals("stick", bindings.get("X2"));
+        Thread.sleep(250);
+        assertNull(bindings.get("X1"));
+        assertEquals("stick", bindings.get("X2"));
+        assertEquals(1, bindings.getEvictionCount());
+        Thread.sleep(450);
+        assertEquals(0, bindings.size());
+        assertFalse(bindings.iterator().hasNext());
+    }
+
+    /**
+     * an evicted value is given a new identifier when it is bound again and binders sharing a prefix
+     * never reissue an evicted identifier
+     */
+    @Test
+    public void testEvictedIdentifiersNotReissued()
+    {
+        BoundedBindingMap bindings = new BoundedBindingMap(2);
+        IdentifierAllocator first = bindings.createAllocator("X");
+        IdentifierAllocator second = bindings.createAllocator("X");
+        String boy = first.bind("boy");
+        String stick = second.bind("stick");
+        String dog = first.bind("dog");
+        assertNull(bindings.get(boy));
+        String again = second.bind("boy");
+        assertFalse(again.equals(boy));
+        assertFalse(again.equals(stick));
+        assertFalse(again.equals(dog));
+        assertEquals("boy", bindings.get(again));
+    }
+
+    /**
+     * a frozen copy holds the retained bindings and is unaffected by later evictions
+     */
+    @Test
+    public void testFreeze()
+    {
+        BoundedBindingMap bindings = new BoundedBindingMap(3);
+        for (int i = 1; i <= 5; i++) {
+            bindings.putIfAbsent("X" + i, "value" + i);
+        }
+        FrozenBindingMap frozen = bindings.freeze();
+        bindings.putIfAbsent("X6", "value6");
+        bindings.putIfAbsent("X7", "value7");
+
+        assertNull(frozen.get("X2"));
+        assertNull(frozen.get("X6"));
+        for (int i = 3; i <= 5; i++) {
+            assertEquals("value" + i, frozen.get("X" + i));
+        }
+        int count = 0;
+        Iterator<String> iterator = frozen.iterator();
+        while (iterator.hasNext()) {
+            assertTrue(iterator.next().compareTo("X3") >= 0);
+            count++;
+        }
+        assertEquals(3, count);
+        assertNull(bindings.get("X3"));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+
+package org.my;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the flush policies of the channel file writer. The writer is fed through a channel which
+ * the test writes directly so that the file can be checked while the input is still open.
+ */
+public class ChannelFileWriterTest
+{
+    private File file;
+    private Writer input;
+
+    @Before
+    public void createFile() throws IOException
+    {
+        file = File.createTempFile("channel", ".txt");
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    /**
+     * by default nothing is written until the input is closed
+     * @throws Exception
+     */
+    @Test
+    public void testNoFlushUntilClosed() throws Exception
+    {
+        ChannelFileWriter writer = createWriter(null);
+        writer.start();
+        input.write("the boy threw the stick\n");
+        Thread.sleep(200);
+        assertEquals("", read());
+        input.close();
+        writer.join();
+        assertEquals("the boy threw the stick\n", read());
+    }
+
+    /**
+     * the buffer is flushed once the byte count is reached and what follows is held back until the
+     * count is reached again or the input is closed
+     * @throws Exception
+     */
+    @Test
+    public void testFlushBytes() throws Exception
+    {
+        ChannelFileWriter writer = createWriter(null);
+        writer.setFlushBytes(10);
+        writer.start();
+        input.write("0123456789ab");
+        awaitLength(12);
+        assertEquals("0123456789ab", read());
+        input.write("cd");
+        Thread.sleep(200);
+        assertEquals("0123456789ab", read());
+        input.close();
+        writer.join();
+        assertEquals("0123456789abcd", read());
+    }
+
+    /**
+     * a block which arrives after the interval has elapsed is flushed along with anything held back
+     * before it
+     * @throws Exception
+     */
+    @Test
+    public void testFlushInterval() throws Exception
+    {
+        ChannelFileWriter writer = createWriter(null);
+        writer.setFlushInterval(100);
+        writer.start();
+        input.write("abc");
+        Thread.sleep(300);
+        input.write("def");
+        awaitLength(6);
+        assertEquals("abcdef", read());
+        input.close();
+        writer.join();
+        assertEquals("abcdef", read());
+    }
+
+    /**
+     * forcing each flush leaves the file contents unchanged. the byte count applies to the encoded
+     * bytes not the chars
+     * @throws Exception
+     */
+    @Test
+    public void testForce() throws Exception
+    {
+        Charset utf8 = Charset.forName("UTF-8");
+        ChannelFileWriter writer = createWriter(utf8);
+        writer.setFlushBytes(4);
+        writer.setForce(true);
+        writer.start();
+        // two chars encoded as four bytes
+        input.write("\u00e9\u00e8");
+        awaitLength(4);
+        input.write("ok\n");
+        input.close();
+        writer.join();
+        assertEquals("\u00e9\u00e8ok\n", new String(readBytes(), "UTF-8"));
+    }
+
+    /**
+     * @param charset the charset for the writer or null for the default single byte encoding
+     * @return a writer for the test file fed through a channel whose writer is saved as the test input
+     */
+    private ChannelFileWriter createWriter(Charset charset) throws IOException
+    {
+        final Channel channel = Channels.createChannel();
+        input = channel.getWriter();
+        Source source = new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                sink.setInput(channel.getReader());
+            }
+        };
+        if (charset == null) {
+            return new ChannelFileWriter(file.getPath(), source);
+        }
+        return new ChannelFileWriter(file.getPath(), charset, source);
+    }
+
+    /**
+     * wait until the file has at least the given length
+     */
+    private void awaitLength(long length) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (file.length() < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.length() >= length);
+    }
+
+    private String read() throws IOException
+    {
+        return new String(readBytes(), "ISO-8859-1");
+    }
+
+    private byte[] readBytes() throws IOException
+    {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int)file.length()];
+            int count = 0;
+            while (count < bytes.length) {
+                int read = stream.read(bytes, count, bytes.length - count);
+                if (read < 0) {
+                    break;
+                }
+                count += read;
+            }
+            return bytes;
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the compact binding map. Its behaviour must match the concurrent binding map for any
+ * identifier, however it splits into a prefix and an index, while its tables and arena grow.
+ */
+public class CompactBindingMapTest
+{
+    /**
+     * identifiers without an index, with leading zeros or with more digits than an index can hold
+     * are returned exactly as they were bound
+     */
+    @Test
+    public void testIdentifierForms()
+    {
+        String[] identifiers = { "X1", "X01", "X001", "X0", "X", "DET42", "42", "0", "X1234567890",
+                "X123456789", "a1b2", "" };
+        CompactBindingMap bindings = new CompactBindingMap(4);
+        for (int i = 0; i < identifiers.length; i++) {
+            assertNull(bindings.putIfAbsent(identifiers[i], "value" + i));
+        }
+        assertEquals(identifiers.length, bindings.size());
+        for (int i = 0; i < identifiers.length; i++) {
+            String value = "value" + i;
+            assertEquals(value, bindings.get(identifiers[i]));
+            StringBuilder builder = new StringBuilder("<");
+            assertTrue(bindings.appendIdentifier("[" + value + "]", 1, value.length() + 1, builder));
+            assertEquals("<" + identifiers[i], builder.toString());
+            builder.setLength(0);
+            assertTrue(bindings.appendValue("${" + identifiers[i] + "}", 2, identifiers[i].length() + 2, builder));
+            assertEquals(value, builder.toString());
+        }
+        assertNull(bindings.get("X2"));
+        assertNull(bindings.get("X00"));
+        assertFalse(bindings.appendValue("X0001", 0, 5, null));
+        Iterator<String> iterator = bindings.iterator();
+        for (String identifier : identifiers) {
+            assertEquals(identifier, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * rebinding a value returns its identifier and binding a new value to a bound identifier is refused
+     */
+    @Test
+    public void testPutIfAbsent()
+    {
+        CompactBindingMap bindings = new CompactBindingMap();
+        assertNull(bindings.putIfAbsent("X1", "boy"));
+        assertEquals("X1", bindings.putIfAbsent("X2", "boy"));
+        try {
+            bindings.putIfAbsent("X1", "stick");
+            fail("a bound identifier should not be rebound");
+        } catch (IllegalArgumentException e) {
+            assertEquals("identifier X1 is already bound", e.getMessage());
+        }
+        assertNull(bindings.putIfAbsent("X2", "stick"));
+        assertEquals(2, bindings.size());
+        assertEquals("stick", bindings.get("X2"));
+    }
+
+    /**
+     * apply the same random bindings to a compact map and a concurrent map, starting small so that
+     * the compact map's tables grow and its values spread over several arena chunks
+     */
+    @Test
+    public void testMatchesBindingMap()
+    {
+        Random random = new Random(17);
+        CompactBindingMap compact = new CompactBindingMap(16);
+        BindingMap reference = new BindingMap();
+        String[] prefixes = { "X", "Y", "DET", "N0" };
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            String identifier = prefixes[random.nextInt(prefixes.length)] + random.nextInt(30000);
+            value.setLength(0);
+            // long values push the arena across chunk boundaries
+            int length = 1 + random.nextInt(random.nextInt(10) == 0 ? 200 : 8);
+            for (int j = 0; j < length; j++) {
+                value.append((char)('a' + random.nextInt(4)));
+            }
+            String expected = put(reference, identifier, value.toString());
+            assertEquals(expected, put(compact, identifier, value.toString()));
+        }
+        int count = 0;
+        Iterator<String> iterator = reference.iterator();
+        while (iterator.hasNext()) {
+            String identifier = iterator.next();
+            String bound = reference.get(identifier);
+            assertEquals(bound, compact.get(identifier));
+            StringBuilder builder = new StringBuilder();
+            assertTrue(compact.appendIdentifier(bound, 0, bound.length(), builder));
+            assertEquals(identifier, builder.toString());
+            count++;
+        }
+        assertEquals(count, compact.size());
+    }
+
+    /**
+     * lookups running while the map grows must find every binding published before they started
+     * @throws Exception
+     */
+    @Test
+    public void testLookupsDuringGrowth() throws Exception
+    {
+        final CompactBindingMap bindings = new CompactBindingMap(16);
+        final int total = 50000;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread reader = new Thread() {
+            public void run() {
+                StringBuilder builder = new StringBuilder();
+                int seen = 0;
+                while (seen < total) {
+                    int published = bindings.size();
+                    for (int i = Math.max(0, published - 100); i < published; i++) {
+                        String value = "value" + i;
+                        builder.setLength(0);
+                        if (!bindings.appendIdentifier(value, 0, value.length(), builder)
+                                || !builder.toString().equals("X" + i)
+                                || !value.equals(bindings.get("X" + i))) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    seen = published;
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < total; i++) {
+            bindings.putIfAbsent("X" + i, "value" + i);
+        }
+        reader.join();
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * @return the identifier the map reports for the value, null for a new binding or "refused" if
+     * the identifier was already bound
+     */
+    private static String put(AbstractBindingMap bindings, String identifier, String value)
+    {
+        try {
+            return bindings.putIfAbsent(identifier, value);
+        } catch (IllegalArgumentException e) {
+            return "refused";
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the frozen binding map. A frozen copy must answer every lookup the same way as the map it
+ * was copied from, iterate in sorted order and refuse new bindings.
+ */
+public class FrozenBindingMapTest
+{
+    /**
+     * freeze each kind of mutable map and compare lookups in both directions
+     */
+    @Test
+    public void testFreezeMatchesSource()
+    {
+        AbstractBindingMap[] sources = { new BindingMap(), new CompactBindingMap(16), new BoundedBindingMap(10000) };
+        for (AbstractBindingMap source : sources) {
+            for (int i = 0; i < 500; i++) {
+                source.putIfAbsent("X" + (i * 7919 % 500), "value" + i);
+            }
+            FrozenBindingMap frozen = source.freeze();
+            assertEquals(500, frozen.size());
+            for (int i = 0; i < 500; i++) {
+                String identifier = "X" + (i * 7919 % 500);
+                String value = "value" + i;
+                assertEquals(value, frozen.get(identifier));
+                StringBuilder builder = new StringBuilder();
+                assertTrue(frozen.appendIdentifier("(" + value + ")", 1, value.length() + 1, builder));
+                assertEquals(identifier, builder.toString());
+                builder.setLength(0);
+                assertTrue(frozen.appendValue("${" + identifier + "}", 2, identifier.length() + 2, builder));
+                assertEquals(value, builder.toString());
+            }
+            assertNull(frozen.get("X500"));
+            assertFalse(frozen.appendIdentifier("value500", 0, 8, null));
+            assertFalse(frozen.appendValue("Y1", 0, 2, null));
+        }
+    }
+
+    /**
+     * identifiers are iterated and indexed in sorted order with their values carried alongside
+     */
+    @Test
+    public void testSortedOrder()
+    {
+        BindingMap bindings = new BindingMap();
+        String[] identifiers = { "X10", "X2", "Y1", "X1", "A7" };
+        for (String identifier : identifiers) {
+            bindings.putIfAbsent(identifier, "v" + identifier);
+        }
+        FrozenBindingMap frozen = bindings.freeze();
+        String[] sorted = { "A7", "X1", "X10", "X2", "Y1" };
+        Iterator<String> iterator = frozen.iterator();
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(sorted[i], iterator.next());
+            assertEquals(sorted[i], frozen.getIdentifier(i));
+            assertEquals("v" + sorted[i], frozen.getValue(i));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * a frozen map is unaffected by later changes to its source, refuses new bindings and is its
+     * own frozen copy
+     */
+    @Test
+    public void testImmutable()
+    {
+        BindingMap bindings = new BindingMap();
+        bindings.putIfAbsent("X1", "boy");
+        FrozenBindingMap frozen = bindings.freeze();
+        bindings.putIfAbsent("X2", "stick");
+        assertNull(frozen.get("X2"));
+        assertEquals(1, frozen.size());
+        try {
+            frozen.putIfAbsent("X3", "dog");
+            fail("a frozen map should refuse new bindings");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("binding map is frozen", e.getMessage());
+        }
+        assertTrue(frozen.freeze() == frozen);
+        assertEquals(0, new BindingMap().freeze().size());
+    }
+
+    /**
+     * a binding replacer resolves references against a frozen map in the same way as against the
+     * map it was copied from
+     * @throws Exception
+     */
+    @Test
+    public void testReplacementPhase() throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        bindings.putIfAbsent("X1", "boy");
+        bindings.putIfAbsent("X2", "stick");
+        FrozenBindingMap frozen = bindings.freeze();
+        CharSequenceReader reader = new CharSequenceReader("a ${X1} broke a ${X2} with ${X3}\n");
+        BindingReplacer replacer = new BindingReplacer(frozen, reader);
+        CharSequenceWriter writer = new CharSequenceWriter(replacer);
+        reader.start();
+        replacer.start();
+        writer.start();
+        reader.join();
+        replacer.join();
+        writer.join();
+        assertEquals("a boy broke a stick with ${X3}\n", writer.toString());
+    }
+}
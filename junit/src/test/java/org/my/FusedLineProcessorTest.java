@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests which check that a fused chain of line processors produces the same output, rejects and
+ * bindings as the same chain run with one thread per processor and that either transform method may
+ * be overridden.
+ */
+public class FusedLineProcessorTest
+{
+    private static final String INPUT;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        builder.append("the boy threw the stick for the dog to catch\n");
+        builder.append("a ${X1} broke a ${X2} with a ${X3}\r\n");
+        builder.append("\n");
+        for (int i = 0; i < 300; i++) {
+            builder.append('z');
+        }
+        builder.append("\n");
+        builder.append("the cat sat on the mat\n");
+        builder.append("${X4} and ${X5} are near the dog\r\n");
+        builder.append("no terminator on the last boy");
+        INPUT = builder.toString();
+    }
+
+    /**
+     * run the test chain with each processor in its own thread and then fused into one thread
+     * and compare the outputs, the rejected lines and the resulting bindings
+     * @throws Exception
+     */
+    @Test
+    public void testFusedMatchesThreaded() throws Exception
+    {
+        BindingMap threadedBindings = new BindingMap();
+        String[] threaded = run(threadedBindings, false);
+        BindingMap fusedBindings = new BindingMap();
+        String[] fused = run(fusedBindings, true);
+
+        assertEquals(threaded[0], fused[0]);
+        assertEquals(threaded[1], fused[1]);
+        assertEquals(describe(threadedBindings), describe(fusedBindings));
+
+        assertEquals("the girl threw the stick for the dog to catch\n" +
+                "a girl broke a stick with a dog\r\n" +
+                "\n" +
+                "the cat sat on the rug\n" +
+                "cat and rug are near the dog\r\n" +
+                "no terminator on the last girl", fused[0]);
+        // the long line exceeds the budget of the pattern replacer and skips the processors after it
+        assertEquals(300 + 1, fused[1].length());
+        assertEquals("[X1 boy, X2 stick, X3 dog, X4 cat, X5 mat, X6 last]", describe(fusedBindings));
+    }
+
+    /**
+     * a fused chain never replaces a reference to an identifier which is only bound on a later line
+     * @throws Exception
+     */
+    @Test
+    public void testLaterBindingNotSeen() throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        CharSequenceReader reader = new CharSequenceReader("${X1} first\nthe boy\n${X1} second\n");
+        Binder binder = new Binder("the ([A-Za-z]+)", "X", bindings, reader);
+        BindingReplacer replacer = new BindingReplacer(bindings, binder);
+        CharSequenceWriter writer = new CharSequenceWriter(replacer);
+        FusedLineProcessor fused = new FusedLineProcessor(binder);
+        assertEquals(2, fused.getStageCount());
+        reader.start();
+        fused.start();
+        writer.start();
+        reader.join();
+        fused.join();
+        writer.join();
+        assertEquals("${X1} first\nthe boy\nboy second\n", writer.toString());
+    }
+
+    /**
+     * a processor which has been started, which is already fused or which holds lines back cannot
+     * be fused
+     * @throws Exception
+     */
+    @Test
+    public void testUnfusableChains() throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        CharSequenceReader reader = new CharSequenceReader("");
+        PatternReplacer first = new PatternReplacer("a", "b", reader);
+        BindingReplacer replacer = new BindingReplacer(bindings, first);
+        replacer.setDeferred(4);
+        new CharSequenceWriter(replacer);
+        try {
+            new FusedLineProcessor(first);
+            fail("a deferred binding replacer should not be fused");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(first.isFused());
+        replacer.setDeferred(0);
+        new FusedLineProcessor(first);
+        try {
+            new FusedLineProcessor(replacer);
+            fail("a fused processor should not be fused again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * a processor which only overrides the String transform method is adapted to the CharSequence
+     * one used by the pipeline, a processor which only overrides the CharSequence method is adapted
+     * the other way and a processor which overrides neither refuses to transform
+     * @throws Exception
+     */
+    @Test
+    public void testStringTransform() throws Exception
+    {
+        CharSequenceReader reader = new CharSequenceReader("the boy\nno change\r\nthe dog");
+        TextLineProcessor upper = new TextLineProcessor(reader) {
+            public String transform(String line)
+            {
+                return (line.startsWith("the ") ? line.toUpperCase() : line);
+            }
+        };
+        PatternReplacer boys = new PatternReplacer("BOY", "GIRL", upper);
+        CharSequenceWriter writer = new CharSequenceWriter(boys);
+        FusedLineProcessor fused = new FusedLineProcessor(upper);
+        reader.start();
+        fused.start();
+        writer.start();
+        reader.join();
+        fused.join();
+        writer.join();
+        assertEquals("THE GIRL\nno change\r\nTHE DOG", writer.toString());
+
+        StringBuilder builder = new StringBuilder();
+        assertFalse(upper.transform("no change", builder));
+        assertEquals("THE BOY", upper.transform("the boy"));
+        assertEquals("THE GIRL", boys.transform("THE BOY"));
+        String unchanged = "no boy";
+        assertSame(unchanged, boys.transform(unchanged));
+
+        TextLineProcessor neither = new TextLineProcessor(new CharSequenceReader("")) {
+        };
+        try {
+            neither.transform("line");
+            fail("a processor with no transform method should not transform a line");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * build the test chain binder, binding replacer, pattern replacer and multi pattern replacer and
+     * run it to completion
+     * @return the output text and the text rejected by the pattern replacer
+     */
+    private static String[] run(AbstractBindingMap bindings, boolean fuse) throws Exception
+    {
+        CharSequenceReader reader = new CharSequenceReader(INPUT);
+        Binder binder = new Binder("the ([A-Za-z]+)", "X", bindings, reader);
+        BindingReplacer replacer = new BindingReplacer(bindings, binder);
+        PatternReplacer boys = new PatternReplacer("boy|z+y", "girl", replacer);
+        boys.setMatchEngine(MatchEngine.NFA, 1000);
+        MultiPatternReplacer animals = new MultiPatternReplacer(new String[] { "mat", "zebra" },
+                new String[] { "rug", "horse" }, boys);
+        CharSequenceWriter writer = new CharSequenceWriter(animals);
+        CharSequenceWriter rejects = new CharSequenceWriter(boys.getRejects());
+        Thread[] threads;
+        if (fuse) {
+            threads = new Thread[] { reader, new FusedLineProcessor(binder), writer, rejects };
+        } else {
+            threads = new Thread[] { reader, binder, replacer, boys, animals, writer, rejects };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new String[] { writer.toString(), rejects.toString() };
+    }
+
+    private static String describe(AbstractBindingMap bindings)
+    {
+        List<String> entries = new ArrayList<String>();
+        Iterator<String> iterator = bindings.iterator();
+        while (iterator.hasNext()) {
+            String identifier = iterator.next();
+            entries.add(identifier + " " + bindings.get(identifier));
+        }
+        Collections.sort(entries);
+        return entries.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for identifier allocation. Binders sharing a map and prefix must never propose the same
+ * identifier and in deterministic mode the identifiers must not depend on thread scheduling.
+ */
+public class IdentifierAllocatorTest
+{
+    private static final int THREADS = 4;
+    private static final int VALUES = 1000;
+
+    /**
+     * a single allocator numbers identifiers consecutively, returns the existing identifier for a
+     * bound value and skips identifiers which were bound by some other means
+     */
+    @Test
+    public void testSingleAllocator()
+    {
+        BindingMap bindings = new BindingMap();
+        assertNull(bindings.putIfAbsent("X2", "preloaded"));
+        IdentifierAllocator allocator = bindings.createAllocator("X");
+        assertEquals("X1", allocator.bind("boy"));
+        assertEquals("X3", allocator.bind("stick"));
+        assertEquals("X1", allocator.bind("boy"));
+        assertEquals("X2", allocator.bind("preloaded"));
+        assertEquals("X4", allocator.bind("dog"));
+        assertEquals("Y1", bindings.createAllocator("Y").bind("cat"));
+        assertTrue(bindings.getSequence("X") == bindings.getSequence("X"));
+    }
+
+    /**
+     * allocators on several threads bind overlapping values. every value must receive one identifier,
+     * every identifier one value, and each thread must be told the identifier which was bound
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentAllocators() throws Exception
+    {
+        final BindingMap bindings = new BindingMap();
+        final String[][] results = new String[THREADS][VALUES];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            final IdentifierAllocator allocator = bindings.createAllocator("X");
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int v = 0; v < VALUES; v++) {
+                        // each thread meets the values starting from a different point
+                        int value = (v + thread * VALUES / THREADS) % VALUES;
+                        results[thread][value] = allocator.bind("value" + value);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Map<String, String> identifiers = new HashMap<String, String>();
+        for (int v = 0; v < VALUES; v++) {
+            String identifier = results[0][v];
+            for (int t = 1; t < THREADS; t++) {
+                assertEquals(identifier, results[t][v]);
+            }
+            assertEquals("value" + v, bindings.get(identifier));
+            assertNull(identifiers.put(identifier, "value" + v));
+        }
+    }
+
+    /**
+     * in deterministic mode each allocator draws from its own rotation of blocks so the identifiers it
+     * issues depend only on the order in which it meets new values
+     */
+    @Test
+    public void testDeterministicNumbering()
+    {
+        BindingMap bindings = new BindingMap();
+        bindings.setDeterministic(true);
+        IdentifierAllocator first = bindings.createAllocator("X");
+        IdentifierAllocator second = bindings.createAllocator("X");
+        int block = IdentifierSequence.BLOCK_SIZE;
+        // the second allocator leases before the first but still receives the second block
+        assertEquals("X" + (1 + block), second.bind("stick"));
+        assertEquals("X1", first.bind("boy"));
+        for (int i = 1; i < block; i++) {
+            first.bind("first" + i);
+        }
+        // the first allocator's next block follows both allocators' first blocks
+        assertEquals("X" + (1 + 2 * block), first.bind("dog"));
+        try {
+            bindings.createAllocator("X");
+            fail("an allocator should not register once the sequence is in use");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            bindings.setDeterministic(false);
+            fail("numbering should not change once sequences exist");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the line channel. Plain chars written to the channel are split into line records at
+ * each LF and records are read back either as lines or as plain chars.
+ */
+public class LineChannelTest
+{
+    /**
+     * chars written in blocks which do not line up with the line breaks are split at each LF,
+     * a CR before the LF becomes part of a CRLF terminator and a partial last line is published
+     * with no terminator when the writer closes
+     * @throws Exception
+     */
+    @Test
+    public void testLineSplitting() throws Exception
+    {
+        LineChannel channel = new LineChannel(16);
+        Writer writer = channel.getWriter();
+        writer.write("one\ntw");
+        writer.write("o\r".toCharArray(), 0, 2);
+        writer.write('\n');
+        writer.write('\n');
+        writer.write("th\rree\r\nfour");
+        writer.close();
+
+        LineInput lines = (LineInput)channel.getReader();
+        assertLine(lines, "one", LineTerminator.LF);
+        assertLine(lines, "two", LineTerminator.CRLF);
+        assertLine(lines, "", LineTerminator.LF);
+        assertLine(lines, "th\rree", LineTerminator.CRLF);
+        assertLine(lines, "four", LineTerminator.NONE);
+        assertFalse(lines.nextLine());
+    }
+
+    /**
+     * records written as lines are read back as the original chars including their terminators
+     * @throws Exception
+     */
+    @Test
+    public void testLinesReadAsChars() throws Exception
+    {
+        LineChannel channel = new LineChannel(16);
+        LineOutput output = (LineOutput)channel.getWriter();
+        output.writeLine("alpha", LineTerminator.CRLF);
+        output.writeLine(new StringBuilder("beta"), LineTerminator.LF);
+        output.writeLine("", LineTerminator.LF);
+        output.writeLine("gamma", LineTerminator.NONE);
+        channel.getWriter().close();
+
+        Reader reader = channel.getReader();
+        StringBuilder builder = new StringBuilder();
+        assertEquals('a', reader.read());
+        builder.append('a');
+        char[] chars = new char[3];
+        int count;
+        while ((count = reader.read(chars, 0, chars.length)) >= 0) {
+            builder.append(chars, 0, count);
+        }
+        assertEquals("alpha\r\nbeta\n\ngamma", builder.toString());
+    }
+
+    /**
+     * a writer which closes without a partial line publishes no empty last record
+     * @throws Exception
+     */
+    @Test
+    public void testCloseAfterTerminator() throws Exception
+    {
+        LineChannel channel = new LineChannel(4);
+        channel.getWriter().write("last\n");
+        channel.getWriter().close();
+        LineInput lines = (LineInput)channel.getReader();
+        assertLine(lines, "last", LineTerminator.LF);
+        assertFalse(lines.nextLine());
+    }
+
+    /**
+     * pass many lines through a two slot ring from one thread to another so that both ends block
+     * and each slot is reused many times
+     * @throws Exception
+     */
+    @Test
+    public void testTransferAcrossThreads() throws Exception
+    {
+        final LineChannel channel = new LineChannel(2);
+        assertEquals(2, channel.getCapacity());
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    Writer writer = channel.getWriter();
+                    for (int i = 0; i < 2000; i++) {
+                        writer.write("line " + i + (i % 2 == 0 ? "\n" : "\r\n"));
+                    }
+                    writer.close();
+                } catch (IOException e) {
+                    // the reader will see fewer lines
+                }
+            }
+        };
+        producer.start();
+        LineInput lines = (LineInput)channel.getReader();
+        for (int i = 0; i < 2000; i++) {
+            assertLine(lines, "line " + i, (i % 2 == 0 ? LineTerminator.LF : LineTerminator.CRLF));
+        }
+        assertFalse(lines.nextLine());
+        producer.join();
+    }
+
+    /**
+     * two text line processors connected by a line channel preserve each line's terminator
+     * @throws Exception
+     */
+    @Test
+    public void testProcessorsConnectedByLineChannel() throws Exception
+    {
+        String input = "a cat\r\nthe dog\n\na cat and a dog";
+        CharSequenceReader reader = new CharSequenceReader(input);
+        PatternReplacer cats = new PatternReplacer("cat", "mouse", reader);
+        PatternReplacer dogs = new PatternReplacer("dog", "cat", cats);
+        CharSequenceWriter writer = new CharSequenceWriter(dogs);
+        assertTrue(cats.getDownstream() == dogs);
+        reader.start();
+        cats.start();
+        dogs.start();
+        writer.start();
+        reader.join();
+        cats.join();
+        dogs.join();
+        writer.join();
+        assertEquals("a mouse\r\nthe cat\n\na mouse and a cat", writer.toString());
+    }
+
+    private static void assertLine(LineInput lines, String text, LineTerminator terminator) throws IOException
+    {
+        assertTrue(lines.nextLine());
+        assertEquals(text, lines.getText().toString());
+        assertEquals(terminator, lines.getTerminator());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests which check that the NFA engine finds the same matches and groups as the JDK engine for the
+ * patterns used by the pipelines in this project and that both engines respect their step budgets.
+ */
+public class NfaLineMatcherTest
+{
+    /**
+     * the patterns used by the example pipelines and tests, plus the alternation a multi pattern
+     * replacer builds from several rules
+     */
+    private static final String[] PATTERNS = {
+        "world",
+        "adinn",
+        "[Aa]ndrew",
+        "(.*)[Dd]inn(.*)",
+        "the ([A-Za-z]+)",
+        "the ([A-Za-z0-9]+)",
+        "the ([a-z]+)",
+        "a ([A-Za-z0-9]+)",
+        "a [A-Za-z0-9]+",
+        "boy|z+y",
+        "(mat)|(zeb(ra)?)|([0-9]+)",
+        "\\$\\{([A-Z]+[0-9]+)\\}",
+        "(a|ab)(c|bcd)(d*)",
+        "x*",
+    };
+
+    private static final String[] LINES = {
+        "",
+        "hello world! goodbye cruel world, goodbye!",
+        "author: Andrew Dinn, JBoss adinn@redhat.com",
+        "andrew dinn and Andrew Dinn",
+        "the boy threw the stick for the dog to catch",
+        "a ${X1} broke a ${X2} with a ${X3}",
+        "a 42 and a b7 and the 3rd of them",
+        "the",
+        "zzzzy boy zzz",
+        "the zebra sat on the mat at 10 past 12",
+        "abcd abcdd acd",
+        "xxaxx",
+    };
+
+    /**
+     * every pattern is run over every line by both engines and each successive match and its groups
+     * must be identical
+     */
+    @Test
+    public void testNfaAgreesWithJdk()
+    {
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            LineMatcher jdk = new JdkLineMatcher(pattern, MatchEngine.UNLIMITED);
+            LineMatcher nfa = new NfaLineMatcher(NfaProgram.compile(pattern), MatchEngine.UNLIMITED);
+            for (String line : LINES) {
+                assertEquals(regex + " on \"" + line + "\"", findAll(jdk, line), findAll(nfa, line));
+            }
+        }
+    }
+
+    /**
+     * the engine created for a match engine value behaves in the same way as the matcher it wraps
+     */
+    @Test
+    public void testMatchEngineCreatesMatchers()
+    {
+        Pattern pattern = Pattern.compile("the ([A-Za-z]+)");
+        String line = "the boy threw the stick";
+        String expected = "[0,7 4,7][14,23 18,23]";
+        assertEquals(expected, findAll(MatchEngine.JDK.createMatcher(pattern, MatchEngine.UNLIMITED), line));
+        assertEquals(expected, findAll(MatchEngine.NFA.createMatcher(pattern, MatchEngine.UNLIMITED), line));
+    }
+
+    /**
+     * syntax which the NFA engine cannot represent is refused when the program is compiled
+     */
+    @Test
+    public void testUnsupportedSyntax()
+    {
+        String[] unsupported = { "(a)\\1", "a(?=b)", "a++", "(?>a)", "(?i)a", "\\p{Lu}" };
+        for (String regex : unsupported) {
+            try {
+                NfaProgram.compile(Pattern.compile(regex));
+                fail("NFA engine should refuse " + regex);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            NfaProgram.compile(Pattern.compile("a", Pattern.CASE_INSENSITIVE));
+            fail("NFA engine should refuse pattern flags");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * a line which needs more steps than the budget allows is rejected and the budget is restored
+     * when the matcher is reset for the next line
+     */
+    @Test
+    public void testBudgetExceeded()
+    {
+        Pattern pattern = Pattern.compile("boy|z+y");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            builder.append('z');
+        }
+        String pathological = builder.toString();
+        LineMatcher[] matchers = {
+            new NfaLineMatcher(NfaProgram.compile(pattern), 1000),
+            new JdkLineMatcher(pattern, 1000),
+        };
+        for (LineMatcher matcher : matchers) {
+            matcher.reset(pathological);
+            try {
+                matcher.find(0);
+                fail(matcher.getClass().getSimpleName() + " should exceed its budget");
+            } catch (MatchBudgetExceededException e) {
+                assertEquals("match budget of 1000 steps exceeded", e.getMessage());
+                assertTrue(e instanceof LineRejectedException);
+            }
+            assertEquals("[4,7][8,10]", findAll(matcher, "the boy zy"));
+        }
+    }
+
+    /**
+     * the JDK engine charges each char its backtracking rereads so a pattern of adjacent quantified
+     * runs exceeds a budget which the NFA engine stays within on the same line
+     */
+    @Test
+    public void testBacktrackingCharged()
+    {
+        Pattern pattern = Pattern.compile("a*a*a*c");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append('a');
+        }
+        String line = builder.toString();
+        LineMatcher nfa = new NfaLineMatcher(NfaProgram.compile(pattern), 100000);
+        assertEquals("", findAll(nfa, line));
+        LineMatcher jdk = new JdkLineMatcher(pattern, 100000);
+        jdk.reset(line);
+        try {
+            jdk.find(0);
+            fail("JDK engine should exceed its budget");
+        } catch (MatchBudgetExceededException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @return each successive match on the line as its start and end followed by the start and end of
+     * each group
+     */
+    private static String findAll(LineMatcher matcher, String line)
+    {
+        StringBuilder builder = new StringBuilder();
+        matcher.reset(line);
+        int from = 0;
+        while (from <= line.length() && matcher.find(from)) {
+            builder.append('[').append(matcher.start()).append(',').append(matcher.end());
+            for (int i = 1; i <= matcher.groupCount(); i++) {
+                builder.append(' ').append(matcher.start(i)).append(',').append(matcher.end(i));
+            }
+            builder.append(']');
+            // step past an empty match so the search makes progress
+            from = (matcher.end() > matcher.start() ? matcher.end() : matcher.end() + 1);
+        }
+        return builder.toString();
+    }
+}
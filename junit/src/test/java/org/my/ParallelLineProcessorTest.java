@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the parallel line processor. Whatever the number of replicas and the batch size the output
+ * and the rejected lines must be identical to those of a single processor, in the same order.
+ */
+public class ParallelLineProcessorTest
+{
+    private static final String PATTERN = "([a-z]+)e([a-z]*) (w[0-9]+)|q+r";
+    private static final String REPLACEMENT = "\\3-\\1E\\2";
+    private static final long BUDGET = 20000;
+    private static final String INPUT;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(9);
+        String[] words = { "the", "cheese", "letter", "tree", "cat", "sat" };
+        for (int i = 0; i < 20000; i++) {
+            if (i % 997 == 0) {
+                // a line which exceeds the match budget
+                for (int j = 0; j < 2000; j++) {
+                    builder.append('q');
+                }
+            } else {
+                for (int j = 0; j < 6; j++) {
+                    builder.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                builder.append('w').append(i);
+            }
+            builder.append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        builder.append("last line w1 without terminator");
+        INPUT = builder.toString();
+    }
+
+    /**
+     * run the replicated stage with several replica counts and batch sizes and compare its output and
+     * rejects with a single processor
+     * @throws Exception
+     */
+    @Test
+    public void testOrderPreserved() throws Exception
+    {
+        String[] expected = runSingle();
+        // only the lines of q's exceed the budget
+        assertEquals(21, expected[1].split("\n").length);
+        int[][] configurations = { { 1, 256 }, { 2, 1 }, { 3, 7 }, { 4, 256 } };
+        for (int[] configuration : configurations) {
+            String[] actual = runParallel(configuration[0], configuration[1]);
+            String description = configuration[0] + " replicas, batch " + configuration[1];
+            assertEquals(description, expected[0], actual[0]);
+            assertEquals(description, expected[1], actual[1]);
+        }
+    }
+
+    /**
+     * binders are refused as replicas since the identifiers they issue would depend on scheduling
+     * @throws Exception
+     */
+    @Test
+    public void testBinderRefused() throws Exception
+    {
+        BindingMap bindings = new BindingMap();
+        bindings.setDeterministic(true);
+        CharSequenceReader reader = new CharSequenceReader(INPUT);
+        ParallelLineProcessor parallel = new ParallelLineProcessor(reader);
+        new Binder("(w[0-9]+)", "X", bindings, parallel.getReplicaSource());
+        new Binder("(w[0-9]+)", "X", bindings, parallel.getReplicaSource());
+        assertEquals(2, parallel.getReplicaCount());
+        CharSequenceWriter writer = new CharSequenceWriter(parallel);
+        final Throwable[] failure = new Throwable[1];
+        parallel.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread thread, Throwable throwable)
+            {
+                failure[0] = throwable;
+            }
+        });
+        reader.start();
+        parallel.start();
+        writer.start();
+        reader.join();
+        parallel.join();
+        writer.join();
+        assertTrue(failure[0] instanceof IllegalStateException);
+        assertEquals("", writer.toString());
+    }
+
+    /**
+     * a replica which throws fails the pipeline, releases the stage feeding the processor and lets every
+     * worker task finish
+     * @throws Exception
+     */
+    @Test
+    public void testReplicaFailure() throws Exception
+    {
+        CharSequenceReader reader = new CharSequenceReader(INPUT);
+        ParallelLineProcessor parallel = new ParallelLineProcessor(reader, 4);
+        for (int i = 0; i < 3; i++) {
+            new PatternReplacer("w1234", "x", parallel.getReplicaSource()) {
+                public boolean transform(CharSequence line, StringBuilder builder)
+                {
+                    if (line.toString().endsWith(" w4000")) {
+                        throw new IllegalArgumentException("replica failed");
+                    }
+                    return super.transform(line, builder);
+                }
+            };
+        }
+        CharSequenceWriter writer = new CharSequenceWriter(parallel);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            PipelineFuture future = new PipelineRunner(executor).run(reader, parallel, writer);
+            assertTrue(parallel.getExecutor() == executor);
+            try {
+                future.get(20, TimeUnit.SECONDS);
+                fail("the pipeline should fail");
+            } catch (ExecutionException e) {
+                assertEquals("replica failed", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * a line transformed directly by the processor is transformed by its first replica. with no replicas
+     * there is nothing to transform it
+     * @throws Exception
+     */
+    @Test
+    public void testDirectTransform() throws Exception
+    {
+        ParallelLineProcessor parallel = new ParallelLineProcessor(new CharSequenceReader(""));
+        try {
+            parallel.transform("the cheese w1");
+            fail("a processor without replicas should not transform a line");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        for (int i = 0; i < 2; i++) {
+            replacer(parallel.getReplicaSource());
+        }
+        assertEquals("the w1-cheesE", parallel.transform("the cheese w1"));
+        assertEquals("sat cat", parallel.transform("sat cat"));
+    }
+
+    private static String[] runSingle() throws Exception
+    {
+        CharSequenceReader reader = new CharSequenceReader(INPUT);
+        PatternReplacer replacer = replacer(reader);
+        CharSequenceWriter writer = new CharSequenceWriter(replacer);
+        CharSequenceWriter rejects = new CharSequenceWriter(replacer.getRejects());
+        return run(reader, replacer, writer, rejects);
+    }
+
+    private static String[] runParallel(int replicas, int batchSize) throws Exception
+    {
+        CharSequenceReader reader = new CharSequenceReader(INPUT);
+        ParallelLineProcessor parallel = new ParallelLineProcessor(reader, batchSize);
+        for (int i = 0; i < replicas; i++) {
+            replacer(parallel.getReplicaSource());
+        }
+        CharSequenceWriter writer = new CharSequenceWriter(parallel);
+        CharSequenceWriter rejects = new CharSequenceWriter(parallel.getRejects());
+        return run(reader, parallel, writer, rejects);
+    }
+
+    private static PatternReplacer replacer(Source source) throws Exception
+    {
+        PatternReplacer replacer = new PatternReplacer(PATTERN, REPLACEMENT, source);
+        replacer.setMatchEngine(MatchEngine.NFA, BUDGET);
+        return replacer;
+    }
+
+    private static String[] run(Thread reader, Thread stage, CharSequenceWriter writer, CharSequenceWriter rejects) throws Exception
+    {
+        Thread[] threads = { reader, stage, writer, rejects };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new String[] { writer.toString(), rejects.toString() };
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the persistent binding map. Bindings must survive closing and reopening the map whether
+ * they were journalled or snapshotted and a damaged journal tail must be discarded.
+ */
+public class PersistentBindingMapTest
+{
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException
+    {
+        directory = File.createTempFile("bindings", ".dir");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void deleteDirectory()
+    {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * journalled bindings are replayed when the map is reopened and new identifiers resume after the
+     * highest index bound with their prefix
+     * @throws Exception
+     */
+    @Test
+    public void testReopen() throws Exception
+    {
+        PersistentBindingMap bindings = new PersistentBindingMap(directory);
+        IdentifierAllocator allocator = bindings.createAllocator("X");
+        assertEquals("X1", allocator.bind("boy"));
+        assertEquals("X2", allocator.bind("stick"));
+        assertEquals("X1", allocator.bind("boy"));
+        assertNull(bindings.putIfAbsent("Y7", "dog"));
+        bindings.close();
+        assertEquals("boy", bindings.get("X1"));
+        try {
+            bindings.putIfAbsent("X3", "cat");
+            fail("a closed map should refuse new bindings");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        bindings = new PersistentBindingMap(directory);
+        assertEquals("boy", bindings.get("X1"));
+        assertEquals("stick", bindings.get("X2"));
+        assertEquals("dog", bindings.get("Y7"));
+        assertEquals(3, bindings.nextIndex("X"));
+        assertEquals(8, bindings.nextIndex("Y"));
+        allocator = bindings.createAllocator("X");
+        assertEquals("X2", allocator.bind("stick"));
+        assertEquals("X3", allocator.bind("cat"));
+        try {
+            bindings.putIfAbsent("Y7", "mat");
+            fail("a replayed identifier should not be rebound");
+        } catch (IllegalArgumentException e) {
+            assertEquals("identifier Y7 is already bound", e.getMessage());
+        }
+        bindings.close();
+
+        bindings = new PersistentBindingMap(directory);
+        assertEquals("cat", bindings.get("X3"));
+        assertEquals(4, count(bindings));
+        bindings.close();
+    }
+
+    /**
+     * a record cut short when a run ended is discarded and the journal is truncated so that bindings
+     * appended afterwards are replayed
+     * @throws Exception
+     */
+    @Test
+    public void testTornJournalRecord() throws Exception
+    {
+        PersistentBindingMap bindings = new PersistentBindingMap(directory);
+        bindings.putIfAbsent("X1", "boy");
+        bindings.close();
+        File journal = new File(directory, PersistentBindingMap.JOURNAL_FILE);
+        long complete = journal.length();
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(journal, true));
+        output.writeInt(2);
+        output.writeChars("X2");
+        output.writeInt(5);
+        output.writeChars("st");
+        output.close();
+
+        bindings = new PersistentBindingMap(directory);
+        assertEquals(complete, journal.length());
+        assertEquals("boy", bindings.get("X1"));
+        assertNull(bindings.get("X2"));
+        assertNull(bindings.putIfAbsent("X2", "dog"));
+        bindings.close();
+
+        bindings = new PersistentBindingMap(directory);
+        assertEquals("dog", bindings.get("X2"));
+        assertEquals(2, count(bindings));
+        bindings.close();
+    }
+
+    /**
+     * a corrupt length which claims more chars than the journal holds ends the replay instead of
+     * being used to size a char array
+     * @throws Exception
+     */
+    @Test
+    public void testCorruptJournalLength() throws Exception
+    {
+        PersistentBindingMap bindings = new PersistentBindingMap(directory);
+        bindings.putIfAbsent("X1", "boy");
+        bindings.close();
+        File journal = new File(directory, PersistentBindingMap.JOURNAL_FILE);
+        long complete = journal.length();
+
+        int[] lengths = { Integer.MAX_VALUE, -1 };
+        for (int length : lengths) {
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(journal, true));
+            output.writeInt(length);
+            output.writeChars("garbage");
+            output.close();
+            bindings = new PersistentBindingMap(directory);
+            assertEquals(complete, journal.length());
+            assertEquals("boy", bindings.get("X1"));
+            assertEquals(1, count(bindings));
+            bindings.close();
+        }
+    }
+
+    /**
+     * reaching the journal limit writes a snapshot and empties the journal. bindings in the snapshot
+     * and in the journal written after it are both visible after reopening
+     * @throws Exception
+     */
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        File snapshot = new File(directory, PersistentBindingMap.SNAPSHOT_FILE);
+        File journal = new File(directory, PersistentBindingMap.JOURNAL_FILE);
+        PersistentBindingMap bindings = new PersistentBindingMap(directory, 3);
+        IdentifierAllocator allocator = bindings.createAllocator("X");
+        for (int i = 1; i <= 7; i++) {
+            assertEquals("X" + i, allocator.bind("value" + i));
+        }
+        assertTrue(snapshot.exists());
+        bindings.flush();
+        // six bindings were snapshotted and one is journalled
+        assertEquals(8 + 2 * ("X7".length() + "value7".length()), journal.length());
+        for (int i = 1; i <= 7; i++) {
+            assertEquals("value" + i, bindings.get("X" + i));
+            assertEquals("X" + i, bindings.putIfAbsent("Y" + i, "value" + i));
+        }
+        try {
+            bindings.putIfAbsent("X2", "other");
+            fail("a snapshotted identifier should not be rebound");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        bindings.close();
+
+        bindings = new PersistentBindingMap(directory, 3);
+        assertEquals(7, count(bindings));
+        assertEquals(8, bindings.nextIndex("X"));
+        StringBuilder builder = new StringBuilder();
+        assertTrue(bindings.appendIdentifier("the value4", 4, 10, builder));
+        assertEquals("X4", builder.toString());
+        builder.setLength(0);
+        assertTrue(bindings.appendValue("${X7}", 2, 4, builder));
+        assertEquals("value7", builder.toString());
+        assertFalse(bindings.appendValue("${X8}", 2, 4, null));
+
+        bindings.snapshot();
+        assertEquals(0, journal.length());
+        bindings.close();
+        bindings = new PersistentBindingMap(directory, 3);
+        assertEquals(7, count(bindings));
+        assertEquals("value1", bindings.get("X1"));
+        bindings.close();
+    }
+
+    private static int count(AbstractBindingMap bindings)
+    {
+        int count = 0;
+        Iterator<String> iterator = bindings.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the ring buffer channel. Blocks are written so that they straddle the end of the ring
+ * and the channel is closed from either end.
+ */
+public class RingBufferChannelTest
+{
+    /**
+     * write and read blocks on a single thread so that successive blocks wrap round the end of
+     * an 8 char ring
+     * @throws Exception
+     */
+    @Test
+    public void testWraparound() throws Exception
+    {
+        RingBufferChannel channel = new RingBufferChannel(8);
+        Writer writer = channel.getWriter();
+        Reader reader = channel.getReader();
+        String[] blocks = { "abcde", "fghijk", "lmnopqr", "s", "tuvwxyz0" };
+        for (String block : blocks) {
+            writer.write(block);
+            assertEquals(block, read(reader, block.length()));
+        }
+        writer.write("ABCDEF".toCharArray(), 0, 6);
+        assertEquals("ABCDEF", read(reader, 6));
+        writer.write('!');
+        assertEquals('!', reader.read());
+        assertFalse(reader.ready());
+    }
+
+    /**
+     * a capacity which is not a power of two is rounded up so the ring still holds the requested
+     * number of chars without blocking
+     * @throws Exception
+     */
+    @Test
+    public void testCapacityRoundedUp() throws Exception
+    {
+        RingBufferChannel channel = new RingBufferChannel(5);
+        Writer writer = channel.getWriter();
+        writer.write("12345678");
+        assertEquals("12345678", read(channel.getReader(), 8));
+    }
+
+    /**
+     * pass a long text through a tiny ring from one thread to another so that both ends
+     * repeatedly block and wrap
+     * @throws Exception
+     */
+    @Test
+    public void testTransferAcrossThreads() throws Exception
+    {
+        final RingBufferChannel channel = new RingBufferChannel(4);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append(i).append(i % 7 == 0 ? '\n' : ' ');
+        }
+        final String text = builder.toString();
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    Writer writer = channel.getWriter();
+                    for (int i = 0; i < text.length(); i += 13) {
+                        writer.write(text, i, Math.min(13, text.length() - i));
+                    }
+                    writer.close();
+                } catch (IOException e) {
+                    // the reader will see a short text
+                }
+            }
+        };
+        producer.start();
+        Reader reader = channel.getReader();
+        StringBuilder output = new StringBuilder();
+        char[] chars = new char[11];
+        int count;
+        while ((count = reader.read(chars, 0, chars.length)) >= 0) {
+            output.append(chars, 0, count);
+        }
+        producer.join();
+        assertEquals(text, output.toString());
+    }
+
+    /**
+     * chars written before the writer closes are still delivered before end of stream and
+     * further writes are refused
+     * @throws Exception
+     */
+    @Test
+    public void testWriterClose() throws Exception
+    {
+        RingBufferChannel channel = new RingBufferChannel(8);
+        Writer writer = channel.getWriter();
+        Reader reader = channel.getReader();
+        writer.write("xyz");
+        writer.close();
+        assertEquals("xyz", read(reader, 3));
+        assertEquals(-1, reader.read());
+        assertEquals(-1, reader.read(new char[4], 0, 4));
+        try {
+            writer.write("more");
+            fail("write after close should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * closing the reader releases a writer which is blocked on a full ring
+     * @throws Exception
+     */
+    @Test
+    public void testReaderCloseReleasesWriter() throws Exception
+    {
+        final RingBufferChannel channel = new RingBufferChannel(4);
+        final IOException[] failure = new IOException[1];
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    channel.getWriter().write("0123456789");
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        producer.start();
+        Reader reader = channel.getReader();
+        assertEquals('0', reader.read());
+        reader.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertEquals("Pipe closed", failure[0].getMessage());
+        try {
+            reader.read();
+            fail("read after close should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static String read(Reader reader, int length) throws IOException
+    {
+        char[] chars = new char[length];
+        int total = 0;
+        while (total < length) {
+            int count = reader.read(chars, total, length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return new String(chars, 0, total);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for tee branches which spill to disk. A spilling branch must see every char in order however
+ * far it falls behind, unless its backlog exceeds the spill limit, and its spill file must be removed
+ * once the branch is done.
+ */
+public class SpillFileTest
+{
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException
+    {
+        directory = File.createTempFile("spill", ".dir");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory()
+    {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * a spilling branch which does not read until the tee has finished replays the spilled blocks and
+     * then the ring so it receives an exact copy of the input
+     * @throws Exception
+     */
+    @Test
+    public void testStalledBranchSeesEverything() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(TeeProcessorTest.source(TeeProcessorTest.INPUT), 16);
+        CountDownLatch gate = new CountDownLatch(1);
+        TeeProcessorTest.Collector fast = new TeeProcessorTest.Collector(tee, null);
+        TeeProcessorTest.Collector slow = new TeeProcessorTest.Collector(tee.getSpillingBranch(directory, 1L << 26), gate);
+        TeeProcessorTest.runStalled(tee, fast, slow, gate);
+
+        assertEquals(TeeProcessorTest.INPUT, fast.toString());
+        assertNull(slow.failure);
+        assertEquals(TeeProcessorTest.INPUT, slow.toString());
+        assertEquals(0, tee.getDroppedCount(1));
+        assertEquals(0, directory.list().length);
+    }
+
+    /**
+     * a spilling branch which reads slowly while the tee runs moves between the spill and the ring
+     * without losing or repeating any chars
+     * @throws Exception
+     */
+    @Test
+    public void testSlowBranchSeesEverything() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(TeeProcessorTest.source(TeeProcessorTest.INPUT), 4);
+        TeeProcessorTest.Collector fast = new TeeProcessorTest.Collector(tee, null);
+        Throttle throttle = new Throttle();
+        tee.getSpillingBranch(directory, 1L << 26).feed(throttle);
+        TeeProcessorTest.Collector slow = new TeeProcessorTest.Collector(throttle, null);
+        tee.start();
+        fast.start();
+        slow.start();
+        tee.join();
+        fast.join();
+        slow.join();
+        assertEquals(TeeProcessorTest.INPUT, fast.toString());
+        assertNull(slow.failure);
+        assertEquals(TeeProcessorTest.INPUT, slow.toString());
+        assertEquals(0, directory.list().length);
+    }
+
+    /**
+     * a branch whose backlog exceeds the spill limit fails with an IOException while the other
+     * branches still receive everything
+     * @throws Exception
+     */
+    @Test
+    public void testSpillLimitExceeded() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(TeeProcessorTest.source(TeeProcessorTest.INPUT), 4);
+        CountDownLatch gate = new CountDownLatch(1);
+        TeeProcessorTest.Collector fast = new TeeProcessorTest.Collector(tee, null);
+        TeeProcessorTest.Collector slow = new TeeProcessorTest.Collector(tee.getSpillingBranch(directory, 4 * TeeProcessor.BLOCK_SIZE), gate);
+        TeeProcessorTest.runStalled(tee, fast, slow, gate);
+
+        assertEquals(TeeProcessorTest.INPUT, fast.toString());
+        assertEquals("spill limit of " + (4 * TeeProcessor.BLOCK_SIZE) + " bytes exceeded", slow.failure.getMessage());
+        assertTrue(TeeProcessorTest.INPUT.startsWith(slow.toString()));
+        assertEquals(0, directory.list().length);
+    }
+
+    /**
+     * passes on a branch's input, pausing now and then so that the reader falls behind and catches up again
+     */
+    private static class Throttle implements Sink, Source
+    {
+        private Reader input;
+
+        public void setInput(Reader input)
+        {
+            this.input = input;
+        }
+
+        public void feed(Sink sink) throws IOException
+        {
+            sink.setInput(new FilterReader(input) {
+                private int reads = 0;
+
+                public int read(char[] cbuf, int off, int len) throws IOException
+                {
+                    if (++reads % 50 == 0) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    return super.read(cbuf, off, len);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for split file processing. However the file is cut the concatenated output must be byte for
+ * byte the same as running the pipeline over the whole file, including when later ranges finish first
+ * and have to stage their output.
+ */
+public class SplitFileRunnerTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private static File directory;
+    private static String input;
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void createInput() throws IOException
+    {
+        directory = File.createTempFile("split", ".dir");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        input = new File(directory, "input.txt").getPath();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(input), UTF8);
+        for (int i = 0; i < 200000; i++) {
+            writer.write("the cat \u00e9t\u00e9 line " + i + " of a file too large to stage in memory");
+            if (i % 40000 == 0) {
+                // a line longer than a scan when looking for a boundary
+                for (int j = 0; j < 20000; j++) {
+                    writer.write('x');
+                }
+            }
+            writer.write(i % 5 == 0 ? "\r\n" : "\n");
+        }
+        writer.write("last line without terminator \u4e2d");
+        writer.close();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public static void deleteDirectory()
+    {
+        executor.shutdown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * process the file with several split counts and compare the output with a single pipeline. the
+     * first range is slowed down so that the later ranges stage their output both in memory and in a
+     * temporary file
+     * @throws Exception
+     */
+    @Test
+    public void testConcatenation() throws Exception
+    {
+        checkSplits(UTF8, 1, 2, 7);
+    }
+
+    /**
+     * as above but treating each byte as a char
+     * @throws Exception
+     */
+    @Test
+    public void testConcatenationWithoutCharset() throws Exception
+    {
+        checkSplits(null, 3);
+    }
+
+    /**
+     * every range except the first starts just after an LF and the ranges cover the file
+     * @throws Exception
+     */
+    @Test
+    public void testBoundaries() throws Exception
+    {
+        long[] boundaries = SplitFileRunner.split(input, 10);
+        assertEquals(11, boundaries.length);
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            assertEquals(0, boundaries[0]);
+            assertEquals(file.length(), boundaries[10]);
+            for (int i = 1; i < 10; i++) {
+                assertTrue(boundaries[i] >= boundaries[i - 1]);
+                if (boundaries[i] > 0 && boundaries[i] < file.length()) {
+                    file.seek(boundaries[i] - 1);
+                    assertEquals('\n', file.read());
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * a charset which does not encode LF as a single byte cannot be split
+     * @throws Exception
+     */
+    @Test
+    public void testWideCharsetRefused() throws Exception
+    {
+        try {
+            new SplitFileRunner(executor).run(input, new File(directory, "output.txt").getPath(),
+                    Charset.forName("UTF-16"), 2, null);
+            fail("UTF-16 input should be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertTrue(Arrays.asList(directory.list()).equals(Arrays.asList("input.txt")));
+    }
+
+    private void checkSplits(Charset charset, int... splitCounts) throws Exception
+    {
+        String reference = new File(directory, "reference.txt").getPath();
+        Charset fileCharset = (charset == null ? LATIN1 : charset);
+        FileReader reader = new FileReader(input, fileCharset);
+        PatternReplacer replacer = new PatternReplacer("cat (.)t", "dog \\1\\1", reader);
+        ChannelFileWriter writer = new ChannelFileWriter(reference, fileCharset, replacer);
+        new PipelineRunner(executor).run(reader, replacer, writer).get();
+        byte[] expected = readAll(reference);
+
+        for (int splits : splitCounts) {
+            String output = new File(directory, "output.txt").getPath();
+            new SplitFileRunner(executor).run(input, output, charset, splits, new SplitPipeline() {
+                public Runnable[] createStages(Source source, int split) throws IOException
+                {
+                    PatternReplacer replacer = new PatternReplacer("cat (.)t", "dog \\1\\1", source);
+                    if (split > 0) {
+                        return new Runnable[] { replacer };
+                    }
+                    TextLineProcessor slow = new TextLineProcessor(replacer) {
+                        private int lines;
+
+                        public boolean transform(CharSequence line, StringBuilder builder)
+                        {
+                            if ((++lines & 255) == 0) {
+                                try {
+                                    Thread.sleep(1);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            return false;
+                        }
+                    };
+                    return new Runnable[] { replacer, slow };
+                }
+            }).get();
+            assertArrayEquals(charset + " with " + splits + " splits", expected, readAll(output));
+            assertTrue(new File(output).delete());
+            // no staging files are left behind
+            assertEquals(2, directory.list().length);
+        }
+        assertTrue(new File(reference).delete());
+    }
+
+    private static byte[] readAll(String name) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            byte[] bytes = new byte[(int)file.length()];
+            file.readFully(bytes);
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+}
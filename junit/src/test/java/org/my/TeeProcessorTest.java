@@ -0,0 +1,260 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors as identified
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.my;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the N-way tee. Blocking branches must see every char while branches which drop or sample
+ * blocks must only ever lose whole lines and must never hold up the tee.
+ */
+public class TeeProcessorTest
+{
+    static final int LINES = 50000;
+    static final String INPUT;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            builder.append("line ").append(i).append(' ');
+            for (int j = 0; j < i % 23; j++) {
+                builder.append('x');
+            }
+            builder.append('\n');
+        }
+        INPUT = builder.toString();
+    }
+
+    /**
+     * every blocking branch receives an exact copy of the input
+     * @throws Exception
+     */
+    @Test
+    public void testBlockingBranches() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(source(INPUT), 4);
+        Collector[] collectors = new Collector[3];
+        collectors[0] = new Collector(tee, null);
+        collectors[1] = new Collector(tee.getBranch(ConsumerPolicy.BLOCK), null);
+        collectors[2] = new Collector(tee, null);
+        assertEquals(3, tee.getBranchCount());
+        tee.start();
+        for (Collector collector : collectors) {
+            collector.start();
+        }
+        tee.join();
+        for (Collector collector : collectors) {
+            collector.join();
+            assertNull(collector.failure);
+            assertEquals(INPUT, collector.toString());
+        }
+        assertEquals(0, tee.getDroppedCount(0));
+    }
+
+    /**
+     * a dropping branch which does not read until the tee has finished skips the overwritten blocks
+     * and receives a run of whole lines from the end of the input
+     * @throws Exception
+     */
+    @Test
+    public void testDrop() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(source(INPUT), 16);
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector fast = new Collector(tee, null);
+        Collector slow = new Collector(tee.getBranch(ConsumerPolicy.DROP), gate);
+        runStalled(tee, fast, slow, gate);
+
+        assertEquals(INPUT, fast.toString());
+        String received = slow.toString();
+        assertTrue(received.length() > 0 && received.length() < INPUT.length());
+        assertTrue(INPUT.endsWith(received));
+        assertEquals('\n', INPUT.charAt(INPUT.length() - received.length() - 1));
+        assertTrue(tee.getDroppedCount(1) > 0);
+    }
+
+    /**
+     * a sampling branch which does not read until the tee has finished receives whole lines in
+     * order but only a thinned selection of them
+     * @throws Exception
+     */
+    @Test
+    public void testSample() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(source(INPUT), 16);
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector fast = new Collector(tee, null);
+        Collector slow = new Collector(tee.getBranch(ConsumerPolicy.SAMPLE), gate);
+        runStalled(tee, fast, slow, gate);
+
+        assertEquals(INPUT, fast.toString());
+        String[] lines = slow.toString().split("\n");
+        assertTrue(lines.length > 0 && lines.length < LINES);
+        int previous = -1;
+        for (String line : lines) {
+            int index = Integer.parseInt(line.substring(5, line.indexOf(' ', 5)));
+            assertTrue(index > previous);
+            StringBuilder expected = new StringBuilder("line ").append(index).append(' ');
+            for (int j = 0; j < index % 23; j++) {
+                expected.append('x');
+            }
+            assertEquals(expected.toString(), line);
+            previous = index;
+        }
+        assertTrue(tee.getDroppedCount(1) > 0);
+    }
+
+    /**
+     * closing a branch releases the tee from waiting for it
+     * @throws Exception
+     */
+    @Test
+    public void testClosedBranchDoesNotBlock() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(source(INPUT), 4);
+        Collector fast = new Collector(tee, null);
+        final Reader[] closed = new Reader[1];
+        tee.feed(new Sink() {
+            public void setInput(Reader input)
+            {
+                closed[0] = input;
+            }
+        });
+        closed[0].close();
+        tee.start();
+        fast.start();
+        tee.join();
+        fast.join();
+        assertEquals(INPUT, fast.toString());
+    }
+
+    /**
+     * branches must be connected before the tee starts
+     * @throws Exception
+     */
+    @Test
+    public void testBranchAfterStart() throws Exception
+    {
+        TeeProcessor tee = new TeeProcessor(source("text\n"));
+        Collector collector = new Collector(tee, null);
+        tee.start();
+        collector.start();
+        try {
+            new Collector(tee.getBranch(ConsumerPolicy.DROP), null);
+            fail("a branch should not be connected to a running tee");
+        } catch (IOException e) {
+            assertEquals("tee already started", e.getMessage());
+        }
+        tee.join();
+        collector.join();
+        assertEquals("text\n", collector.toString());
+    }
+
+    static Source source(final String text)
+    {
+        return new Source() {
+            public void feed(Sink sink) throws IOException
+            {
+                sink.setInput(new StringReader(text));
+            }
+        };
+    }
+
+    /**
+     * run the tee until it has finished feeding the fast branch and only then let the slow branch read
+     */
+    static void runStalled(TeeProcessor tee, Collector fast, Collector slow, CountDownLatch gate) throws Exception
+    {
+        tee.start();
+        fast.start();
+        slow.start();
+        tee.join();
+        fast.join();
+        gate.countDown();
+        slow.join();
+    }
+
+    /**
+     * a sink which collects its input, optionally waiting for a gate to open before it starts reading
+     */
+    static class Collector extends Thread implements Sink
+    {
+        private Reader input;
+        private final CountDownLatch gate;
+        private final StringBuilder text = new StringBuilder();
+        IOException failure;
+
+        Collector(Source source, CountDownLatch gate) throws IOException
+        {
+            this.gate = gate;
+            source.feed(this);
+        }
+
+        public void setInput(Reader input)
+        {
+            this.input = input;
+        }
+
+        public void run()
+        {
+            try {
+                if (gate != null) {
+                    gate.await();
+                }
+                char[] chars = new char[1000];
+                int count;
+                while ((count = input.read(chars, 0, chars.length)) >= 0) {
+                    text.append(chars, 0, count);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                // give up
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+
+        public String toString()
+        {
+            return text.toString();
+        }
+    }
+}
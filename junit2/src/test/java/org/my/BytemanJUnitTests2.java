@@ -78,7 +78,7 @@ public class BytemanJUnitTests2
      * The second rule throws an IOException in method processPipeline as in the previous test. However
      * this time it specifies a target location and condition (note that these values were defaulted
      * to "AT ENTRY" and "TRUE" in the previous example). The target location is inside the loop body,
-     * just before a call is made to method transform(String). This means the rule is triggered
+     * just before a call is made to method transform(CharSequence, StringBuilder). This means the rule is triggered
      * each time a line of text is about to be processed and written to the output.<p/>
      *
      * The condition calls countDown passing $0 as the identifying key. This ensures that the countdown
@@ -105,7 +105,7 @@ public class BytemanJUnitTests2
                     @BMRule(name="throw IOException at 3rd transform",
                     targetClass = "TextLineProcessor",
                     targetMethod = "processPipeline",
-                    targetLocation = "CALL transform(String)",
+                    targetLocation = "CALL transform(CharSequence, StringBuilder)",
                     condition = "countDown($0)",
                     action = "throw new java.io.IOException()")})
     public void testErrorInStuffedPipeline() throws Exception